@@ -0,0 +1,86 @@
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.apache.hadoop.mapreduce.lib.reduce.WrappedReducer;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.apache.hadoop.mapreduce.task.ReduceContextImpl;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.Progress;
+
+/**
+ * ContextStubs builds the task contexts a mapper or reducer is called
+ * with, without a job around them.  Output goes to a CountingWriter,
+ * and MultipleOutputs writes are dropped by NullOutputFormat.  Reducers
+ * are handed their values directly, so the reduce input is empty.
+ */
+public class ContextStubs {
+
+  /**
+   * Counts the records written to it and drops them.
+   */
+  public static class CountingWriter<K, V> extends RecordWriter<K, V> {
+
+    long records;
+
+    @Override
+    public void write(K key, V value) {
+      ++records;
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) {
+    }
+  }
+
+  private static final RawKeyValueIterator EMPTY = new RawKeyValueIterator() {
+    public DataInputBuffer getKey() {
+      return null;
+    }
+
+    public DataInputBuffer getValue() {
+      return null;
+    }
+
+    public boolean next() {
+      return false;
+    }
+
+    public void close() {
+    }
+
+    public Progress getProgress() {
+      return new Progress();
+    }
+  };
+
+  private static Configuration task(Configuration conf) {
+    conf.setClass(MRJobConfig.OUTPUT_FORMAT_CLASS_ATTR, NullOutputFormat.class, OutputFormat.class);
+    return conf;
+  }
+
+  public static <KI, VI, KO, VO> Mapper<KI, VI, KO, VO>.Context mapContext(
+      Configuration conf, RecordWriter<KO, VO> out) {
+    return new WrappedMapper<KI, VI, KO, VO>().getMapContext(
+        new MapContextImpl<KI, VI, KO, VO>(task(conf), new TaskAttemptID(), null, out, null,
+                                           new TaskAttemptContextImpl.DummyReporter(), null));
+  }
+
+  public static <KI, VI, KO, VO> Reducer<KI, VI, KO, VO>.Context reduceContext(
+      Configuration conf, Class<KI> keyClass, Class<VI> valueClass, RecordWriter<KO, VO> out)
+      throws IOException, InterruptedException {
+    return new WrappedReducer<KI, VI, KO, VO>().getReducerContext(
+        new ReduceContextImpl<KI, VI, KO, VO>(task(conf), new TaskAttemptID(), EMPTY, null, null, out, null,
+                                              new TaskAttemptContextImpl.DummyReporter(), null,
+                                              keyClass, valueClass));
+  }
+}
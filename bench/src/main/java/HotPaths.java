@@ -0,0 +1,295 @@
+import bench.Workload;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * HotPaths holds the benchmarked workloads.  The mappers are fed the
+ * recorded crime and weather rows of archive/sample over and over.  The
+ * reducers are fed groups of GROUP values, recorded from those mappers
+ * with in-mapper combining off, under consecutive days.
+ */
+public class HotPaths {
+
+  /** Values per reduce key, so a run() reduces RECORDS / GROUP keys. */
+  static final int GROUP = 8;
+
+  /** First day of the keys given to the reducers, 2015-01-01. */
+  static final int FIRST_DAY = DayKey.fromCivil(2015, 1, 1);
+
+  public static Workload create(String name, boolean combine) throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(LongIndexMap.ENABLED_KEY, combine);
+    switch (name) {
+      case "CategoryMapper":
+        return new CategoryMapperWorkload(conf);
+      case "ParceWeather":
+        return new ParceWeatherWorkload(conf);
+      case "ReduceWeather":
+        return new ReduceWeatherWorkload(conf);
+      case "FinalReducer":
+        return new FinalReducerWorkload(conf);
+      case "Reducer1":
+        return new JoinReducerWorkload(conf);
+      default:
+        throw new IllegalArgumentException("No workload " + name);
+    }
+  }
+
+  /**
+   * @return the rows of a recorded csv file, without its header
+   */
+  static Text[] rows(String resource) throws IOException {
+    List<Text> rows = new ArrayList<Text>();
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(
+        HotPaths.class.getResourceAsStream(resource), StandardCharsets.UTF_8))) {
+      in.readLine();
+      String line;
+      while ((line = in.readLine()) != null) {
+        rows.add(new Text(line));
+      }
+    }
+    return rows.toArray(new Text[rows.size()]);
+  }
+
+  /**
+   * Keeps a copy of each value written to it.
+   */
+  static class Recorder<K, V extends Writable> extends RecordWriter<K, V> {
+
+    private final Configuration conf;
+    final List<V> values = new ArrayList<V>();
+
+    Recorder(Configuration conf) {
+      this.conf = conf;
+    }
+
+    @Override
+    public void write(K key, V value) {
+      values.add(WritableUtils.clone(value, conf));
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) {
+    }
+  }
+
+  /**
+   * Cut recorded values into groups of GROUP, wrapping around as needed.
+   */
+  static <V> List<List<V>> groups(List<V> values) {
+    int count = Math.max(1, values.size() / GROUP) * GROUP;
+    List<List<V>> groups = new ArrayList<List<V>>();
+    for (int i = 0; i < count; i += GROUP) {
+      List<V> group = new ArrayList<V>(GROUP);
+      for (int j = i; j < i + GROUP; ++j) {
+        group.add(values.get(j % values.size()));
+      }
+      groups.add(group);
+    }
+    return groups;
+  }
+
+  static List<CrimeCountsWritable> recordCrime(Configuration conf) throws Exception {
+    Configuration plain = new Configuration(conf);
+    plain.setBoolean(LongIndexMap.ENABLED_KEY, false);
+    plain.set("district", CrimeReducer.ALL_DISTRICTS);
+    Recorder<DayKey, CrimeCountsWritable> out = new Recorder<DayKey, CrimeCountsWritable>(plain);
+    CrimeReducer.CategoryMapper mapper = new CrimeReducer.CategoryMapper();
+    Mapper<Object, Text, DayKey, CrimeCountsWritable>.Context context = ContextStubs.mapContext(plain, out);
+    mapper.setup(context);
+    for (Text row : rows("crime_records.csv")) {
+      mapper.map(null, row, context);
+    }
+    return out.values;
+  }
+
+  static List<WeatherSampleWritable> recordWeather(Configuration conf) throws Exception {
+    Configuration plain = new Configuration(conf);
+    plain.setBoolean(LongIndexMap.ENABLED_KEY, false);
+    Recorder<DayKey, WeatherSampleWritable> out = new Recorder<DayKey, WeatherSampleWritable>(plain);
+    WeatherReducer.ParceWeather mapper = new WeatherReducer.ParceWeather();
+    Mapper<LongWritable, Text, DayKey, WeatherSampleWritable>.Context context = ContextStubs.mapContext(plain, out);
+    mapper.setup(context);
+    LongWritable offset = new LongWritable(1);
+    for (Text row : rows("weather.csv")) {
+      mapper.map(offset, row, context);
+    }
+    return out.values;
+  }
+
+
+  static class CategoryMapperWorkload implements Workload {
+
+    private final CrimeReducer.CategoryMapper mapper = new CrimeReducer.CategoryMapper();
+    private final ContextStubs.CountingWriter<DayKey, CrimeCountsWritable> out =
+        new ContextStubs.CountingWriter<DayKey, CrimeCountsWritable>();
+    private final Mapper<Object, Text, DayKey, CrimeCountsWritable>.Context context;
+    private final Text[] rows;
+    private final LongWritable offset = new LongWritable(1);
+    private int next;
+
+    CategoryMapperWorkload(Configuration conf) throws Exception {
+      conf.set("district", CrimeReducer.ALL_DISTRICTS);
+      rows = rows("crime_records.csv");
+      context = ContextStubs.mapContext(conf, out);
+      mapper.setup(context);
+    }
+
+    @Override
+    public long run() throws Exception {
+      for (int i = 0; i < RECORDS; ++i) {
+        mapper.map(offset, rows[next], context);
+        next = next + 1 == rows.length ? 0 : next + 1;
+      }
+      return out.records;
+    }
+  }
+
+  static class ParceWeatherWorkload implements Workload {
+
+    private final WeatherReducer.ParceWeather mapper = new WeatherReducer.ParceWeather();
+    private final ContextStubs.CountingWriter<DayKey, WeatherSampleWritable> out =
+        new ContextStubs.CountingWriter<DayKey, WeatherSampleWritable>();
+    private final Mapper<LongWritable, Text, DayKey, WeatherSampleWritable>.Context context;
+    private final Text[] rows;
+    private final LongWritable offset = new LongWritable(1);
+    private int next;
+
+    ParceWeatherWorkload(Configuration conf) throws Exception {
+      rows = rows("weather.csv");
+      context = ContextStubs.mapContext(conf, out);
+      mapper.setup(context);
+    }
+
+    @Override
+    public long run() throws Exception {
+      for (int i = 0; i < RECORDS; ++i) {
+        mapper.map(offset, rows[next], context);
+        next = next + 1 == rows.length ? 0 : next + 1;
+      }
+      return out.records;
+    }
+  }
+
+  static class ReduceWeatherWorkload implements Workload {
+
+    private final WeatherReducer.ReduceWeather reducer = new WeatherReducer.ReduceWeather();
+    private final ContextStubs.CountingWriter<Text, NullWritable> out = new ContextStubs.CountingWriter<Text, NullWritable>();
+    private final Reducer<DayKey, WeatherSampleWritable, Text, NullWritable>.Context context;
+    private final List<List<WeatherSampleWritable>> groups;
+    private final DayKey key = new DayKey();
+    private int next;
+
+    ReduceWeatherWorkload(Configuration conf) throws Exception {
+      groups = groups(recordWeather(conf));
+      context = ContextStubs.reduceContext(conf, DayKey.class, WeatherSampleWritable.class, out);
+      reducer.setup(context);
+    }
+
+    @Override
+    public long run() throws Exception {
+      for (int i = 0; i < RECORDS / GROUP; ++i) {
+        key.set(FIRST_DAY + next);
+        reducer.reduce(key, groups.get(next), context);
+        next = next + 1 == groups.size() ? 0 : next + 1;
+      }
+      return out.records;
+    }
+  }
+
+  static class FinalReducerWorkload implements Workload {
+
+    private final CrimeReducer.FinalReducer reducer = new CrimeReducer.FinalReducer();
+    private final ContextStubs.CountingWriter<Text, NullWritable> out = new ContextStubs.CountingWriter<Text, NullWritable>();
+    private final Reducer<DayKey, CrimeCountsWritable, Text, NullWritable>.Context context;
+    private final List<List<CrimeCountsWritable>> groups;
+    private final DayKey key = new DayKey();
+    private int next;
+    private long reduced;
+
+    FinalReducerWorkload(Configuration conf) throws Exception {
+      groups = groups(recordCrime(conf));
+      context = ContextStubs.reduceContext(conf, DayKey.class, CrimeCountsWritable.class, out);
+      reducer.setup(context);
+    }
+
+    @Override
+    public long run() throws Exception {
+      for (int i = 0; i < RECORDS / GROUP; ++i) {
+        key.set(FIRST_DAY + next);
+        reducer.reduce(key, groups.get(next), context);
+        next = next + 1 == groups.size() ? 0 : next + 1;
+        ++reduced;
+      }
+      // rows go to MultipleOutputs, which drops them here
+      return reduced;
+    }
+  }
+
+  static class JoinReducerWorkload implements Workload {
+
+    private final CrimeWeatherAgg.Reducer1 reducer = new CrimeWeatherAgg.Reducer1();
+    private final ContextStubs.CountingWriter<Text, NullWritable> out = new ContextStubs.CountingWriter<Text, NullWritable>();
+    private final Reducer<JoinKey, JoinValueWritable, Text, NullWritable>.Context context;
+    private final List<List<JoinValueWritable>> groups = new ArrayList<List<JoinValueWritable>>();
+    private final JoinKey key = new JoinKey();
+    private int next;
+
+    /**
+     * Each date joins the day's weather with GROUP - 1 recorded district counts.
+     */
+    JoinReducerWorkload(Configuration conf) throws Exception {
+      WeatherStats stats = new WeatherStats(1);
+      for (WeatherSampleWritable sample : recordWeather(conf)) {
+        sample.mergeInto(stats, 0);
+      }
+      JoinValueWritable weather = new JoinValueWritable();
+      double[] means = weather.setWeather();
+      for (int i = 0; i < means.length; ++i) {
+        means[i] = stats.mean(0, i);
+      }
+
+      List<CrimeCountsWritable> crime = recordCrime(conf);
+      for (List<CrimeCountsWritable> districts : groups(crime)) {
+        List<JoinValueWritable> group = new ArrayList<JoinValueWritable>(Arrays.asList(weather));
+        for (CrimeCountsWritable counts : districts.subList(1, GROUP)) {
+          JoinValueWritable value = new JoinValueWritable();
+          CrimeCountsWritable c = value.setCrime();
+          c.clear(counts.getDistrict());
+          for (int i = 0; i < CrimeCountsWritable.CATEGORIES; ++i) {
+            c.set(i, counts.get(i));
+          }
+          group.add(value);
+        }
+        groups.add(group);
+      }
+      context = ContextStubs.reduceContext(conf, JoinKey.class, JoinValueWritable.class, out);
+      reducer.setup(context);
+    }
+
+    @Override
+    public long run() throws Exception {
+      for (int i = 0; i < RECORDS / GROUP; ++i) {
+        key.set(FIRST_DAY + next, JoinKey.WEATHER, 0);
+        reducer.reduce(key, groups.get(next), context);
+        next = next + 1 == groups.size() ? 0 : next + 1;
+      }
+      return out.records;
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the mapper and reducer hot paths over the recorded rows
+ * in archive/sample, in input records per second.  With -prof gc the
+ * gc.alloc.rate.norm column is the bytes allocated per input record.
+ *
+ *   java -jar bench/target/benchmarks.jar -prof gc
+ *   java -jar bench/target/benchmarks.jar CategoryMapper -p combine=false
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HotPathBenchmark {
+
+  static Workload create(String name, boolean combine) throws Exception {
+    return (Workload) Class.forName("HotPaths")
+        .getMethod("create", String.class, boolean.class)
+        .invoke(null, name, combine);
+  }
+
+  /**
+   * The mappers, with and without in-mapper combining (inmapper.combine).
+   */
+  @State(Scope.Thread)
+  public static class Mappers {
+
+    @Param({"true", "false"})
+    public boolean combine;
+
+    Workload categoryMapper;
+    Workload parceWeather;
+
+    @Setup
+    public void setup() throws Exception {
+      categoryMapper = create("CategoryMapper", combine);
+      parceWeather = create("ParceWeather", combine);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Reducers {
+
+    Workload reduceWeather;
+    Workload finalReducer;
+    Workload joinReducer;
+
+    @Setup
+    public void setup() throws Exception {
+      reduceWeather = create("ReduceWeather", false);
+      finalReducer = create("FinalReducer", false);
+      joinReducer = create("Reducer1", false);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(Workload.RECORDS)
+  public long categoryMapper(Mappers m) throws Exception {
+    return m.categoryMapper.run();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(Workload.RECORDS)
+  public long parceWeather(Mappers m) throws Exception {
+    return m.parceWeather.run();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(Workload.RECORDS)
+  public long reduceWeather(Reducers r) throws Exception {
+    return r.reduceWeather.run();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(Workload.RECORDS)
+  public long finalReducer(Reducers r) throws Exception {
+    return r.finalReducer.run();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(Workload.RECORDS)
+  public long joinReducer(Reducers r) throws Exception {
+    return r.joinReducer.run();
+  }
+}
@@ -0,0 +1,20 @@
+package bench;
+
+/**
+ * A hot path fed with recorded input.  The jobs live in the default
+ * package, which JMH benchmarks cannot be in or import from, so the
+ * workloads are default package classes (see HotPaths) reached through
+ * this interface.
+ */
+public interface Workload {
+
+  /** Input records fed to the hot path by each call to run(). */
+  int RECORDS = 1024;
+
+  /**
+   * Feed the next RECORDS records.
+   *
+   * @return the number of records written out, so the work cannot be dropped
+   */
+  long run() throws Exception;
+}
@@ -12,6 +12,7 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Partitioner;
 import org.apache.hadoop.mapreduce.Reducer;
@@ -19,6 +20,7 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 
 /**
@@ -156,6 +158,7 @@ public class CrimeWeather {
   public static void main(String[] args) throws Exception {
 
     Configuration conf = new Configuration();
+    args = new GenericOptionsParser(conf, args).getRemainingArgs();
     Job job = Job.getInstance(conf, "CrimeWeather");
 
     MultipleInputs.addInputPath(job, new Path(args[1]),
@@ -166,7 +169,7 @@ public class CrimeWeather {
 
     job.setJarByClass(CrimeWeather.class);
 //    job.setPartitionerClass(job1Partitioner.class);
-    job.setNumReduceTasks(1);
+    job.setNumReduceTasks(conf.getInt(MRJobConfig.NUM_REDUCES, 1));
     job.setReducerClass(Reducer1.class);
 
     job.setMapOutputKeyClass(Text.class);
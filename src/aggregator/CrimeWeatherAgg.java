@@ -12,136 +12,487 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Partitioner;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 
 /**
  * The CrimeWeatherAgg class will join the proccessed crime and
- * weather datasets by date (key). Date format output needs to be set to MM/DD/YYYY
- * in each mapper to group by date.
+ * weather datasets by date (key). Both mappers parse their date into a DayKey,
+ * so the MM/DD/YYYY crime and YYYY-MM-DD weather dates group together.
+ *
+ * With weather.spatial=true the crime rows count the crimes nearest each
+ * weather station and the weather output holds the _stationN rows of each,
+ * see StationGrid.  A district then gets the weather of those stations
+ * weighted by its crimes rather than the citywide weather, and the joined
+ * row has no observation counts.  Without it the station rows and counts
+ * are ignored.
  */
 
 public class CrimeWeatherAgg {
 
+  /** Configuration key to join on the map side instead of in a reducer. */
+  public static final String MAPSIDE_KEY = "join.mapside";
+
+  /** Configuration key to give each reducer a contiguous range of dates. */
+  public static final String TOTAL_ORDER_KEY = "join.total.order";
+
+  /**
+   * Configuration key of the output layout:
+   *  - single:   every joined row in the part files (default)
+   *  - district: the joined rows of district N in wcN files
+   *  - wide:     one row per date with the counts of every district
+   */
+  public static final String OUTPUT_KEY = "join.output";
+
+  public static final String OUTPUT_SINGLE = "single";
+  public static final String OUTPUT_DISTRICT = "district";
+  public static final String OUTPUT_WIDE = "wide";
+
+  /**
+   * Rows read from each side, those skipped and why, and the joined rows.
+   * A crime row is NO_WEATHER when its date has no weather row.
+   */
+  public static enum Rows {
+    WEATHER, CRIME, MALFORMED, BEFORE_SINCE, DUPLICATE_WEATHER, NO_WEATHER, JOINED
+  }
+
   /**
    * Two mappers, one for each Crime and Weather input file.
-   * Output of each mapper is in the form <Date, {wX or CrimeSet}>
-   * Wx = {Date,Wx1,Wx2,Wx3,Wx4}
-   * CrimeSet = {Date,District,C1,C2,C3,C4,C5,C6,C7,C8}
+   * Output of each mapper is in the form <JoinKey, JoinValueWritable> holding either
+   * Wx = {Wx1,Wx2,Wx3,Wx4}
+   * CrimeSet = {District,C1,C2,C3,C4,C5,C6,C7,C8}
+   * The key holds the date along with the side of the join and the district.
    */
 
-  public static class WeatherMapper extends Mapper<Object, Text, Text, Text> {
+  public static class WeatherMapper extends Mapper<Object, Text, JoinKey, JoinValueWritable> {
+
+    private JoinKey date = new JoinKey();
+    private JoinValueWritable deltaWx = new JoinValueWritable();
+    private int since;
+    private TaskMetrics<Rows> metrics;
+
+    @Override
+    protected void setup(Context context) {
+      since = IncrementalOutput.since(context.getConfiguration());
+      metrics = new TaskMetrics<Rows>("Map", Rows.class, context.getConfiguration());
+    }
 
-    private Text date = new Text();
-    private Text deltaWx = new Text();
+    @Override
+    protected void cleanup(Context context) {
+      metrics.finish(context);
+    }
 
     public void map(Object key, Text result, Context context) throws IOException, InterruptedException {
 
       String[] inputSplit = result.toString().split(",");
-      StringJoiner Wx = new StringJoiner(",");
 
-      if(inputSplit.length > 4) {
+      if(inputSplit.length <= 4) {
+        metrics.count(Rows.MALFORMED);
+      }
+      else {
 
-        // add all wX's comma seperated
-        for(int i = 1; i < 5; i++) {
-          Wx.add(inputSplit[i]);
+        try {
+          date.set(DayKey.parse(inputSplit[0]), JoinKey.WEATHER, 0);
+        }
+        catch (NumberFormatException e) {
+          metrics.count(Rows.MALFORMED);
+          return;
+        }
+        if (date.get() < since) {
+          metrics.count(Rows.BEFORE_SINCE);
+          return;
         }
 
-        // format date from YYYY-MM-DD to
-        String[] tempDate = inputSplit[0].split("-");
-        String dateOut = tempDate[1] + "/" + tempDate[2] + "/" + tempDate[0];
+        // parse all wX's
+        double[] Wx = deltaWx.setWeather();
+        for(int i = 1; i < 5; i++) {
+          Wx[i - 1] = WeatherStats.parse(inputSplit[i]);
+        }
 
-        date.set(dateOut);
-        deltaWx.set("W" + Wx);
+        // observation counts follow when written with weather.output.stats
+        if(inputSplit.length > 8) {
+          int[] counts = deltaWx.setWeatherCounts();
+          for(int i = 5; i < 9; i++) {
+            counts[i - 5] = Integer.parseInt(inputSplit[i]);
+          }
+        }
 
         // Output <date, deltaWx>
         context.write(date, deltaWx);
+        metrics.count(Rows.WEATHER);
       }
     }
   }
 
-  public static class CrimeMapper extends Mapper<Object, Text, Text, Text> {
+  public static class CrimeMapper extends Mapper<Object, Text, JoinKey, JoinValueWritable> {
 
-    private Text date = new Text();
-    private Text crimeSet = new Text();
+    private JoinKey date = new JoinKey();
+    private JoinValueWritable crimeSet = new JoinValueWritable();
+    private int since;
+    private TaskMetrics<Rows> metrics;
+
+    @Override
+    protected void setup(Context context) {
+      since = IncrementalOutput.since(context.getConfiguration());
+      metrics = new TaskMetrics<Rows>("Map", Rows.class, context.getConfiguration());
+    }
+
+    @Override
+    protected void cleanup(Context context) {
+      metrics.finish(context);
+    }
 
     public void map(Object key, Text result, Context context) throws IOException, InterruptedException {
 
-      String[] inputSplit = result.toString().split(",");
-      StringJoiner crime = new StringJoiner(",");
+      long start = metrics.start();
+      try {
+        CrimeCountsWritable crime = crimeSet.setCrime();
+        int day = parseCrime(result.toString(), crime);
+        date.set(day, JoinKey.CRIME, crime.getDistrict());
+      }
+      catch (NumberFormatException e) {
+        metrics.count(Rows.MALFORMED);
+        return;
+      }
+      if (date.get() < since) {
+        metrics.count(Rows.BEFORE_SINCE);
+        return;
+      }
 
-      if(inputSplit.length > 9) {
+      // Output <date, crimeSet>
+      context.write(date, crimeSet);
+      metrics.count(Rows.CRIME);
+      metrics.stop(start);
+    }
+  }
 
-        // add all wX's comma seperated
-        for(int i = 1; i < 10; i++) {
-          crime.add(inputSplit[i]);
-        }
+  /**
+   * Parse a crime district row {Date,District,C1,C2,C3,C4,C5,C6,C7,C8},
+   * followed by S1..SN in the spatial mode.
+   *
+   * @return the date as days since 1970-01-01, the counts are filled into crime
+   * @throws NumberFormatException if the row is short or malformed
+   */
+  public static int parseCrime(String line, CrimeCountsWritable crime) {
 
-        date.set(inputSplit[0]);
-        crimeSet.set("C" + crime);
+    String[] inputSplit = line.split(",");
 
-        // Output <date, deltaWx>
-        context.write(date, crimeSet);
+    if(inputSplit.length <= 9) {
+      throw new NumberFormatException("Short crime row: \"" + line + "\"");
+    }
+
+    int day = DayKey.parse(inputSplit[0]);
+
+    // parse the district and its category counts
+    crime.setDistrict(Integer.parseInt(inputSplit[1]));
+    for(int i = 2; i < 10; i++) {
+      crime.set(i - 2, Integer.parseInt(inputSplit[i]));
+    }
+    crime.setStations(inputSplit.length - 10);
+    for(int i = 10; i < inputSplit.length; i++) {
+      crime.setNearest(i - 9, Integer.parseInt(inputSplit[i]));
+    }
+    return day;
+  }
+
+  /**
+   * Joined output row {Date,Wx1,Wx2,Wx3,Wx4,District,C1,C2,C3,C4,C5,C6,C7,C8},
+   * followed by {N1,N2,N3,N4}, the observations behind each weather average,
+   * when they are known.
+   */
+  public static String joinLine(int day, double[] weather, int[] weatherCounts, CrimeCountsWritable crime) {
+
+    StringBuilder lineOut = new StringBuilder(DayKey.toUsDate(day));
+    for (double w : weather) {
+      lineOut.append(',').append(WeatherStats.format(w));
+    }
+    lineOut.append(',').append(crime);
+    if (weatherCounts != null) {
+      for (int n : weatherCounts) {
+        lineOut.append(',').append(n);
       }
     }
+    return lineOut.toString();
   }
 
+  /**
+   * Wide output row {Date,Wx1,Wx2,Wx3,Wx4} followed by C1..C8 of each district 1..N.
+   */
+  public static String wideLine(int day, double[] weather, int[][] counts) {
+
+    StringBuilder lineOut = new StringBuilder(DayKey.toUsDate(day));
+    for (double w : weather) {
+      lineOut.append(',').append(WeatherStats.format(w));
+    }
+    for (int d = 1; d < counts.length; d++) {
+      for (int c : counts[d]) {
+        lineOut.append(',').append(c);
+      }
+    }
+    return lineOut.toString();
+  }
 
   /**
-   * Sort-Shuffle phase will return a list of values(Wx or crimeSet) corresponding to each key(Date)
-   * The reducer is recieveing input in this format: {date, [("W" + wX, "C" + crimeSet)]}
-   * Our output should be {Date,Wx1,Wx2,Wx3,Wx4,District,C1,C2,C3,C4,C5,C6,C7,C8}.
+   * Weather of the district rows in the spatial mode, the station rows
+   * loaded by each task.
    */
-  public static class Reducer1 extends Reducer<Text, Text, Text, NullWritable> {
+  static class SpatialWeather {
 
-    // Used to context write out
-    Text finalOut = new Text();
-    String lineOut = "";
-    String crimeLine = "";
-    String weatherLine = "";
+    private final DailyWeatherTable[] stations;
+    private final double[][] weather;
+    private final int[] weights;
 
-    public void reduce(Text key, Iterable<Text> result, Context context) throws IOException, InterruptedException {
+    SpatialWeather(Configuration conf) throws IOException {
+      int n = StationGrid.load(conf).stations();
+      stations = DailyWeatherTable.loadStations(conf, n);
+      weather = new double[n + 1][WeatherSampleWritable.FIELDS];
+      weights = new int[n + 1];
+    }
 
+    /**
+     * Blend the weather of the stations nearest the crimes of a row, a
+     * station without a value standing in with the citywide one as do
+     * the crimes without a location.
+     */
+    void blend(int day, double[] citywide, CrimeCountsWritable crime, double[] blended) throws IOException {
+      int n = weights.length - 1;
+      if (crime.getStations() != n) {
+        throw new IOException("A crime row counts " + crime.getStations() + " stations, not " + n
+            + ", run CrimeReducer with " + StationGrid.SPATIAL_KEY + "=true and the same stations");
+      }
+      System.arraycopy(citywide, 0, weather[0], 0, citywide.length);
+      weights[0] = crime.total();
+      for (int s = 1; s <= n; s++) {
+        weights[s] = crime.getNearest(s);
+        weights[0] -= weights[s];
+        DailyWeatherTable station = stations[s];
+        boolean has = station != null && station.has(day);
+        for (int i = 0; i < citywide.length; i++) {
+          double value = has ? station.get(day, i) : Double.NaN;
+          weather[s][i] = Double.isNaN(value) ? citywide[i] : value;
+        }
+      }
+      StationGrid.blend(weather, weights, blended);
+    }
+  }
 
-      // for each crime or weather line
-      for (Text r : result) {
+  /**
+   * Map side join, used when join.mapside is set.  Each task loads the whole
+   * weather output from the distributed cache into a DailyWeatherTable, so the
+   * crime rows are joined as they are read and the job needs no reducer.
+   * The wide output needs every district of a date together, so it is
+   * only produced by the reduce side join.
+   */
+  public static class MapSideJoinMapper extends Mapper<Object, Text, Text, NullWritable> {
+
+    private ColumnarOutputFormat.Row finalOut = new ColumnarOutputFormat.Row();
+    private boolean columnar;
+    private final double[] weather = new double[WeatherSampleWritable.FIELDS];
+    private final int[] weatherCounts = new int[WeatherSampleWritable.FIELDS];
+    private final double[] blended = new double[WeatherSampleWritable.FIELDS];
+    private final CrimeCountsWritable crime = new CrimeCountsWritable();
+    private DailyWeatherTable weatherTable;
+    private SpatialWeather spatial;
+    private MultipleOutputs<Text, NullWritable> mos;
+    private TaskMetrics<Rows> metrics;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+      metrics = new TaskMetrics<Rows>("Map", Rows.class, context.getConfiguration());
+      weatherTable = DailyWeatherTable.load(context.getConfiguration());
+      if (context.getConfiguration().getBoolean(StationGrid.SPATIAL_KEY, false)) {
+        spatial = new SpatialWeather(context.getConfiguration());
+      }
+      columnar = ColumnarOutputFormat.isColumnar(context.getConfiguration());
+      if (OUTPUT_DISTRICT.equals(context.getConfiguration().get(OUTPUT_KEY, OUTPUT_SINGLE))) {
+        mos = new MultipleOutputs<Text, NullWritable>(context);
+      }
+    }
 
-        String line = r.toString();
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+      if (mos != null) {
+        mos.close();
+      }
+      metrics.finish(context);
+    }
 
-        // check if string is wX
-        if (line.charAt(0) == 'W') {
+    public void map(Object key, Text result, Context context) throws IOException, InterruptedException {
 
-          // Remove the "W"
-          weatherLine = line.substring(1);
-        }
+      long start = metrics.start();
+      int day;
+      try {
+        day = parseCrime(result.toString(), crime);
+      }
+      catch (NumberFormatException e) {
+        metrics.count(Rows.MALFORMED);
+        return;
+      }
+      metrics.count(Rows.CRIME);
 
-        // else its a crimeSet
+      if (!weatherTable.has(day)) {
+        metrics.count(Rows.NO_WEATHER);
+      }
+      else {
+        weatherTable.get(day, weather);
+        if (spatial != null) {
+          spatial.blend(day, weather, crime, blended);
+        }
+        if (columnar) {
+          finalOut.setValues(day, spatial != null ? blended : weather, crime);
+        }
+        else if (spatial != null) {
+          finalOut.set(joinLine(day, blended, null, crime));
+        }
         else {
-
-            // Remove the "C"
-            crimeLine = line.substring(1);
+          boolean counted = weatherTable.getCounts(day, weatherCounts);
+          finalOut.set(joinLine(day, weather, counted ? weatherCounts : null, crime));
         }
+        if (mos != null) {
+          mos.write(finalOut, NullWritable.get(), "wc" + crime.getDistrict());
+        }
+        else {
+          context.write(finalOut, NullWritable.get());
+        }
+        metrics.count(Rows.JOINED);
+      }
+      metrics.stop(start);
+    }
+  }
+
+
+  /**
+   * Sort-Shuffle phase will return a list of values(Wx or crimeSet) corresponding to each key(Date)
+   * The keys of a date are grouped together and sorted so its weather comes first,
+   * followed by the crimeSet of each district in order: {date, [weather, crimeSet1, crimeSet2, ...]}
+   * Our output should be {Date,Wx1,Wx2,Wx3,Wx4,District,C1,C2,C3,C4,C5,C6,C7,C8} per district,
+   * written out as each crimeSet arrives, so no values are held in memory.
+   */
+  public static class Reducer1 extends Reducer<JoinKey, JoinValueWritable, Text, NullWritable> {
+
+    // Used to context write out
+    ColumnarOutputFormat.Row finalOut = new ColumnarOutputFormat.Row();
+    private boolean columnar;
+    private final double[] weather = new double[WeatherSampleWritable.FIELDS];
+    private final int[] weatherCounts = new int[WeatherSampleWritable.FIELDS];
+    private final double[] blended = new double[WeatherSampleWritable.FIELDS];
+    private boolean counted;
+    private SpatialWeather spatial;
+    private String output;
+    private MultipleOutputs<Text, NullWritable> mos;
+    private int[][] wide;
+    private TaskMetrics<Rows> metrics;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+      metrics = new TaskMetrics<Rows>("Reduce", Rows.class, context.getConfiguration());
+      output = context.getConfiguration().get(OUTPUT_KEY, OUTPUT_SINGLE);
+      columnar = ColumnarOutputFormat.isColumnar(context.getConfiguration());
+      if (context.getConfiguration().getBoolean(StationGrid.SPATIAL_KEY, false)) {
+        spatial = new SpatialWeather(context.getConfiguration());
+      }
+      if (OUTPUT_DISTRICT.equals(output)) {
+        mos = new MultipleOutputs<Text, NullWritable>(context);
       }
+      else if (OUTPUT_WIDE.equals(output)) {
+        int districts = DistrictTable.load(context.getConfiguration()).districts();
+        wide = new int[districts + 1][CrimeCountsWritable.CATEGORIES];
+      }
+    }
 
-      if(crimeLine != "" && weatherLine != "") {
+    public void reduce(JoinKey key, Iterable<JoinValueWritable> result, Context context) throws IOException, InterruptedException {
 
-        lineOut = key + "," + weatherLine + "," + crimeLine;
+      long start = metrics.start();
+      boolean first = true;
+      boolean noWeather = false;
+      boolean anyCrime = false;
+
+      for (JoinValueWritable r : result) {
+
+        // Weather sorts first, a date without it has nothing to join
+        if (first && !r.isWeather()) {
+          noWeather = true;
+          first = false;
+        }
+        if (noWeather) {
+          metrics.count(Rows.NO_WEATHER);
+          continue;
+        }
+        if (first) {
+          System.arraycopy(r.getWeather(), 0, weather, 0, weather.length);
+          counted = r.getWeatherCounts() != null;
+          if (counted) {
+            System.arraycopy(r.getWeatherCounts(), 0, weatherCounts, 0, weatherCounts.length);
+          }
+          if (wide != null) {
+            for (int[] counts : wide) {
+              Arrays.fill(counts, 0);
+            }
+          }
+          first = false;
+          continue;
+        }
 
-//      System.out.println("FINAL OUT: " + key + " " + finalOut);
+        // a repeated weather row for the date is ignored
+        if (!r.isCrime()) {
+          metrics.count(Rows.DUPLICATE_WEATHER);
+          continue;
+        }
+        metrics.count(Rows.JOINED);
+
+        CrimeCountsWritable crime = r.getCrime();
+        if (wide != null) {
+          if (crime.getDistrict() >= wide.length) {
+            throw new IOException("District " + crime.getDistrict() + " is not in the district table");
+          }
+          crime.addTo(wide[crime.getDistrict()]);
+          anyCrime = true;
+        }
+        else {
+          if (spatial != null) {
+            spatial.blend(key.get(), weather, crime, blended);
+          }
+          if (columnar) {
+            finalOut.setValues(key.get(), spatial != null ? blended : weather, crime);
+          }
+          else if (spatial != null) {
+            finalOut.set(joinLine(key.get(), blended, null, crime));
+          }
+          else {
+            finalOut.set(joinLine(key.get(), weather, counted ? weatherCounts : null, crime));
+          }
+          if (mos != null) {
+            mos.write(finalOut, NullWritable.get(), "wc" + crime.getDistrict());
+          }
+          else {
+            context.write(finalOut, NullWritable.get());
+          }
+        }
+      }
 
-        finalOut.set(lineOut);
+      if (anyCrime) {
+        finalOut.set(wideLine(key.get(), weather, wide));
         context.write(finalOut, NullWritable.get());
+      }
+      metrics.stop(start);
+    }
 
-        weatherLine = "";
-        crimeLine = "";
-        finalOut.clear();
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+      if (mos != null) {
+        mos.close();
       }
+      metrics.finish(context);
     }
   }
 
@@ -151,27 +502,104 @@ public class CrimeWeatherAgg {
   public static void main(String[] args) throws Exception {
 
     Configuration conf = new Configuration();
+    // Generic options such as -D join.mapside=true come first
+    args = new GenericOptionsParser(conf, args).getRemainingArgs();
+    Job job = createJob(conf, args);
+    boolean success = job.waitForCompletion(true);
+    if (success) {
+      IncrementalOutput.merge(job);
+      // Row counts and timings go to <Outputlocation>/_metrics.csv
+      TaskMetrics.writeSummary(job);
+    }
+    System.exit(success ? 0 : 1);
+
+  }
+
+  /**
+   * Configures the join of <Outputlocation> <crime output> <weather output>, without running it.
+   */
+  public static Job createJob(Configuration conf, String[] args) throws IOException {
     Job job = Job.getInstance(conf, "CrimeWeatherAgg");
+    job.setJarByClass(CrimeWeatherAgg.class);
+
+    String output = conf.get(OUTPUT_KEY, OUTPUT_SINGLE);
+    if (!output.equals(OUTPUT_SINGLE) && !output.equals(OUTPUT_DISTRICT) && !output.equals(OUTPUT_WIDE)) {
+      throw new IllegalArgumentException(OUTPUT_KEY + " must be single, district or wide");
+    }
+    if (output.equals(OUTPUT_DISTRICT)) {
+      // Only the wcN files are written, so skip the empty default part files
+      LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+    }
+    // -D output.format=columnar writes binary <year>/<name>.col tables of the joined rows instead
+    if (ColumnarOutputFormat.configure(job, ColumnarTable.WEATHER | ColumnarTable.CRIME)
+        && output.equals(OUTPUT_WIDE)) {
+      throw new IllegalArgumentException("The columnar output holds one district per row, not the wide output");
+    }
+    Compression.configure(job);
+    if (conf.get(DistrictTable.FILE_KEY) != null) {
+      DistrictTable.addTo(job, conf.get(DistrictTable.FILE_KEY));
+    }
+    // -D weather.spatial=true weighs the weather of the stations by the crimes nearest each
+    if (conf.getBoolean(StationGrid.SPATIAL_KEY, false)) {
+      if (output.equals(OUTPUT_WIDE)) {
+        throw new IllegalArgumentException("The wide output has one weather per date, not per district");
+      }
+      if (conf.get(StationGrid.FILE_KEY) != null) {
+        StationGrid.addTo(job, conf.get(StationGrid.FILE_KEY));
+      }
+      DailyWeatherTable.addStationsTo(job, new Path(args[2]));
+    }
+
+    if (conf.getBoolean(MAPSIDE_KEY, false)) {
 
-    MultipleInputs.addInputPath(job, new Path(args[1]),
-            TextInputFormat.class, CrimeMapper.class);
+      if (output.equals(OUTPUT_WIDE)) {
+        throw new IllegalArgumentException("The wide output needs the reduce side join");
+      }
+      if (IncrementalOutput.isEnabled(conf)) {
+        // part-m-* files follow the input splits, so they cannot be merged by name
+        throw new IllegalArgumentException("The incremental mode needs the reduce side join");
+      }
 
-    MultipleInputs.addInputPath(job, new Path(args[2]),
-            TextInputFormat.class, WeatherMapper.class);
+      // Ship the small weather output to every mapper and join without a shuffle
+      DailyWeatherTable.addTo(job, new Path(args[2]));
+      FileInputFormat.addInputPath(job, new Path(args[1]));
+      job.setInputFormatClass(RowInputFormat.class);
+      job.setMapperClass(MapSideJoinMapper.class);
+      job.setNumReduceTasks(0);
+    }
+    else {
 
-    job.setJarByClass(CrimeWeatherAgg.class);
-//    job.setPartitionerClass(job1Partitioner.class);
-    job.setNumReduceTasks(1);
-    job.setReducerClass(Reducer1.class);
+      // Either side may be compressed or a SequenceFile
+      MultipleInputs.addInputPath(job, new Path(args[1]),
+              RowInputFormat.class, CrimeMapper.class);
 
-    job.setMapOutputKeyClass(Text.class);
-    job.setMapOutputValueClass(Text.class);
+      MultipleInputs.addInputPath(job, new Path(args[2]),
+              RowInputFormat.class, WeatherMapper.class);
+
+      // Reducers each get a contiguous range of dates, so the join scales with
+      // -D mapreduce.job.reduces=N and part-r-* files concatenate in date order.
+      // Set join.total.order=false to spread dates by hash instead.
+      if (conf.getBoolean(TOTAL_ORDER_KEY, true)) {
+        job.setPartitionerClass(DayRangePartitioner.class);
+        DayRangePartitioner.configure(job, new Path(args[1]), new Path(args[2]));
+      }
+      job.setNumReduceTasks(conf.getInt(MRJobConfig.NUM_REDUCES, 1));
+      job.setReducerClass(Reducer1.class);
+
+      // Sort by date, weather first, then district, but reduce a whole date at once
+      job.setMapOutputKeyClass(JoinKey.class);
+      job.setMapOutputValueClass(JoinValueWritable.class);
+      job.setSortComparatorClass(JoinKey.Comparator.class);
+      job.setGroupingComparatorClass(JoinKey.GroupComparator.class);
+    }
 
     job.setOutputKeyClass(Text.class);
     job.setOutputValueClass(NullWritable.class);
 
-    FileOutputFormat.setOutputPath(job, new Path(args[0]));
-    System.exit(job.waitForCompletion(true) ? 0 : 1);
-
+    // With -D incremental.since=<date> only the dates from then on are
+    // joined again and merged into the existing output
+    Path out = new Path(args[0]);
+    FileOutputFormat.setOutputPath(job, IncrementalOutput.prepare(job, out));
+    return job;
   }
 }
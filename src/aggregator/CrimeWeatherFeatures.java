@@ -0,0 +1,236 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+
+/**
+ * The CrimeWeatherFeatures class turns the daily joined rows of
+ * CrimeWeatherAgg into the training matrix of each district: the day's
+ * weather and crimes along with lagged crimes, rolling means, the day of
+ * the week and the temperature change, see FeatureWindow for the columns.
+ *
+ * The rows of a district reach one reducer sorted by date, which streams
+ * them through a FeatureWindow, so no district's history is held in
+ * memory.  The rows of district N are written to wcN-r-*, the column
+ * names to _columns.csv.
+ *
+ * USAGE: CrimeWeatherFeatures [-D features.lags=1,7] [-D features.windows=7,30]
+ *                             <Dailyjoinedinput> <Outputlocation>
+ */
+
+public class CrimeWeatherFeatures {
+
+  /** Name of the column names file under the output. */
+  public static final String COLUMNS = "_columns.csv";
+
+  /** Joined rows read, those skipped and why, and the feature rows written. */
+  public static enum Rows {
+    READ, MALFORMED, DUPLICATE, WRITTEN
+  }
+
+  /**
+   * @return the key of a day of a district, sorting by district then day
+   */
+  public static long key(int district, int day) {
+    return ((long) district << 32) | (day + (1L << 31));
+  }
+
+  /**
+   * Parse a daily joined row {Date,Wx1,Wx2,Wx3,Wx4,District,C1,...,C8[,N1,...,N4]}.
+   *
+   * @return the date as days since 1970-01-01, weather and crime are filled in
+   * @throws NumberFormatException if the row is short or malformed
+   */
+  public static int parseJoined(String line, double[] weather, CrimeCountsWritable crime) {
+    String[] inputSplit = line.split(",");
+    if (inputSplit.length < 2 + WeatherStats.FIELDS + CrimeCountsWritable.CATEGORIES) {
+      throw new NumberFormatException("Short joined row: \"" + line + "\"");
+    }
+    int day = DayKey.parse(inputSplit[0]);
+    for (int i = 0; i < WeatherStats.FIELDS; ++i) {
+      weather[i] = WeatherStats.parse(inputSplit[i + 1]);
+    }
+    crime.setDistrict(Integer.parseInt(inputSplit[WeatherStats.FIELDS + 1]));
+    for (int i = 0; i < CrimeCountsWritable.CATEGORIES; ++i) {
+      crime.set(i, Integer.parseInt(inputSplit[WeatherStats.FIELDS + 2 + i]));
+    }
+    return day;
+  }
+
+  /**
+   * Output <key(district, day), joined row>.
+   */
+  public static class FeatureMapper extends Mapper<Object, Text, LongWritable, Text> {
+
+    private final LongWritable outKey = new LongWritable();
+    private final double[] weather = new double[WeatherStats.FIELDS];
+    private final CrimeCountsWritable crime = new CrimeCountsWritable();
+    private TaskMetrics<Rows> metrics;
+
+    @Override
+    protected void setup(Context context) {
+      metrics = new TaskMetrics<Rows>("Map", Rows.class, context.getConfiguration());
+    }
+
+    public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
+      metrics.count(Rows.READ);
+      int day;
+      try {
+        day = parseJoined(value.toString(), weather, crime);
+      }
+      catch (NumberFormatException e) {
+        metrics.count(Rows.MALFORMED);
+        return;
+      }
+      outKey.set(key(crime.getDistrict(), day));
+      context.write(outKey, value);
+    }
+
+    @Override
+    protected void cleanup(Context context) {
+      metrics.finish(context);
+    }
+  }
+
+  /**
+   * Sends every day of a district to the same reducer.
+   */
+  public static class DistrictPartitioner extends Partitioner<LongWritable, Text> {
+
+    @Override
+    public int getPartition(LongWritable key, Text value, int numPartitions) {
+      return (int) ((key.get() >>> 32) % numPartitions);
+    }
+  }
+
+  /**
+   * Streams the days of each district in order through a FeatureWindow,
+   * starting over when the district changes.  A repeated day is skipped.
+   */
+  public static class FeatureReducer extends Reducer<LongWritable, Text, Text, NullWritable> {
+
+    private final Text finalOut = new Text();
+    private final double[] weather = new double[WeatherStats.FIELDS];
+    private final CrimeCountsWritable crime = new CrimeCountsWritable();
+    private FeatureWindow window;
+    private int district = -1;
+    private MultipleOutputs<Text, NullWritable> mos;
+    private TaskMetrics<Rows> metrics;
+
+    @Override
+    protected void setup(Context context) {
+      window = FeatureWindow.create(context.getConfiguration());
+      mos = new MultipleOutputs<Text, NullWritable>(context);
+      metrics = new TaskMetrics<Rows>("Reduce", Rows.class, context.getConfiguration());
+    }
+
+    public void reduce(LongWritable key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+      long start = metrics.start();
+      boolean first = true;
+      for (Text value : values) {
+        if (!first) {
+          metrics.count(Rows.DUPLICATE);
+          continue;
+        }
+        first = false;
+        int day = parseJoined(value.toString(), weather, crime);
+        if (crime.getDistrict() != district) {
+          window.reset();
+          district = crime.getDistrict();
+        }
+        finalOut.set(window.add(day, weather, crime));
+        mos.write(finalOut, NullWritable.get(), "wc" + district);
+        metrics.count(Rows.WRITTEN);
+      }
+      metrics.stop(start);
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+      mos.close();
+      metrics.finish(context);
+    }
+  }
+
+  /**
+   * Write the column names of the rows to <out>/_columns.csv.
+   */
+  public static void writeColumns(Configuration conf, Path out) throws IOException {
+    Path file = new Path(out, COLUMNS);
+    FileSystem fs = file.getFileSystem(conf);
+    try (BufferedWriter w = new BufferedWriter(
+        new OutputStreamWriter(fs.create(file, true), StandardCharsets.UTF_8))) {
+      w.write(FeatureWindow.create(conf).header());
+      w.write('\n');
+    }
+  }
+
+  /**
+   * Driver method for the CrimeWeatherFeatures class.
+   */
+  public static void main(String[] args) throws Exception {
+
+    Configuration conf = new Configuration();
+    args = new GenericOptionsParser(conf, args).getRemainingArgs();
+    if (args.length != 2) {
+      System.err.println("USAGE: [-D key=value] <Dailyjoinedinput> <Outputlocation>");
+      System.exit(2);
+    }
+    Job job = createJob(conf, args);
+    boolean success = job.waitForCompletion(true);
+    if (success) {
+      writeColumns(job.getConfiguration(), new Path(args[1]));
+      TaskMetrics.writeSummary(job);
+    }
+    System.exit(success ? 0 : 1);
+  }
+
+  /**
+   * Configures the features of <Dailyjoinedinput> <Outputlocation>, without running it.
+   */
+  public static Job createJob(Configuration conf, String[] args) throws IOException {
+    // Fail before the job starts on bad lags or windows
+    FeatureWindow.create(conf);
+
+    Job job = Job.getInstance(conf, "CrimeWeatherFeatures");
+    job.setJarByClass(CrimeWeatherFeatures.class);
+
+    job.setMapperClass(FeatureMapper.class);
+    job.setPartitionerClass(DistrictPartitioner.class);
+    job.setReducerClass(FeatureReducer.class);
+    job.setNumReduceTasks(conf.getInt(MRJobConfig.NUM_REDUCES, 1));
+
+    job.setMapOutputKeyClass(LongWritable.class);
+    job.setMapOutputValueClass(Text.class);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(NullWritable.class);
+
+    // Only the wcN files are written
+    LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+    Compression.configure(job);
+
+    // The joined rows may be compressed or a SequenceFile
+    job.setInputFormatClass(RowInputFormat.class);
+    FileInputFormat.addInputPath(job, new Path(args[0]));
+    FileOutputFormat.setOutputPath(job, new Path(args[1]));
+    return job;
+  }
+}
@@ -0,0 +1,727 @@
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+
+/**
+ * The CrimeWeatherHourly class joins the raw crime records and the raw
+ * hourly weather observations by hour of the day, so crime counts can be
+ * set against the weather at the hour they happened rather than the
+ * daily average.  It reads the same inputs as CrimeReducer and
+ * WeatherReducer and writes one row per hour and district with crimes:
+ *
+ *  {Date,Hour,Wx1,Wx2,Wx3,Wx4,District,C1,C2,C3,C4,C5,C6,C7,C8}
+ *
+ * A crime belongs to the clock hour it was reported in, an observation to
+ * the clock hour it was taken in, and the observations of all stations in
+ * an hour are averaged.  Hours are Local Standard Time, UTC-6 all year:
+ * the NOAA times are, but the crime times are Chicago wall clock times, so
+ * a crime reported during daylight saving time is moved back an hour by
+ * the America/Chicago rules, see StandardTime.  The Date and Hour of the
+ * rows are standard time as well.  An hour with crimes but no observation takes the
+ * weather of the nearest hour that has one, the earlier on a tie, up to
+ * join.hourly.max.gap hours away; further away its rows are dropped as
+ * NO_WEATHER.  Reducers only look for the nearest hour within their own
+ * range of dates.
+ *
+ * With weather.spatial=true, the option of the daily jobs' spatial mode
+ * too, the weather is no longer citywide.  Each
+ * crime takes the station nearest to its latitude and longitude from a
+ * StationGrid, and the weather of a district's row is the average of the
+ * weather at those stations weighted by its crimes, so a district near
+ * the lake and one by O'Hare get their own.  A station without an
+ * observation in the hour stands in with the citywide average, as do
+ * crimes without a location.
+ *
+ * The key is a single long, hours since 1970-01-01 00:00 above the side,
+ * district and station bits, see key(), so 24 times as many keys as the
+ * daily join still sort and shuffle as 8 bytes compared in place.
+ */
+
+public class CrimeWeatherHourly {
+
+  /** Configuration key of the hours an observation may be from the crimes it is joined with. */
+  public static final String MAX_GAP_KEY = "join.hourly.max.gap";
+
+  public static final int DEFAULT_MAX_GAP = 2;
+
+  /** Former name of StationGrid.SPATIAL_KEY, still understood. */
+  public static final String OLD_SPATIAL_KEY = "join.hourly.spatial";
+
+  static {
+    Configuration.addDeprecation(OLD_SPATIAL_KEY, StationGrid.SPATIAL_KEY);
+  }
+
+  /** Side bit of the key, weather sorts before the crimes of its hour. */
+  public static final int WEATHER = 0;
+  public static final int CRIME = 1;
+
+  private static final int DISTRICT_SHIFT = 8;
+  private static final int SIDE_SHIFT = 15;
+  private static final int HOUR_SHIFT = 16;
+
+  /**
+   * Rows read from each side, those skipped and why, and the joined rows.
+   * NO_WEATHER counts hourly rows of a district without weather close enough.
+   */
+  public static enum Rows {
+    WEATHER, CRIME, OTHER_CRIME, BAD_TIME, UNKNOWN_STATION, JOINED, NO_WEATHER
+  }
+
+  /**
+   * @return the packed key {hour:48, side:1, district:7, station:8}, which
+   *         sorts by hour, then weather before crime, then district and station
+   */
+  public static long key(long hour, int side, int district, int station) {
+    return (hour << HOUR_SHIFT) | ((long) side << SIDE_SHIFT) | (district << DISTRICT_SHIFT) | station;
+  }
+
+  /**
+   * @return hours since 1970-01-01 00:00 of a packed key
+   */
+  public static long hourOf(long key) {
+    return key >> HOUR_SHIFT;
+  }
+
+  public static int districtOf(long key) {
+    return (int) (key >> DISTRICT_SHIFT) & 0x7F;
+  }
+
+  public static int stationOf(long key) {
+    return (int) key & 0xFF;
+  }
+
+  /**
+   * @return hours since 1970-01-01 00:00 of a day and minute of that day
+   */
+  public static long hour(int day, int minute) {
+    return day * 24L + minute / 60;
+  }
+
+  /**
+   * Turns Chicago wall clock times into Local Standard Time by the
+   * America/Chicago rules.  The repeated hour when the clocks go back is
+   * taken for daylight saving time, and a time skipped when they go
+   * forward for standard time, as java.time resolves them.  The daylight
+   * saving period of the last year looked up is kept, so the times of a
+   * file, which mostly share a year, cost a range check each.
+   */
+  public static class StandardTime {
+
+    private static final ZoneRules CHICAGO = ZoneId.of("America/Chicago").getRules();
+
+    // Days of the year looked up last, and its daylight saving wall minutes
+    private int firstDay = 1;
+    private int lastDay = 0;
+    private long from;
+    private long to;
+    private int shift;
+
+    /**
+     * @return hours since 1970-01-01 00:00 standard time of a wall clock day and minute
+     */
+    public long hour(int day, int minute) {
+      if (day < firstDay || day > lastDay) {
+        year(DayKey.toCivil(day)[0]);
+      }
+      long wall = day * 1440L + minute;
+      if (wall >= from && wall < to) {
+        wall -= shift;
+      }
+      return Math.floorDiv(wall, 60);
+    }
+
+    private void year(int year) {
+      firstDay = DayKey.fromCivil(year, 1, 1);
+      lastDay = DayKey.fromCivil(year + 1, 1, 1) - 1;
+      from = to = 0;
+      ZoneOffsetTransition forward = CHICAGO.nextTransition(
+          LocalDateTime.of(year, 1, 1, 0, 0).toInstant(ZoneOffset.UTC));
+      if (forward == null || !forward.isGap() || forward.getDateTimeAfter().getYear() != year) {
+        return;
+      }
+      ZoneOffsetTransition back = CHICAGO.nextTransition(forward.getInstant());
+      if (back == null || back.getDateTimeBefore().getYear() != year) {
+        return;
+      }
+      from = forward.getDateTimeAfter().toEpochSecond(ZoneOffset.UTC) / 60;
+      to = back.getDateTimeBefore().toEpochSecond(ZoneOffset.UTC) / 60;
+      shift = (int) forward.getDuration().toMinutes();
+    }
+  }
+
+  /**
+   * Crime mapper, reads the Chicago crimes csv as CategoryMapper does but
+   * keeps the hour, and in the spatial mode the nearest station.
+   * Output <key(hour, CRIME, district, station), counts>.
+   *
+   * Unless inmapper.combine is false, counts are first summed per hour and
+   * district in memory and written once per pair when the buffer fills up
+   * and in cleanup().
+   */
+  public static class CrimeMapper extends Mapper<LongWritable, Text, LongWritable, JoinValueWritable> {
+
+    private static final OrdinalLookup primary = new OrdinalLookup(CrimeCountsWritable.NAMES);
+
+    private DistrictTable districts;
+    private CsvScanner scanner;
+    // Nearest station lookup, null unless spatial
+    private StationGrid stations;
+    private final LongWritable outKey = new LongWritable();
+    private final JoinValueWritable crimeSet = new JoinValueWritable();
+    private final StandardTime standard = new StandardTime();
+
+    // Per hour and district totals for in-mapper combining, null when turned off
+    private LongIndexMap buffer;
+    private int[] totals;
+
+    private TaskMetrics<Rows> metrics;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+      districts = DistrictTable.load(context.getConfiguration());
+      if (context.getConfiguration().getBoolean(StationGrid.SPATIAL_KEY, false)) {
+        stations = StationGrid.load(context.getConfiguration());
+      }
+      // Latitude and longitude are at 19 and 20
+      scanner = new CsvScanner(stations == null ? 15 : 21);
+      metrics = new TaskMetrics<Rows>("Map", Rows.class, context.getConfiguration());
+      buffer = LongIndexMap.forTask(context.getConfiguration(), 4 * CrimeCountsWritable.CATEGORIES);
+      if (buffer != null) {
+        totals = new int[buffer.capacity() * CrimeCountsWritable.CATEGORIES];
+      }
+    }
+
+    public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+
+      long start = metrics.start();
+      if (scanner.scan(value) <= 14) {
+        metrics.count(Rows.OTHER_CRIME);
+        return;
+      }
+      // Relevant categories of communities with a district only
+      int category = scanner.indexOf(5, primary);
+      int district = category >= 0 && scanner.isDigits(13) ? districts.districtOf(scanner.parseInt(13)) : 0;
+      if (district == 0) {
+        metrics.count(Rows.OTHER_CRIME);
+        return;
+      }
+
+      // index 2 is "MM/DD/YYYY hh:mm:ss AM", wall clock time
+      long hour;
+      try {
+        hour = standard.hour(scanner.parseDay(2), scanner.parseMinute(2));
+      }
+      catch (NumberFormatException e) {
+        metrics.count(Rows.BAD_TIME);
+        return;
+      }
+
+      int station = stations == null ? 0 : stations.nearest(scanner.parseNumber(19), scanner.parseNumber(20));
+      long pair = key(hour, CRIME, district, station);
+      if (buffer == null) {
+        CrimeCountsWritable crime = crimeSet.setCrime();
+        crime.clear(district);
+        crime.increment(category);
+        outKey.set(pair);
+        context.write(outKey, crimeSet);
+      }
+      else {
+        int i = buffer.indexOf(pair);
+        if (i < 0) {
+          flush(context);
+          i = buffer.indexOf(pair);
+        }
+        totals[i * CrimeCountsWritable.CATEGORIES + category]++;
+      }
+      metrics.count(Rows.CRIME);
+      metrics.stop(start);
+    }
+
+    /**
+     * Write out and reset the buffered totals.
+     */
+    private void flush(Context context) throws IOException, InterruptedException {
+      for (int i = 0; i < buffer.size(); i++) {
+        long pair = buffer.keyAt(i);
+        CrimeCountsWritable crime = crimeSet.setCrime();
+        crime.clear(districtOf(pair));
+        for (int c = 0; c < CrimeCountsWritable.CATEGORIES; c++) {
+          crime.set(c, totals[i * CrimeCountsWritable.CATEGORIES + c]);
+        }
+        outKey.set(pair);
+        context.write(outKey, crimeSet);
+      }
+      Arrays.fill(totals, 0, buffer.size() * CrimeCountsWritable.CATEGORIES, 0);
+      buffer.clear();
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+      if (buffer != null) {
+        flush(context);
+      }
+      metrics.finish(context);
+    }
+  }
+
+  /**
+   * Weather mapper, reads the NOAA observations as ParceWeather does but
+   * keeps the hour.  Output <key(hour, WEATHER, 0, station), observation>
+   * where each attribute has a count of 1, or 0 when it is missing.  The
+   * station is 0 unless spatial.
+   */
+  public static class WeatherMapper extends Mapper<LongWritable, Text, LongWritable, JoinValueWritable> {
+
+    private final int[] indicies = {10, 14, 17, 16};
+    private final CsvScanner line = new CsvScanner(18);
+    private final LongWritable outKey = new LongWritable();
+    private final JoinValueWritable observation = new JoinValueWritable();
+    private StationGrid stations;
+    private TaskMetrics<Rows> metrics;
+
+    @Override
+    protected void setup(Context context) throws IOException {
+      if (context.getConfiguration().getBoolean(StationGrid.SPATIAL_KEY, false)) {
+        stations = StationGrid.load(context.getConfiguration());
+      }
+      metrics = new TaskMetrics<Rows>("Map", Rows.class, context.getConfiguration());
+    }
+
+    public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+
+      line.scan(value);
+      int station = 0;
+      if (stations != null) {
+        station = stations.indexOf(line.bytes(), line.start(0), line.length(0));
+        if (station == 0) {
+          metrics.count(Rows.UNKNOWN_STATION);
+          return;
+        }
+      }
+
+      // index 5 is "YYYY-MM-DD HH:mm"
+      long hour;
+      try {
+        hour = hour(line.parseDay(5), line.parseMinute(5));
+      }
+      catch (NumberFormatException e) {
+        metrics.count(Rows.BAD_TIME);
+        return;
+      }
+
+      double[] wx = observation.setWeather();
+      int[] counts = observation.setWeatherCounts();
+      for (int i = 0; i < indicies.length; ++i) {
+        wx[i] = line.parseNumber(indicies[i]);
+        counts[i] = Double.isNaN(wx[i]) ? 0 : 1;
+      }
+      outKey.set(key(hour, WEATHER, 0, station));
+      context.write(outKey, observation);
+      metrics.count(Rows.WEATHER);
+    }
+
+    @Override
+    protected void cleanup(Context context) {
+      metrics.finish(context);
+    }
+  }
+
+  /**
+   * Sums the crime counts of a key, or averages the observations of an hour
+   * weighted by their counts, so it may run any number of times.
+   */
+  public static class HourCombiner extends Reducer<LongWritable, JoinValueWritable, LongWritable, JoinValueWritable> {
+
+    private final JoinValueWritable merged = new JoinValueWritable();
+    private final double[] sums = new double[WeatherSampleWritable.FIELDS];
+    private final int[] totals = new int[CrimeCountsWritable.CATEGORIES];
+
+    public void reduce(LongWritable key, Iterable<JoinValueWritable> values, Context context) throws IOException, InterruptedException {
+
+      if ((key.get() >> SIDE_SHIFT & 1) == CRIME) {
+        Arrays.fill(totals, 0);
+        int district = 0;
+        for (JoinValueWritable v : values) {
+          v.getCrime().addTo(totals);
+          district = v.getCrime().getDistrict();
+        }
+        CrimeCountsWritable crime = merged.setCrime();
+        crime.setDistrict(district);
+        crime.set(totals);
+      }
+      else {
+        Arrays.fill(sums, 0);
+        merged.setWeather();
+        int[] counts = merged.setWeatherCounts();
+        Arrays.fill(counts, 0);
+        for (JoinValueWritable v : values) {
+          addWeather(v, sums, counts);
+        }
+        meanWeather(sums, counts, merged.getWeather());
+      }
+      context.write(key, merged);
+    }
+  }
+
+  /**
+   * Add a weather value into running sums and counts.
+   */
+  static void addWeather(JoinValueWritable v, double[] sums, int[] counts) {
+    double[] wx = v.getWeather();
+    int[] n = v.getWeatherCounts();
+    for (int i = 0; i < wx.length; ++i) {
+      if (n[i] > 0) {
+        sums[i] += wx[i] * n[i];
+        counts[i] += n[i];
+      }
+    }
+  }
+
+  /**
+   * Turn running sums into averages, NaN for an attribute never observed.
+   */
+  static void meanWeather(double[] sums, int[] counts, double[] means) {
+    for (int i = 0; i < means.length; ++i) {
+      means[i] = counts[i] > 0 ? sums[i] / counts[i] : Double.NaN;
+    }
+  }
+
+  /**
+   * Groups the keys of an hour for one reduce() call, comparing the
+   * serialized longs in place.
+   */
+  public static class HourGroupComparator extends WritableComparator {
+
+    public HourGroupComparator() {
+      super(LongWritable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      return Long.compare(readLong(b1, s1) >> HOUR_SHIFT, readLong(b2, s2) >> HOUR_SHIFT);
+    }
+  }
+
+  /**
+   * Sends the hours of contiguous ranges of days to each reducer, as
+   * DayRangePartitioner does for the daily join.
+   */
+  public static class HourPartitioner extends Partitioner<LongWritable, JoinValueWritable> implements Configurable {
+
+    private final DayRangePartitioner<JoinValueWritable> days = new DayRangePartitioner<JoinValueWritable>();
+
+    @Override
+    public void setConf(Configuration conf) {
+      days.setConf(conf);
+    }
+
+    @Override
+    public Configuration getConf() {
+      return days.getConf();
+    }
+
+    @Override
+    public int getPartition(LongWritable key, JoinValueWritable value, int numPartitions) {
+      return days.partition((int) Math.floorDiv(hourOf(key.get()), 24), numPartitions);
+    }
+  }
+
+  /**
+   * An hour arrives as {hour, [observations..., crimes of district 1..., crimes of district 2...]}.
+   * The observations are averaged per station and citywide, and the crimes
+   * of each district summed along with how many were nearest each station.
+   * Rows of an hour without weather wait until the next hour with weather
+   * shows whether it or the previous one is nearer, which holds at most
+   * join.hourly.max.gap hours of rows.
+   */
+  public static class HourReducer extends Reducer<LongWritable, JoinValueWritable, Text, NullWritable> {
+
+    // Weather of the last hour that had any, NONE before the first
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final Text finalOut = new Text();
+    private final double[] blended = new double[WeatherSampleWritable.FIELDS];
+    private final int[] totals = new int[CrimeCountsWritable.CATEGORIES];
+    private final CrimeCountsWritable crime = new CrimeCountsWritable();
+    private int maxGap;
+    private TaskMetrics<Rows> metrics;
+
+    // Per station sums of the hour, then its averages, station 0 is citywide
+    private double[][] sums;
+    private int[][] counts;
+    private double[][] weather;
+    private double[][] previous;
+    private long previousHour = NONE;
+
+    // Crimes of the district being summed nearest each station, 0 for no location
+    private int[] nearest;
+
+    // Rows of the hours without weather since then, in hour order
+    private final ArrayDeque<Held> pending = new ArrayDeque<Held>();
+
+    private static class Held {
+      final long hour;
+      final CrimeCountsWritable crimes = new CrimeCountsWritable();
+      final int[] nearest;
+
+      Held(long hour, int district, int[] totals, int[] nearest) {
+        this.hour = hour;
+        crimes.clear(district);
+        crimes.set(totals);
+        this.nearest = nearest.clone();
+      }
+    }
+
+    @Override
+    protected void setup(Context context) throws IOException {
+      Configuration conf = context.getConfiguration();
+      maxGap = conf.getInt(MAX_GAP_KEY, DEFAULT_MAX_GAP);
+      metrics = new TaskMetrics<Rows>("Reduce", Rows.class, conf);
+      int stations = conf.getBoolean(StationGrid.SPATIAL_KEY, false) ? StationGrid.load(conf).stations() : 0;
+      sums = new double[stations + 1][WeatherSampleWritable.FIELDS];
+      counts = new int[stations + 1][WeatherSampleWritable.FIELDS];
+      weather = new double[stations + 1][WeatherSampleWritable.FIELDS];
+      previous = new double[stations + 1][WeatherSampleWritable.FIELDS];
+      nearest = new int[stations + 1];
+    }
+
+    public void reduce(LongWritable key, Iterable<JoinValueWritable> values, Context context) throws IOException, InterruptedException {
+
+      long start = metrics.start();
+      long hour = hourOf(key.get());
+      // Held rows this far back cannot be nearer to this or any later hour
+      resolve(hour - maxGap, NONE, context);
+
+      for (int s = 0; s < sums.length; ++s) {
+        Arrays.fill(sums[s], 0);
+        Arrays.fill(counts[s], 0);
+      }
+      boolean observed = false;
+      boolean crimes = false;
+      int district = 0;
+
+      // The key follows each value, giving its station and district
+      for (JoinValueWritable v : values) {
+        if (v.isWeather()) {
+          addWeather(v, sums[stationOf(key.get())], counts[stationOf(key.get())]);
+          observed = true;
+          continue;
+        }
+        // The observations of the hour sort first, so they are all in
+        if (!crimes) {
+          closeWeather(hour, observed, context);
+          crimes = true;
+        }
+        CrimeCountsWritable c = v.getCrime();
+        if (c.getDistrict() != district && district != 0) {
+          emit(hour, district, context);
+        }
+        district = c.getDistrict();
+        c.addTo(totals);
+        for (int i = 0; i < CrimeCountsWritable.CATEGORIES; ++i) {
+          nearest[stationOf(key.get())] += c.get(i);
+        }
+      }
+      if (!crimes) {
+        closeWeather(hour, observed, context);
+      }
+      if (district != 0) {
+        emit(hour, district, context);
+      }
+      metrics.stop(start);
+    }
+
+    /**
+     * Average the observations of an hour, if it had any, and write the
+     * held rows nearer to it than to the previous hour with weather.
+     */
+    private void closeWeather(long hour, boolean observed, Context context) throws IOException, InterruptedException {
+      if (!observed) {
+        return;
+      }
+      // Citywide first, then each station falling back to it
+      for (int s = 1; s < sums.length; ++s) {
+        for (int i = 0; i < WeatherSampleWritable.FIELDS; ++i) {
+          sums[0][i] += sums[s][i];
+          counts[0][i] += counts[s][i];
+        }
+      }
+      meanWeather(sums[0], counts[0], weather[0]);
+      for (int s = 1; s < sums.length; ++s) {
+        meanWeather(sums[s], counts[s], weather[s]);
+        for (int i = 0; i < WeatherSampleWritable.FIELDS; ++i) {
+          if (counts[s][i] == 0) {
+            weather[s][i] = weather[0][i];
+          }
+        }
+      }
+      resolve(hour, hour, context);
+      for (int s = 0; s < weather.length; ++s) {
+        System.arraycopy(weather[s], 0, previous[s], 0, WeatherSampleWritable.FIELDS);
+      }
+      previousHour = hour;
+    }
+
+    /**
+     * Write the summed crimes of a district, now if its hour has weather,
+     * otherwise once the nearest weather is known.
+     */
+    private void emit(long hour, int district, Context context) throws IOException, InterruptedException {
+      if (previousHour == hour) {
+        crime.clear(district);
+        crime.set(totals);
+        write(hour, previous, nearest, crime, context);
+      }
+      else {
+        pending.add(new Held(hour, district, totals, nearest));
+      }
+      Arrays.fill(totals, 0);
+      Arrays.fill(nearest, 0);
+    }
+
+    /**
+     * Write the held rows of the hours before the given one with the nearer
+     * of the previous weather and the current one of nextHour, NONE when
+     * there is none, and drop those with neither within join.hourly.max.gap.
+     */
+    private void resolve(long before, long nextHour, Context context) throws IOException, InterruptedException {
+      while (!pending.isEmpty() && pending.peekFirst().hour < before) {
+        Held held = pending.pollFirst();
+        long toPrevious = previousHour == NONE ? Long.MAX_VALUE : held.hour - previousHour;
+        long toNext = nextHour == NONE ? Long.MAX_VALUE : nextHour - held.hour;
+        if (toPrevious <= toNext && toPrevious <= maxGap) {
+          write(held.hour, previous, held.nearest, held.crimes, context);
+        }
+        else if (toNext <= maxGap) {
+          write(held.hour, weather, held.nearest, held.crimes, context);
+        }
+        else {
+          metrics.count(Rows.NO_WEATHER);
+        }
+      }
+    }
+
+    /**
+     * Output {Date,Hour,Wx1,Wx2,Wx3,Wx4,District,C1,C2,C3,C4,C5,C6,C7,C8}, the
+     * weather of each station weighted by the crimes nearest to it.
+     */
+    private void write(long hour, double[][] wx, int[] weights, CrimeCountsWritable c, Context context)
+        throws IOException, InterruptedException {
+      StationGrid.blend(wx, weights, blended);
+
+      int day = (int) Math.floorDiv(hour, 24);
+      int h = (int) (hour - day * 24L);
+      StringBuilder lineOut = new StringBuilder(DayKey.toUsDate(day));
+      lineOut.append(',').append(h < 10 ? "0" : "").append(h);
+      for (double w : blended) {
+        lineOut.append(',').append(WeatherStats.format(w));
+      }
+      lineOut.append(',').append(c);
+      finalOut.set(lineOut.toString());
+      context.write(finalOut, NullWritable.get());
+      metrics.count(Rows.JOINED);
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+      resolve(Long.MAX_VALUE, NONE, context);
+      metrics.finish(context);
+    }
+  }
+
+  /**
+   * Driver method for the CrimeWeatherHourly class.
+   */
+  public static void main(String[] args) throws Exception {
+
+    Configuration conf = new Configuration();
+    // Generic options such as -D join.hourly.max.gap=3 come first
+    args = new GenericOptionsParser(conf, args).getRemainingArgs();
+    if (args.length != 3) {
+      System.err.println("USAGE: [-D key=value] <Outputlocation> <crime input> <weather input>");
+      System.exit(2);
+    }
+    Job job = createJob(conf, args);
+    boolean success = job.waitForCompletion(true);
+    if (success) {
+      // Row counts and timings go to <Outputlocation>/_metrics.csv
+      TaskMetrics.writeSummary(job);
+    }
+    System.exit(success ? 0 : 1);
+
+  }
+
+  /**
+   * Configures the hourly join of <Outputlocation> <crime input> <weather input>,
+   * the raw csv files read by CrimeReducer and WeatherReducer, without running it.
+   */
+  public static Job createJob(Configuration conf, String[] args) throws IOException {
+    Job job = Job.getInstance(conf, "CrimeWeatherHourly");
+    job.setJarByClass(CrimeWeatherHourly.class);
+
+    if (ColumnarOutputFormat.COLUMNAR.equals(conf.get(ColumnarOutputFormat.FORMAT_KEY))) {
+      throw new IllegalArgumentException("The columnar output has no hour column");
+    }
+    if (IncrementalOutput.isEnabled(conf)) {
+      throw new IllegalArgumentException("The hourly join has no incremental mode");
+    }
+    Compression.configure(job);
+    if (conf.get(DistrictTable.FILE_KEY) != null) {
+      DistrictTable.addTo(job, conf.get(DistrictTable.FILE_KEY));
+    }
+
+    // -D weather.spatial=true with -D weather.stations.file=<station,latitude,longitude file>
+    // takes other stations than the built in ones
+    if (conf.get(StationGrid.FILE_KEY) != null) {
+      StationGrid.addTo(job, conf.get(StationGrid.FILE_KEY));
+    }
+
+    // The raw csv files, headers and malformed records are left out by CsvInputFormat
+    MultipleInputs.addInputPath(job, new Path(args[1]), CsvInputFormat.class, CrimeMapper.class);
+    MultipleInputs.addInputPath(job, new Path(args[2]), CsvInputFormat.class, WeatherMapper.class);
+    // The weather input is a directory of station files
+    FileInputFormat.setInputDirRecursive(job, true);
+
+    job.setMapOutputKeyClass(LongWritable.class);
+    job.setMapOutputValueClass(JoinValueWritable.class);
+    job.setCombinerClass(HourCombiner.class);
+    // Sort by the whole key, reduce a whole hour at once
+    job.setGroupingComparatorClass(HourGroupComparator.class);
+    // Each reducer gets a contiguous range of dates, so part-r-* files
+    // concatenate in time order
+    job.setPartitionerClass(HourPartitioner.class);
+    // The raw inputs are too large to read for their dates, the range
+    // runs to the current year unless partition.first.year and
+    // partition.last.year are given
+    DayRangePartitioner.configure(job);
+    job.setNumReduceTasks(conf.getInt(MRJobConfig.NUM_REDUCES, 1));
+    job.setReducerClass(HourReducer.class);
+
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(NullWritable.class);
+    FileOutputFormat.setOutputPath(job, new Path(args[0]));
+    return job;
+  }
+}
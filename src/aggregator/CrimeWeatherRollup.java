@@ -0,0 +1,256 @@
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+
+/**
+ * The CrimeWeatherRollup class rolls the daily joined rows of CrimeWeatherAgg
+ * up into weekly, monthly and yearly rows for every district in one pass.
+ * Crime counts are summed, weather is averaged from weighted sums, so the
+ * raw crime and weather records are never read again.
+ *
+ * Periods are written as
+ *  - weekly:  YYYYWWW with the calendar year and the ISO week, e.g. 2001001,
+ *             as in the WeeklyOutput files, so the first days of January
+ *             may fall in week 052 or 053 and the last of December in 001
+ *  - monthly: YYYYMM
+ *  - yearly:  YYYY
+ * into <out>/weekly/wcN, <out>/monthly/wcN and <out>/yearly/wcN.
+ *
+ * The rows read, skipped as malformed and written are counted per task
+ * and summed into <out>/_metrics.csv (see TaskMetrics).
+ */
+
+public class CrimeWeatherRollup {
+
+  public static final int WEEKLY = 0;
+  public static final int MONTHLY = 1;
+  public static final int YEARLY = 2;
+
+  private static final String[] NAMES = {"weekly", "monthly", "yearly"};
+
+  /** Joined rows read, those skipped as malformed, and the period rows written. */
+  public static enum Rows {
+    READ, MALFORMED, WRITTEN
+  }
+
+  /**
+   * Key of one period of one district, sorting by granularity, district then period.
+   */
+  public static long key(int granularity, int district, int period) {
+    return ((long) granularity << 56) | ((long) district << 32) | period;
+  }
+
+  /**
+   * @return the period of the day for the granularity, e.g. 2001001, 200101 or 2001
+   */
+  public static int period(int granularity, int day) {
+    int[] ymd = DayKey.toCivil(day);
+    switch (granularity) {
+      case WEEKLY:
+        return ymd[0] * 1000 + isoWeek(day);
+      case MONTHLY:
+        return ymd[0] * 100 + ymd[1];
+      default:
+        return ymd[0];
+    }
+  }
+
+  /**
+   * @return the ISO 8601 week of a day, 1 to 53, weeks start on Monday and
+   *         belong to the year holding their Thursday
+   */
+  public static int isoWeek(int day) {
+    int thursday = day - Math.floorMod(day + 3, 7) + 3;
+    int year = DayKey.toCivil(thursday)[0];
+    return (thursday - DayKey.fromCivil(year, 1, 1)) / 7 + 1;
+  }
+
+  /**
+   * Parse the daily joined rows {Date,Wx1,Wx2,Wx3,Wx4,District,C1,...,C8[,N1,...,N4]}
+   * into one partial per granularity.  Without the observation counts N every
+   * day has a weight of 1, and a missing "?" average is left out.
+   */
+  public static class RollupMapper extends Mapper<Object, Text, LongWritable, RollupWritable> {
+
+    private static final int COLUMNS = 1 + RollupWritable.FIELDS + 1 + CrimeCountsWritable.CATEGORIES;
+
+    private LongWritable period = new LongWritable();
+    private RollupWritable partial = new RollupWritable();
+    private TaskMetrics<Rows> metrics;
+
+    @Override
+    protected void setup(Context context) {
+      metrics = new TaskMetrics<Rows>("Map", Rows.class, context.getConfiguration());
+    }
+
+    public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
+
+      metrics.count(Rows.READ);
+      String[] inputSplit = value.toString().split(",");
+      if (inputSplit.length < COLUMNS) {
+        metrics.count(Rows.MALFORMED);
+        return;
+      }
+
+      int day;
+      int district;
+      boolean counted = inputSplit.length >= COLUMNS + RollupWritable.FIELDS;
+      try {
+        day = DayKey.parse(inputSplit[0]);
+        district = Integer.parseInt(inputSplit[RollupWritable.FIELDS + 1]);
+
+        partial.clear(counted);
+        for (int i = 0; i < RollupWritable.FIELDS; ++i) {
+          double mean = WeatherStats.parse(inputSplit[i + 1]);
+          if (!Double.isNaN(mean)) {
+            partial.addWeather(i, mean, counted ? Long.parseLong(inputSplit[COLUMNS + i]) : 1);
+          }
+        }
+        for (int i = 0; i < CrimeCountsWritable.CATEGORIES; ++i) {
+          partial.addCrime(i, Integer.parseInt(inputSplit[RollupWritable.FIELDS + 2 + i]));
+        }
+      }
+      catch (NumberFormatException e) {
+        metrics.count(Rows.MALFORMED);
+        return;
+      }
+
+      for (int g = WEEKLY; g <= YEARLY; ++g) {
+        period.set(key(g, district, period(g, day)));
+        context.write(period, partial);
+      }
+    }
+
+    @Override
+    protected void cleanup(Context context) {
+      metrics.finish(context);
+    }
+  }
+
+  /**
+   * Merge the partials of a period, used as both combiner and the first step of the reducer.
+   */
+  public static class RollupCombiner extends Reducer<LongWritable, RollupWritable, LongWritable, RollupWritable> {
+
+    private RollupWritable total = new RollupWritable();
+
+    public void reduce(LongWritable key, Iterable<RollupWritable> values, Context context) throws IOException, InterruptedException {
+      merge(values, total);
+      context.write(key, total);
+    }
+
+    static void merge(Iterable<RollupWritable> values, RollupWritable total) {
+      boolean first = true;
+      for (RollupWritable r : values) {
+        if (first) {
+          total.clear(r.isCounted());
+          first = false;
+        }
+        total.merge(r);
+      }
+    }
+  }
+
+  /**
+   * Output rows are {Period,Wx1,Wx2,Wx3,Wx4,District,C1,...,C8}, followed by the
+   * total observations {N1,...,N4} when the daily rows had them.
+   */
+  public static class RollupReducer extends Reducer<LongWritable, RollupWritable, Text, NullWritable> {
+
+    Text finalOut = new Text();
+    private RollupWritable total = new RollupWritable();
+    private MultipleOutputs<Text, NullWritable> mos;
+    private TaskMetrics<Rows> metrics;
+
+    @Override
+    protected void setup(Context context) {
+      mos = new MultipleOutputs<Text, NullWritable>(context);
+      metrics = new TaskMetrics<Rows>("Reduce", Rows.class, context.getConfiguration());
+    }
+
+    public void reduce(LongWritable key, Iterable<RollupWritable> values, Context context) throws IOException, InterruptedException {
+
+      long start = metrics.start();
+      RollupCombiner.merge(values, total);
+
+      int granularity = (int) (key.get() >>> 56);
+      int district = (int) (key.get() >>> 32) & 0xFFFFFF;
+      StringBuilder lineOut = new StringBuilder();
+      lineOut.append((int) key.get());
+      for (int i = 0; i < RollupWritable.FIELDS; ++i) {
+        lineOut.append(',').append(WeatherStats.format(total.mean(i)));
+      }
+      lineOut.append(',').append(district);
+      for (int i = 0; i < CrimeCountsWritable.CATEGORIES; ++i) {
+        lineOut.append(',').append(total.crime(i));
+      }
+      if (total.isCounted()) {
+        for (int i = 0; i < RollupWritable.FIELDS; ++i) {
+          lineOut.append(',').append(total.weight(i));
+        }
+      }
+      finalOut.set(lineOut.toString());
+      mos.write(finalOut, NullWritable.get(), NAMES[granularity] + "/wc" + district);
+      metrics.count(Rows.WRITTEN);
+      metrics.stop(start);
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+      mos.close();
+      metrics.finish(context);
+    }
+  }
+
+  /**
+   * Driver method for the CrimeWeatherRollup class.
+   */
+  public static void main(String[] args) throws Exception {
+
+    Configuration conf = new Configuration();
+    args = new GenericOptionsParser(conf, args).getRemainingArgs();
+    if (args.length != 2) {
+      System.err.println("USAGE: <Dailyjoinedinput> <Outputlocation>");
+      System.exit(2);
+    }
+
+    Job job = Job.getInstance(conf, "CrimeWeatherRollup");
+    job.setJarByClass(CrimeWeatherRollup.class);
+
+    job.setMapperClass(RollupMapper.class);
+    job.setCombinerClass(RollupCombiner.class);
+    job.setReducerClass(RollupReducer.class);
+
+    job.setMapOutputKeyClass(LongWritable.class);
+    job.setMapOutputValueClass(RollupWritable.class);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(NullWritable.class);
+
+    // Only the per granularity wcN files are written
+    LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+    Compression.configure(job);
+
+    // The joined rows may be compressed or a SequenceFile
+    job.setInputFormatClass(RowInputFormat.class);
+    FileInputFormat.addInputPath(job, new Path(args[0]));
+    FileOutputFormat.setOutputPath(job, new Path(args[1]));
+    boolean success = job.waitForCompletion(true);
+    if (success) {
+      TaskMetrics.writeSummary(job);
+    }
+    System.exit(success ? 0 : 1);
+  }
+}
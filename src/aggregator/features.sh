@@ -0,0 +1,11 @@
+#!/bin/bash
+
+rm *.class ||: \
+&& /usr/local/hadoop/bin/hadoop com.sun.tools.javac.Main -sourcepath ../common -d . ./CrimeWeatherFeatures.java \
+&& jar cf CrimeWeatherFeatures.jar *.class \
+&& /usr/local/hadoop/bin/hadoop fs -rm -R /tmp/out/featuresOut ||: \
+&& /usr/local/hadoop/bin/hadoop jar ./CrimeWeatherFeatures.jar CrimeWeatherFeatures /tmp/out/aggOut /tmp/out/featuresOut
+#&& /usr/local/hadoop/bin/hadoop fs -cat /tmp/out/featuresOut/wc1-r-*
+
+# Other lags and rolling windows, in days:
+#/usr/local/hadoop/bin/hadoop jar ./CrimeWeatherFeatures.jar CrimeWeatherFeatures -D features.lags=1,2,7 -D features.windows=7,14,30 /tmp/out/aggOut /tmp/out/featuresOut
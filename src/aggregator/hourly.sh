@@ -0,0 +1,14 @@
+#!/bin/bash
+
+rm *.class ||: \
+&& /usr/local/hadoop/bin/hadoop com.sun.tools.javac.Main -sourcepath ../common -d . ./CrimeWeatherHourly.java \
+&& jar cf CrimeWeatherHourly.jar *.class \
+&& /usr/local/hadoop/bin/hadoop fs -rm -R /tmp/out/hourlyOut ||: \
+&& /usr/local/hadoop/bin/hadoop jar ./CrimeWeatherHourly.jar CrimeWeatherHourly /tmp/out/hourlyOut /tmp/data/crime /tmp/data/weather
+#&& /usr/local/hadoop/bin/hadoop fs -cat /tmp/out/hourlyOut/*
+
+# Hours without an observation take the nearest one up to join.hourly.max.gap hours away, 2 by default:
+#/usr/local/hadoop/bin/hadoop jar ./CrimeWeatherHourly.jar CrimeWeatherHourly -D join.hourly.max.gap=3 /tmp/out/hourlyOut /tmp/data/crime /tmp/data/weather
+
+# Weather per district from the station nearest to each crime, -D weather.stations.file=<station,latitude,longitude file> for other stations:
+#/usr/local/hadoop/bin/hadoop jar ./CrimeWeatherHourly.jar CrimeWeatherHourly -D weather.spatial=true /tmp/out/hourlyOut /tmp/data/crime /tmp/data/weather
@@ -0,0 +1,8 @@
+#!/bin/bash
+
+rm *.class ||: \
+&& /usr/local/hadoop/bin/hadoop com.sun.tools.javac.Main -sourcepath ../common -d . ./CrimeWeatherRollup.java \
+&& jar cf CrimeWeatherRollup.jar *.class \
+&& /usr/local/hadoop/bin/hadoop fs -rm -R /tmp/out/rollupOut ||: \
+&& /usr/local/hadoop/bin/hadoop jar ./CrimeWeatherRollup.jar CrimeWeatherRollup /tmp/out/aggOut /tmp/out/rollupOut
+#&& /usr/local/hadoop/bin/hadoop fs -cat /tmp/out/rollupOut/weekly/*
@@ -1,8 +1,11 @@
 #!/bin/bash
 
 rm *.class ||: \
-&& /usr/local/hadoop/bin/hadoop com.sun.tools.javac.Main ./CrimeWeatherAgg.java \
-&& jar cf CrimeWeatherAgg.jar CrimeWeatherAgg*.class \
+&& /usr/local/hadoop/bin/hadoop com.sun.tools.javac.Main -sourcepath ../common -d . ./CrimeWeatherAgg.java \
+&& jar cf CrimeWeatherAgg.jar *.class \
 && /usr/local/hadoop/bin/hadoop fs -rm -R /tmp/out/aggOut ||: \
 && /usr/local/hadoop/bin/hadoop jar ./CrimeWeatherAgg.jar CrimeWeatherAgg /tmp/out/aggOut /tmp/data/weather /tmp/data/crime
 #&& /usr/local/hadoop/bin/hadoop fs -cat /tmp/out/aggOut/*
+
+# For a daily refresh keep the output and only redo the days from a watermark on:
+#/usr/local/hadoop/bin/hadoop jar ./CrimeWeatherAgg.jar CrimeWeatherAgg -D incremental.since=2018-10-01 /tmp/out/aggOut /tmp/data/weather /tmp/data/crime
@@ -0,0 +1,202 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+
+/**
+ * ColumnarOutputFormat writes the rows of the crime, weather and join
+ * jobs as ColumnarTable files partitioned by year.  A row going to
+ * <name>-r-00000 is written to <year>/<name>-r-00000.col, which also
+ * holds for MultipleOutputs names.
+ *
+ * The jobs write a Row, which carries the values of the row next to its
+ * text, and leave the text out when isColumnar(), so the values are
+ * stored as they are without formatting and parsing them again.  A plain
+ * Text row is still parsed.
+ *
+ * A task's tables are held in memory until it closes, at about 40 bytes
+ * a joined row and twice that while an array grows, some 5 MB for 18
+ * years of all districts.  The daily outputs are that small, the format
+ * is not meant for rows by the hour.
+ *
+ * The tables are for final data only: RowInputFormat does not read them
+ * back as rows, so a job reading the output of another, such as the
+ * join, rejects a columnar input.  Select the format for the last job.
+ *
+ * Selected with -D output.format=columnar, see configure().
+ */
+public class ColumnarOutputFormat extends FileOutputFormat<Text, NullWritable> {
+
+  /** Configuration key of the output format, text (default) or columnar. */
+  public static final String FORMAT_KEY = "output.format";
+
+  public static final String TEXT = "text";
+  public static final String COLUMNAR = "columnar";
+
+  /** Configuration key of the ColumnarTable column groups of the rows. */
+  public static final String GROUPS_KEY = "output.columnar.groups";
+
+  /**
+   * Use this format for a job writing rows with the given column groups,
+   * if output.format asks for it.
+   *
+   * @return true if the job now writes columnar tables
+   */
+  public static boolean configure(Job job, int groups) {
+    Configuration conf = job.getConfiguration();
+    String format = conf.get(FORMAT_KEY, TEXT);
+    if (TEXT.equals(format) || SequenceRowsOutputFormat.SEQUENCE.equals(format)) {
+      return false;
+    }
+    if (!COLUMNAR.equals(format)) {
+      throw new IllegalArgumentException(FORMAT_KEY + " must be text, columnar or sequence");
+    }
+    if (IncrementalOutput.isEnabled(conf)) {
+      throw new IllegalArgumentException("The incremental mode needs the text output");
+    }
+    conf.setInt(GROUPS_KEY, groups);
+    LazyOutputFormat.setOutputFormatClass(job, ColumnarOutputFormat.class);
+    return true;
+  }
+
+  /**
+   * @return true if a job writes columnar tables, so its rows need no text
+   */
+  public static boolean isColumnar(Configuration conf) {
+    return COLUMNAR.equals(conf.get(FORMAT_KEY, TEXT));
+  }
+
+  /**
+   * A row written by the crime, weather or join jobs, its text for the
+   * text outputs or its values for the columnar one.
+   */
+  public static class Row extends Text {
+
+    private boolean typed;
+    private int day;
+    private final double[] weather = new double[WeatherStats.FIELDS];
+    private int district;
+    private final int[] counts = new int[CrimeCountsWritable.CATEGORIES];
+
+    /**
+     * Set the values of the row in place of its text.
+     *
+     * @param weather the weather of the day, or null in a crime row
+     * @param crime the district and its counts, or null in a weather row
+     */
+    public void setValues(int day, double[] weather, CrimeCountsWritable crime) {
+      clear();
+      typed = true;
+      this.day = day;
+      if (weather != null) {
+        System.arraycopy(weather, 0, this.weather, 0, this.weather.length);
+      }
+      if (crime != null) {
+        district = crime.getDistrict();
+        for (int i = 0; i < counts.length; ++i) {
+          counts[i] = crime.get(i);
+        }
+      }
+    }
+
+    @Override
+    public void set(String string) {
+      typed = false;
+      super.set(string);
+    }
+
+    @Override
+    public void set(byte[] utf8, int start, int len) {
+      typed = false;
+      super.set(utf8, start, len);
+    }
+  }
+
+  @Override
+  public RecordWriter<Text, NullWritable> getRecordWriter(TaskAttemptContext context) throws IOException {
+    // The name is taken now, MultipleOutputs closes with the task's own context
+    Path work = ((FileOutputCommitter) getOutputCommitter(context)).getWorkPath();
+    String name = getUniqueFile(context, getOutputName(context), ColumnarTable.EXTENSION);
+    return new YearWriter(context.getConfiguration(), work, name);
+  }
+
+  /**
+   * Buffers each row in the table of its year until close, parsing the
+   * rows given as text.
+   */
+  private static class YearWriter extends RecordWriter<Text, NullWritable> {
+
+    private final Configuration conf;
+    private final Path work;
+    private final String name;
+    private final int groups;
+    private final Map<Integer, ColumnarTable.Writer> years = new HashMap<Integer, ColumnarTable.Writer>();
+    private final double[] weather = new double[WeatherStats.FIELDS];
+    private final int[] counts = new int[CrimeCountsWritable.CATEGORIES];
+
+    YearWriter(Configuration conf, Path work, String name) {
+      this.conf = conf;
+      this.work = work;
+      this.name = name;
+      groups = conf.getInt(GROUPS_KEY, 0);
+      if (groups == 0) {
+        throw new IllegalArgumentException(GROUPS_KEY + " is not set");
+      }
+    }
+
+    @Override
+    public void write(Text key, NullWritable value) throws IOException {
+      if (key instanceof Row && ((Row) key).typed) {
+        Row row = (Row) key;
+        add(row.day, row.weather, row.district, row.counts);
+        return;
+      }
+      String[] split = key.toString().split(",");
+      int day = DayKey.parse(split[0]);
+      int at = 1;
+      int district = 0;
+      if ((groups & ColumnarTable.WEATHER) != 0) {
+        for (int i = 0; i < weather.length; ++i) {
+          weather[i] = WeatherStats.parse(split[at++]);
+        }
+      }
+      if ((groups & ColumnarTable.CRIME) != 0) {
+        district = Integer.parseInt(split[at++]);
+        for (int i = 0; i < counts.length; ++i) {
+          counts[i] = Integer.parseInt(split[at++]);
+        }
+      }
+      add(day, weather, district, counts);
+    }
+
+    private void add(int day, double[] weather, int district, int[] counts) {
+      int year = DayKey.toCivil(day)[0];
+      ColumnarTable.Writer table = years.get(year);
+      if (table == null) {
+        table = new ColumnarTable.Writer(groups);
+        years.put(year, table);
+      }
+      table.add(day, weather, district, counts);
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) throws IOException {
+      for (Map.Entry<Integer, ColumnarTable.Writer> year : years.entrySet()) {
+        Path file = new Path(work, year.getKey() + "/" + name);
+        try (OutputStream out = file.getFileSystem(conf).create(file, false)) {
+          year.getValue().write(out);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,228 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ColumnarTable is a compact binary form of the daily crime, weather and
+ * joined rows, so they can be scanned without parsing any text.  A file
+ * holds one year of rows, column after column:
+ *
+ *  - header:  int magic "WCC1", int column groups, int rows
+ *  - day:     int days since 1970-01-01 per row
+ *  - weather: float Wx1..Wx4, one column each, NaN if missing
+ *  - crime:   short district, then short C1..C8, one column each
+ *
+ * The weather and crime groups are present as flagged in the header, a
+ * weather table has the first, a crime table the second and a joined
+ * table both.  Values are big endian, so a memory mapped file is read
+ * in place through a ByteBuffer.
+ *
+ * Partitions are laid out as <dir>/<year>/<name>.col, see partitions().
+ */
+public class ColumnarTable {
+
+  public static final int MAGIC = 0x57434331;
+
+  /** Column group flags. */
+  public static final int WEATHER = 1;
+  public static final int CRIME = 2;
+
+  public static final String EXTENSION = ".col";
+
+  private static final int HEADER = 12;
+  private static final int FIELDS = WeatherStats.FIELDS;
+  private static final int CATEGORIES = CrimeCountsWritable.CATEGORIES;
+
+  private final ByteBuffer buffer;
+  private final int groups;
+  private final int rows;
+  private final int weatherAt;
+  private final int districtAt;
+
+  private ColumnarTable(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    if (buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a columnar table");
+    }
+    groups = buffer.getInt(4);
+    rows = buffer.getInt(8);
+    weatherAt = HEADER + 4 * rows;
+    districtAt = weatherAt + ((groups & WEATHER) != 0 ? 4 * FIELDS * rows : 0);
+    long size = districtAt + ((groups & CRIME) != 0 ? 2L * (1 + CATEGORIES) * rows : 0);
+    if (buffer.limit() < size) {
+      throw new IOException("Columnar table is truncated, " + buffer.limit() + " of " + size + " bytes");
+    }
+  }
+
+  /**
+   * Memory map a table file.
+   */
+  public static ColumnarTable open(File file) throws IOException {
+    try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+      return new ColumnarTable(in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length()));
+    }
+  }
+
+  /**
+   * Read a table held in a buffer, e.g. the bytes of a file on HDFS.
+   */
+  public static ColumnarTable wrap(ByteBuffer buffer) throws IOException {
+    return new ColumnarTable(buffer);
+  }
+
+  /**
+   * List the table files of the years in [firstYear, lastYear] under a
+   * partitioned directory, ordered by year and then name.
+   */
+  public static List<File> partitions(File dir, int firstYear, int lastYear) {
+    List<File> files = new ArrayList<File>();
+    File[] years = dir.listFiles();
+    if (years == null) {
+      return files;
+    }
+    Arrays.sort(years);
+    for (File year : years) {
+      if (!year.isDirectory() || !year.getName().matches("\\d{4}")) {
+        continue;
+      }
+      int y = Integer.parseInt(year.getName());
+      if (y < firstYear || y > lastYear) {
+        continue;
+      }
+      File[] tables = year.listFiles();
+      Arrays.sort(tables);
+      for (File table : tables) {
+        if (table.isFile() && table.getName().endsWith(EXTENSION)) {
+          files.add(table);
+        }
+      }
+    }
+    return files;
+  }
+
+  public int rows() {
+    return rows;
+  }
+
+  public boolean hasWeather() {
+    return (groups & WEATHER) != 0;
+  }
+
+  public boolean hasCrime() {
+    return (groups & CRIME) != 0;
+  }
+
+  /**
+   * @return the date of a row as days since 1970-01-01
+   */
+  public int day(int row) {
+    return buffer.getInt(HEADER + 4 * row);
+  }
+
+  /**
+   * @return the average of a weather attribute on a row, NaN if it was missing
+   */
+  public float weather(int row, int field) {
+    return buffer.getFloat(weatherAt + 4 * (field * rows + row));
+  }
+
+  public int district(int row) {
+    return buffer.getShort(districtAt + 2 * row);
+  }
+
+  public int crime(int row, int category) {
+    return buffer.getShort(districtAt + 2 * ((1 + category) * rows + row));
+  }
+
+  /**
+   * Writer buffers the rows of one table and writes them out column by column.
+   */
+  public static class Writer {
+
+    private final int groups;
+    private int rows;
+    private int[] days = new int[1024];
+    private float[] weather;
+    private short[] crime;
+
+    public Writer(int groups) {
+      this.groups = groups;
+      weather = new float[(groups & WEATHER) != 0 ? days.length * FIELDS : 0];
+      crime = new short[(groups & CRIME) != 0 ? days.length * (1 + CATEGORIES) : 0];
+    }
+
+    public int rows() {
+      return rows;
+    }
+
+    /**
+     * Add a row, the weather or the district and counts are ignored when
+     * the table does not have that group.
+     */
+    public void add(int day, double[] weatherRow, int district, int[] counts) {
+      if (rows == days.length) {
+        days = Arrays.copyOf(days, rows * 2);
+        weather = Arrays.copyOf(weather, weather.length * 2);
+        crime = Arrays.copyOf(crime, crime.length * 2);
+      }
+      days[rows] = day;
+      if ((groups & WEATHER) != 0) {
+        for (int i = 0; i < FIELDS; ++i) {
+          weather[rows * FIELDS + i] = (float) weatherRow[i];
+        }
+      }
+      if ((groups & CRIME) != 0) {
+        int at = rows * (1 + CATEGORIES);
+        crime[at] = toShort(district);
+        for (int i = 0; i < CATEGORIES; ++i) {
+          crime[at + 1 + i] = toShort(counts[i]);
+        }
+      }
+      ++rows;
+    }
+
+    private static short toShort(int value) {
+      if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+        throw new IllegalArgumentException(value + " does not fit a short column");
+      }
+      return (short) value;
+    }
+
+    /**
+     * Write the table and reset the writer.
+     */
+    public void write(OutputStream stream) throws IOException {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+      out.writeInt(MAGIC);
+      out.writeInt(groups);
+      out.writeInt(rows);
+      for (int r = 0; r < rows; ++r) {
+        out.writeInt(days[r]);
+      }
+      if ((groups & WEATHER) != 0) {
+        for (int i = 0; i < FIELDS; ++i) {
+          for (int r = 0; r < rows; ++r) {
+            out.writeFloat(weather[r * FIELDS + i]);
+          }
+        }
+      }
+      if ((groups & CRIME) != 0) {
+        for (int i = 0; i <= CATEGORIES; ++i) {
+          for (int r = 0; r < rows; ++r) {
+            out.writeShort(crime[r * (1 + CATEGORIES) + i]);
+          }
+        }
+      }
+      out.flush();
+      rows = 0;
+    }
+  }
+}
@@ -0,0 +1,133 @@
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.io.compress.Lz4Codec;
+import org.apache.hadoop.io.compress.SnappyCodec;
+import org.apache.hadoop.io.compress.zlib.ZlibCompressor;
+import org.apache.hadoop.io.compress.zlib.ZlibFactory;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.NativeCodeLoader;
+
+/**
+ * Compression sets up the codecs of the jobs, each driver calling
+ * configure() once its output format is chosen:
+ *
+ *  -D compress.map.codec=NAME     compresses the map output, shrinking the shuffle
+ *  -D compress.output.codec=NAME  compresses the rows written, text or
+ *                                 -D output.format=sequence
+ *
+ * NAME is none, deflate, gzip, bzip2, lz4 or snappy.  Deflate, gzip and
+ * bzip2 are pure Java when the native library is missing.  Lz4 and snappy
+ * need it in Hadoop 2, so without it they fall back to deflate at its
+ * fastest level, which costs about as little CPU per shuffled byte.
+ * Hadoop has one deflate level per job, so when the map output falls
+ * back while the output is written with deflate or gzip, both keep the
+ * default level rather than the output being compressed less.
+ *
+ * Text output is only splittable with bzip2, the block compressed
+ * SequenceFile of output.format=sequence is splittable with any codec and
+ * uses deflate unless told otherwise.  RowInputFormat reads all of them.
+ */
+public class Compression {
+
+  private static final Log LOG = LogFactory.getLog(Compression.class);
+
+  /** Configuration key of the map output codec, none by default. */
+  public static final String MAP_CODEC_KEY = "compress.map.codec";
+
+  /** Configuration key of the output codec, none by default for text. */
+  public static final String OUTPUT_CODEC_KEY = "compress.output.codec";
+
+  public static final String NONE = "none";
+  public static final String DEFLATE = "deflate";
+
+  private Compression() {
+  }
+
+  /**
+   * @return the codec class of a name, or null for none
+   */
+  public static Class<? extends CompressionCodec> codec(Configuration conf, String name) {
+    switch (name) {
+      case NONE:
+        return null;
+      case DEFLATE:
+        return DefaultCodec.class;
+      case "gzip":
+        return GzipCodec.class;
+      case "bzip2":
+        return BZip2Codec.class;
+      case "lz4":
+      case "snappy":
+        if (!fallsBack(name)) {
+          return name.equals("lz4") ? Lz4Codec.class : SnappyCodec.class;
+        }
+        LOG.warn("No native " + name + " codec, using deflate instead");
+        return DefaultCodec.class;
+      default:
+        throw new IllegalArgumentException(name + " is not none, deflate, gzip, bzip2, lz4 or snappy");
+    }
+  }
+
+  /**
+   * @return true if a codec name is replaced by deflate for want of the native library
+   */
+  private static boolean fallsBack(String name) {
+    switch (name) {
+      case "lz4":
+        return !NativeCodeLoader.isNativeCodeLoaded();
+      case "snappy":
+        return !NativeCodeLoader.isNativeCodeLoaded() || !NativeCodeLoader.buildSupportsSnappy();
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Set the map output and output codecs of a job from its configuration.
+   * Call after the output format is chosen.
+   *
+   * @return true if the output is compressed
+   */
+  public static boolean configure(Job job) {
+    Configuration conf = job.getConfiguration();
+
+    String mapName = conf.get(MAP_CODEC_KEY, NONE);
+    Class<? extends CompressionCodec> map = codec(conf, mapName);
+    if (map != null) {
+      conf.setBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, true);
+      conf.setClass(MRJobConfig.MAP_OUTPUT_COMPRESS_CODEC, map, CompressionCodec.class);
+    }
+
+    boolean sequence = SequenceRowsOutputFormat.configure(job);
+    String outputName = conf.get(OUTPUT_CODEC_KEY, sequence ? DEFLATE : NONE);
+    Class<? extends CompressionCodec> output = codec(conf, outputName);
+
+    // The level applies to every deflate and gzip stream of the job
+    boolean zlibOutput = output != null && DefaultCodec.class.isAssignableFrom(output);
+    if (fallsBack(outputName) || (fallsBack(mapName) && !zlibOutput)) {
+      ZlibFactory.setCompressionLevel(conf, ZlibCompressor.CompressionLevel.BEST_SPEED);
+    }
+    else if (fallsBack(mapName)) {
+      LOG.warn("The map output is compressed at the level of the " + outputName + " output");
+    }
+    if (output == null) {
+      return false;
+    }
+    if (ColumnarOutputFormat.COLUMNAR.equals(conf.get(ColumnarOutputFormat.FORMAT_KEY))) {
+      throw new IllegalArgumentException("The columnar output is not compressed");
+    }
+    if (IncrementalOutput.isEnabled(conf)) {
+      throw new IllegalArgumentException("The incremental mode needs the uncompressed text output");
+    }
+    FileOutputFormat.setCompressOutput(job, true);
+    FileOutputFormat.setOutputCompressorClass(job, output);
+    return true;
+  }
+}
@@ -0,0 +1,187 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * CrimeCountsWritable carries the daily count of each primary crime
+ * category for one district as a fixed vector of eight slots, ordered
+ * as the C1..C8 output columns:
+ *
+ *  HOMICIDE, ROBBERY, BATTERY, ASSAULT, BURGLARY, THEFT,
+ *  MOTOR VEHICLE THEFT, WEAPONS VIOLATION
+ *
+ * Counts are serialized as variable length ints, so a single crime
+ * costs a handful of bytes in the shuffle and partial vectors can be
+ * summed by a combiner without any string parsing.
+ *
+ * In the spatial mode the vector also counts the crimes nearest each
+ * weather station 1..N of a StationGrid, those without a location being
+ * left out.  The district is then written as its complement, so
+ * vectors without them serialize as before.
+ */
+public class CrimeCountsWritable implements Writable {
+
+  public static final int CATEGORIES = 8;
+
+  /** Primary type of each slot, as found in the crime records. */
+  public static final String[] NAMES = {"HOMICIDE", "ROBBERY", "BATTERY", "ASSAULT",
+      "BURGLARY", "THEFT", "MOTOR VEHICLE THEFT", "WEAPONS VIOLATION"};
+
+  private static final int[] NO_STATIONS = new int[0];
+
+  private int district;
+  private final int[] counts = new int[CATEGORIES];
+  private int[] stations = NO_STATIONS;
+
+  public CrimeCountsWritable() {
+  }
+
+  public int getDistrict() {
+    return district;
+  }
+
+  public void setDistrict(int district) {
+    this.district = district;
+  }
+
+  public int get(int category) {
+    return counts[category];
+  }
+
+  /**
+   * Reset every slot to zero and tag the vector with a district.
+   */
+  public void clear(int district) {
+    this.district = district;
+    for (int i = 0; i < CATEGORIES; ++i) {
+      counts[i] = 0;
+    }
+    Arrays.fill(stations, 0);
+  }
+
+  /**
+   * Count the crimes nearest each of the given number of stations from
+   * now on, all zero, or none when 0.
+   */
+  public void setStations(int n) {
+    stations = n == 0 ? NO_STATIONS : stations.length == n ? stations : new int[n];
+    Arrays.fill(stations, 0);
+  }
+
+  /**
+   * @return the number of stations counted, 0 unless spatial
+   */
+  public int getStations() {
+    return stations.length;
+  }
+
+  /**
+   * @return the crimes nearest a station 1..getStations()
+   */
+  public int getNearest(int station) {
+    return stations[station - 1];
+  }
+
+  public void setNearest(int station, int count) {
+    stations[station - 1] = count;
+  }
+
+  /**
+   * @return the sum of the category counts
+   */
+  public int total() {
+    int n = 0;
+    for (int i = 0; i < CATEGORIES; ++i) {
+      n += counts[i];
+    }
+    return n;
+  }
+
+  public void set(int category, int count) {
+    counts[category] = count;
+  }
+
+  public void increment(int category) {
+    ++counts[category];
+  }
+
+  /**
+   * Add this vector slot by slot into the given totals.
+   */
+  public void addTo(int[] totals) {
+    for (int i = 0; i < CATEGORIES; ++i) {
+      totals[i] += counts[i];
+    }
+  }
+
+  /**
+   * Add the crimes nearest each station into the given totals, indexed from 0.
+   */
+  public void addStationsTo(int[] totals) {
+    for (int i = 0; i < stations.length; ++i) {
+      totals[i] += stations[i];
+    }
+  }
+
+  /**
+   * Copy the given totals of the crimes nearest each station, indexed from 0.
+   */
+  public void setStations(int[] totals) {
+    System.arraycopy(totals, 0, stations, 0, stations.length);
+  }
+
+  /**
+   * Copy the given totals into this vector.
+   */
+  public void set(int[] totals) {
+    System.arraycopy(totals, 0, counts, 0, CATEGORIES);
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, stations.length == 0 ? district : ~district);
+    for (int i = 0; i < CATEGORIES; ++i) {
+      WritableUtils.writeVInt(out, counts[i]);
+    }
+    if (stations.length != 0) {
+      WritableUtils.writeVInt(out, stations.length);
+      for (int s : stations) {
+        WritableUtils.writeVInt(out, s);
+      }
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    district = WritableUtils.readVInt(in);
+    for (int i = 0; i < CATEGORIES; ++i) {
+      counts[i] = WritableUtils.readVInt(in);
+    }
+    if (district < 0) {
+      district = ~district;
+      setStations(WritableUtils.readVInt(in));
+      for (int i = 0; i < stations.length; ++i) {
+        stations[i] = WritableUtils.readVInt(in);
+      }
+    }
+    else {
+      stations = NO_STATIONS;
+    }
+  }
+
+  /**
+   * Output of the form District,C1,C2,C3,C4,C5,C6,C7,C8
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(district);
+    for (int i = 0; i < CATEGORIES; ++i) {
+      sb.append(',').append(counts[i]);
+    }
+    return sb.toString();
+  }
+}
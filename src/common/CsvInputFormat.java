@@ -0,0 +1,480 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.LineReader;
+
+/**
+ * CsvInputFormat reads the raw crime and weather csv files as they are
+ * downloaded, one record per value keyed by its offset in the file:
+ *
+ *  - the header of every file is skipped, and its number of columns is
+ *    the width every record of the file must have
+ *  - a quoted field may hold commas and line breaks, a record with a
+ *    break is handed to the mapper whole
+ *  - a record of another width, or with a quote left open, is not handed
+ *    to the mapper but its first line is written to _malformed-m-NNNNN in
+ *    the job's output, which later jobs skip as a hidden file, and the
+ *    next line is read as the start of a record
+ *
+ * With csv.header=auto (the default) the first record of a file is taken
+ * for a header when none of its fields is a number; true and false force
+ * it.  A file without a header takes its width from csv.columns, or
+ * checks none.  The records read, headers and malformed records are
+ * counted under CsvInputFormat$Records.
+ *
+ * A split other than a file's first starts at the first line that reads
+ * as a record of the file's width, so a record broken across the split
+ * boundary is read whole by the split it starts in.  Compressed files
+ * are read as a single split.
+ */
+public class CsvInputFormat extends FileInputFormat<LongWritable, Text> {
+
+  /** Configuration key of the header detection, auto, true or false. */
+  public static final String HEADER_KEY = "csv.header";
+
+  /** Configuration key of the width of files without a header, 0 for any. */
+  public static final String COLUMNS_KEY = "csv.columns";
+
+  /** Configuration key of the lines a record may span before it is malformed. */
+  public static final String MAX_LINES_KEY = "csv.max.record.lines";
+
+  public static final int DEFAULT_MAX_LINES = 64;
+
+  /** Name the malformed records are written under in the output. */
+  public static final String MALFORMED = "_malformed";
+
+  public static enum Records {
+    READ, HEADER, MULTILINE, MALFORMED
+  }
+
+  @Override
+  protected boolean isSplitable(JobContext context, Path file) {
+    return new CompressionCodecFactory(context.getConfiguration()).getCodec(file) == null;
+  }
+
+  @Override
+  public RecordReader<LongWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context) {
+    return new CsvRecordReader();
+  }
+
+  /**
+   * A physical line and where it starts in the file, reused as the
+   * reader moves on.
+   */
+  private static class Line {
+    long position;
+    final Text text = new Text();
+  }
+
+  private static final byte[] NEWLINE = {'\n'};
+
+  /**
+   * Fields of the lines holding a record, as far as they are complete.
+   * A quote opens a field only at its start, inside it a doubled quote
+   * stands for one, and anything after its closing quote is ignored.
+   */
+  static class Fields {
+    int count;
+    boolean quoted;
+    boolean fieldStart = true;
+    boolean closed;
+
+    void reset() {
+      count = 0;
+      quoted = false;
+      fieldStart = true;
+      closed = false;
+    }
+
+    /**
+     * Scan the next line of the record.
+     *
+     * @return true if the record ends with it
+     */
+    boolean line(Text line) {
+      byte[] b = line.getBytes();
+      int end = line.getLength();
+      if (count == 0) {
+        count = 1;
+      }
+      else {
+        fieldStart = false;
+      }
+      // The state is kept in locals while the line is scanned
+      int n = count;
+      boolean inQuote = quoted;
+      boolean atStart = fieldStart;
+      boolean afterQuote = closed;
+      int i = 0;
+      while (i < end) {
+        if (inQuote) {
+          while (i < end && b[i] != '"') {
+            ++i;
+          }
+          if (i + 1 < end && b[i + 1] == '"') {
+            i += 2;
+          }
+          else if (i < end) {
+            ++i;
+            inQuote = false;
+            afterQuote = true;
+          }
+          continue;
+        }
+        byte c = b[i++];
+        if (c == ',') {
+          ++n;
+          atStart = true;
+          afterQuote = false;
+        }
+        else {
+          if (c == '"' && atStart && !afterQuote) {
+            inQuote = true;
+          }
+          atStart = false;
+        }
+      }
+      count = n;
+      quoted = inQuote;
+      fieldStart = atStart;
+      closed = afterQuote;
+      return !inQuote;
+    }
+  }
+
+  /**
+   * @return true if no field of the line is a number, as in a header
+   */
+  static boolean looksLikeHeader(Text line) {
+    byte[] b = line.getBytes();
+    int end = line.getLength();
+    int start = 0;
+    while (start <= end) {
+      int stop = start;
+      while (stop < end && b[stop] != ',') {
+        ++stop;
+      }
+      if (isNumber(b, start, stop)) {
+        return false;
+      }
+      start = stop + 1;
+    }
+    return true;
+  }
+
+  private static boolean isNumber(byte[] b, int start, int end) {
+    boolean digit = false;
+    for (int i = start; i < end; ++i) {
+      byte c = b[i];
+      if (c >= '0' && c <= '9') {
+        digit = true;
+      }
+      else if (c != '.' && c != '-' && c != '+' && c != ' ' && c != '"') {
+        return false;
+      }
+    }
+    return digit;
+  }
+
+  /**
+   * Reads the records of a split from its physical lines, holding the
+   * lines of a record under way in a small queue so a split can try
+   * record starts line by line until one fits.  The queue is a ring of
+   * csv.max.record.lines reused lines, and a record on a line of its own,
+   * the usual case, is read straight into the value without queuing.
+   */
+  public static class CsvRecordReader extends RecordReader<LongWritable, Text> {
+
+    private LineReader in;
+    private long start;
+    private long end;
+    private long position;
+    private int maxLines;
+    private int columns;
+    private boolean resync;
+
+    private Line[] lines;
+    private int head;
+    private int queued;
+    private final Fields fields = new Fields();
+    private final LongWritable key = new LongWritable();
+    private final Text value = new Text();
+    private boolean eof;
+
+    private TaskAttemptContext context;
+    private Writer malformed;
+    private final long[] counts = new long[Records.values().length];
+
+    /**
+     * Opens the file being read at a byte position, or at its start if compressed.
+     */
+    interface Source {
+      InputStream open(long at) throws IOException;
+    }
+
+    @Override
+    public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+      this.context = context;
+      FileSplit split = (FileSplit) genericSplit;
+      Configuration conf = context.getConfiguration();
+      Path file = split.getPath();
+      FileSystem fs = file.getFileSystem(conf);
+      CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+      initialize(conf, at -> open(fs, file, codec, at), split.getStart(), split.getLength(), codec != null);
+    }
+
+    /**
+     * Read the records starting in [start, start + length) of a file
+     * without a task, as the local engine does: nothing is diverted and
+     * the counts are left to count().
+     */
+    void initialize(Configuration conf, Source source, long start, long length, boolean compressed) throws IOException {
+      maxLines = conf.getInt(MAX_LINES_KEY, DEFAULT_MAX_LINES);
+      lines = new Line[Integer.highestOneBit(Math.max(1, maxLines) * 2 - 1)];
+      for (int i = 0; i < lines.length; ++i) {
+        lines[i] = new Line();
+      }
+      this.start = start;
+      end = start + length;
+
+      // The header is the file's first line, whichever split this is
+      String header = conf.get(HEADER_KEY, "auto");
+      columns = conf.getInt(COLUMNS_KEY, 0);
+      Text first = new Text();
+      try (InputStream head = source.open(0)) {
+        new LineReader(head, conf).readLine(first);
+      }
+      boolean hasHeader = header.equals("auto") ? looksLikeHeader(first) : Boolean.parseBoolean(header);
+      if (hasHeader) {
+        fields.reset();
+        fields.line(first);
+        columns = fields.count;
+      }
+
+      in = new LineReader(source.open(start), conf);
+      position = start;
+      if (compressed) {
+        // Positions count uncompressed bytes, and the split is the whole file
+        end = Long.MAX_VALUE;
+      }
+      if (start != 0) {
+        // The line under way belongs to the previous split
+        position += in.readLine(new Text(), 0, (int) Math.min(Integer.MAX_VALUE, end - start));
+        resync = true;
+      }
+      else if (hasHeader) {
+        position += in.readLine(new Text());
+        ++counts[Records.HEADER.ordinal()];
+      }
+    }
+
+    private static InputStream open(FileSystem fs, Path file, CompressionCodec codec, long at) throws IOException {
+      FSDataInputStream raw = fs.open(file);
+      if (codec != null) {
+        return codec.createInputStream(raw);
+      }
+      raw.seek(at);
+      return raw;
+    }
+
+    /**
+     * @return the i-th queued line, reading it if needed, or null at the end of the file
+     */
+    private Line line(int i) throws IOException {
+      while (queued <= i && !eof) {
+        Line l = lines[(head + queued) & (lines.length - 1)];
+        int read = in.readLine(l.text);
+        if (read == 0) {
+          eof = true;
+        }
+        else {
+          l.position = position;
+          position += read;
+          ++queued;
+        }
+      }
+      return i < queued ? lines[(head + i) & (lines.length - 1)] : null;
+    }
+
+    private Line removeFirst() {
+      Line l = lines[head];
+      head = (head + 1) & (lines.length - 1);
+      --queued;
+      return l;
+    }
+
+    /**
+     * Read the next line into the value and hand it over if it is a record
+     * of its own, otherwise queue it.
+     *
+     * @return true if the value holds a record
+     */
+    private boolean single() throws IOException {
+      long at = position;
+      int read = in.readLine(value);
+      if (read == 0) {
+        eof = true;
+        return false;
+      }
+      position += read;
+      if (at <= end) {
+        fields.reset();
+        if (fields.line(value) && (columns == 0 || fields.count == columns)) {
+          resync = false;
+          key.set(at);
+          ++counts[Records.READ.ordinal()];
+          return true;
+        }
+      }
+      Line l = lines[(head + queued) & (lines.length - 1)];
+      l.position = at;
+      l.text.set(value);
+      ++queued;
+      return false;
+    }
+
+    /**
+     * @return the number of queued lines the record starting at the first
+     *         one spans, 0 if its quote is still open after
+     *         csv.max.record.lines or at the end of the file
+     */
+    private int span() throws IOException {
+      fields.reset();
+      for (int i = 0; i < maxLines; ++i) {
+        Line l = line(i);
+        if (l == null) {
+          return 0;
+        }
+        if (fields.line(l.text)) {
+          return i + 1;
+        }
+      }
+      return 0;
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException, InterruptedException {
+      while (true) {
+        if (queued == 0 && !eof && single()) {
+          return true;
+        }
+        Line first = line(0);
+        // A record starting after the split is the next split's
+        if (first == null || first.position > end) {
+          return false;
+        }
+        int span = span();
+        boolean fits = span > 0 && (columns == 0 || fields.count == columns);
+        if (resync) {
+          if (!fits) {
+            removeFirst();
+            continue;
+          }
+          resync = false;
+        }
+        // A record that does not fit gives up its first line only, so a
+        // stray quote cannot swallow the good records after it
+        int taken = fits ? span : 1;
+        key.set(first.position);
+        value.clear();
+        for (int i = 0; i < taken; ++i) {
+          Line l = removeFirst();
+          if (i > 0) {
+            value.append(NEWLINE, 0, 1);
+          }
+          value.append(l.text.getBytes(), 0, l.text.getLength());
+        }
+        ++counts[Records.READ.ordinal()];
+        if (fits) {
+          if (taken > 1) {
+            ++counts[Records.MULTILINE.ordinal()];
+          }
+          return true;
+        }
+        ++counts[Records.MALFORMED.ordinal()];
+        divert(value);
+      }
+    }
+
+    /**
+     * Write a malformed record to the task's side file, created on the first one.
+     */
+    private void divert(Text record) throws IOException, InterruptedException {
+      if (!(context instanceof TaskInputOutputContext)) {
+        return;
+      }
+      if (malformed == null) {
+        TaskInputOutputContext<?, ?, ?, ?> task = (TaskInputOutputContext<?, ?, ?, ?>) context;
+        Path file = new Path(FileOutputFormat.getWorkOutputPath(task),
+            FileOutputFormat.getUniqueFile(task, MALFORMED, ""));
+        malformed = new BufferedWriter(new OutputStreamWriter(
+            file.getFileSystem(context.getConfiguration()).create(file, false), StandardCharsets.UTF_8));
+      }
+      malformed.write(record.toString());
+      malformed.write('\n');
+    }
+
+    @Override
+    public LongWritable getCurrentKey() {
+      return key;
+    }
+
+    @Override
+    public Text getCurrentValue() {
+      return value;
+    }
+
+    @Override
+    public float getProgress() {
+      if (end == Long.MAX_VALUE) {
+        return eof ? 1.0f : 0.0f;
+      }
+      return end == start ? 1.0f : Math.min(1.0f, (position - start) / (float) (end - start));
+    }
+
+    /**
+     * @return the records of a kind counted so far
+     */
+    long count(Records record) {
+      return counts[record.ordinal()];
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (in != null) {
+        in.close();
+      }
+      if (malformed != null) {
+        malformed.close();
+      }
+      if (context == null) {
+        return;
+      }
+      Records[] records = Records.values();
+      for (int i = 0; i < counts.length; ++i) {
+        if (counts[i] != 0) {
+          context.getCounter(records[i]).increment(counts[i]);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,259 @@
+import java.nio.charset.StandardCharsets;
+import org.apache.hadoop.io.Text;
+
+/**
+ * CsvScanner locates the fields of a csv line directly in the bytes
+ * backing a Text, without building a String per line or per field.
+ * A mapper keeps one scanner, scans each line with it and then reads
+ * only the columns it needs, parsing numbers and dates in place.
+ *
+ * Fields wrapped in double quotes may contain commas, as the location
+ * and description columns of the Chicago crimes csv do.  The bounds of
+ * a quoted field exclude its quotes; a doubled quote inside it is left
+ * as is.
+ */
+public class CsvScanner {
+
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private final int[] starts;
+  private final int[] ends;
+  private byte[] bytes;
+  private int fields;
+
+  /**
+   * @param maxFields number of leading fields to locate, fields past it are never looked at
+   */
+  public CsvScanner(int maxFields) {
+    starts = new int[maxFields];
+    ends = new int[maxFields];
+  }
+
+  /**
+   * Locate the fields of a line.
+   *
+   * @return number of fields located, at most maxFields
+   */
+  public int scan(Text line) {
+    return scan(line.getBytes(), 0, line.getLength());
+  }
+
+  public int scan(byte[] b, int offset, int length) {
+    bytes = b;
+    fields = 0;
+    int end = offset + length;
+    int i = offset;
+    while (fields < starts.length) {
+      if (i < end && b[i] == '"') {
+        // Quoted field, runs to the closing quote that is not doubled.
+        int start = ++i;
+        while (i < end && (b[i] != '"' || (i + 1 < end && b[i + 1] == '"'))) {
+          i += b[i] == '"' ? 2 : 1;
+        }
+        starts[fields] = start;
+        ends[fields] = Math.min(i, end);
+        ++fields;
+        while (i < end && b[i] != ',') {
+          ++i;
+        }
+      }
+      else {
+        int start = i;
+        while (i < end && b[i] != ',') {
+          ++i;
+        }
+        starts[fields] = start;
+        ends[fields] = i;
+        ++fields;
+      }
+      if (i >= end) {
+        break;
+      }
+      ++i;
+    }
+    return fields;
+  }
+
+  public int fields() {
+    return fields;
+  }
+
+  public byte[] bytes() {
+    return bytes;
+  }
+
+  public int start(int field) {
+    return starts[field];
+  }
+
+  public int length(int field) {
+    return ends[field] - starts[field];
+  }
+
+  public boolean isEmpty(int field) {
+    return field >= fields || ends[field] == starts[field];
+  }
+
+  /**
+   * @return whether the field is a non empty run of digits
+   */
+  public boolean isDigits(int field) {
+    if (isEmpty(field)) {
+      return false;
+    }
+    for (int i = starts[field]; i < ends[field]; ++i) {
+      if (bytes[i] < '0' || bytes[i] > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parse a field made of digits only.
+   *
+   * @throws NumberFormatException if the field is empty or not all digits
+   */
+  public int parseInt(int field) {
+    if (!isDigits(field)) {
+      throw new NumberFormatException("Not a number: \"" + getString(field) + "\"");
+    }
+    int n = 0;
+    for (int i = starts[field]; i < ends[field]; ++i) {
+      n = n * 10 + (bytes[i] - '0');
+    }
+    return n;
+  }
+
+  /**
+   * Parse the number in a field while ignoring every character besides
+   * a sign, digits and a decimal point, so the quality flags appended
+   * to the hourly weather values (e.g. "25s") are dropped.
+   *
+   * @return the value, or NaN if the field holds no valid number
+   */
+  public double parseNumber(int field) {
+    if (isEmpty(field)) {
+      return Double.NaN;
+    }
+    boolean negative = false;
+    boolean seenDigit = false;
+    boolean seenPoint = false;
+    boolean seenSign = false;
+    long mantissa = 0;
+    int digits = 0;
+    int scale = 0;
+    for (int i = starts[field]; i < ends[field]; ++i) {
+      byte c = bytes[i];
+      if (c >= '0' && c <= '9') {
+        seenDigit = true;
+        if (mantissa == 0 && c == '0') {
+          if (seenPoint) {
+            ++scale;
+          }
+          continue;
+        }
+        if (++digits > 15) {
+          return slowParse(field);
+        }
+        mantissa = mantissa * 10 + (c - '0');
+        if (seenPoint) {
+          ++scale;
+        }
+      }
+      else if (c == '.') {
+        if (seenPoint) {
+          return Double.NaN;
+        }
+        seenPoint = true;
+      }
+      else if (c == '-') {
+        if (seenSign || seenDigit || seenPoint) {
+          return Double.NaN;
+        }
+        seenSign = true;
+        negative = true;
+      }
+    }
+    if (!seenDigit) {
+      return Double.NaN;
+    }
+    if (scale >= POWERS_OF_TEN.length) {
+      return slowParse(field);
+    }
+    // Both operands are exact, so one division rounds the same way
+    // Double.parseDouble does.
+    double value = mantissa / POWERS_OF_TEN[scale];
+    return negative ? -value : value;
+  }
+
+  private double slowParse(int field) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = starts[field]; i < ends[field]; ++i) {
+      byte c = bytes[i];
+      if ((c >= '0' && c <= '9') || c == '.' || c == '-') {
+        sb.append((char) c);
+      }
+    }
+    try {
+      return Double.parseDouble(sb.toString());
+    }
+    catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  /**
+   * Parse the leading date of a field into days since 1970-01-01.
+   *
+   * @throws NumberFormatException if the field does not start with a date
+   */
+  public int parseDay(int field) {
+    if (field >= fields) {
+      throw new NumberFormatException("Missing date field " + field);
+    }
+    return DayKey.parse(bytes, starts[field], ends[field] - starts[field]);
+  }
+
+  /**
+   * Parse the time of day following the date of a field.
+   *
+   * @return minutes since midnight
+   * @throws NumberFormatException if the field has no time of day
+   */
+  public int parseMinute(int field) {
+    if (field >= fields) {
+      throw new NumberFormatException("Missing time field " + field);
+    }
+    return DayKey.parseMinute(bytes, starts[field], ends[field] - starts[field]);
+  }
+
+  /**
+   * @return ordinal of the field in the lookup with surrounding spaces
+   *         ignored, or -1 if it is not one of its names
+   */
+  public int indexOf(int field, OrdinalLookup lookup) {
+    if (field >= fields) {
+      return -1;
+    }
+    int start = starts[field];
+    int end = ends[field];
+    while (start < end && bytes[start] == ' ') {
+      ++start;
+    }
+    while (end > start && bytes[end - 1] == ' ') {
+      --end;
+    }
+    return lookup.indexOf(bytes, start, end - start);
+  }
+
+  public String getString(int field) {
+    if (field >= fields) {
+      return "";
+    }
+    return new String(bytes, starts[field], ends[field] - starts[field], StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,267 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+
+/**
+ * DailyWeatherTable holds the daily weather averages written by
+ * WeatherReducer in primitive arrays indexed by day, so a join can look
+ * up the weather of a date with an array read.  Twenty years of output
+ * are only a few thousand rows, small enough to be loaded by every map
+ * task from the distributed cache.
+ *
+ * When the weather output was written with weather.output.stats, the
+ * observation count behind each average is kept as well.  The output may
+ * be compressed or a SequenceFile, see RowInputFormat.
+ *
+ * The hidden _stationN rows of a weather.spatial output are loaded into a
+ * table per station, see loadStations().
+ */
+public class DailyWeatherTable {
+
+  /** Configuration key of the weather output files to load. */
+  public static final String FILES_KEY = "join.weather.files";
+
+  /** Configuration key of the station weather files to load, as N=file. */
+  public static final String STATION_FILES_KEY = "join.station.weather.files";
+
+  /** Prefix the files are linked under in a task's working directory. */
+  private static final String CACHE_PREFIX = "weather";
+  private static final String STATION_CACHE_PREFIX = "station";
+
+  private static final int FIELDS = WeatherStats.FIELDS;
+
+  private final int firstDay;
+  private final boolean[] present;
+  private final double[] values;
+  private final int[] counts;
+
+  private DailyWeatherTable(int firstDay, boolean[] present, double[] values, int[] counts) {
+    this.firstDay = firstDay;
+    this.present = present;
+    this.values = values;
+    this.counts = counts;
+  }
+
+  /**
+   * @return whether the table holds a row for the day
+   */
+  public boolean has(int day) {
+    int i = day - firstDay;
+    return i >= 0 && i < present.length && present[i];
+  }
+
+  /**
+   * @return the average of an attribute on a day held by the table, NaN if it was missing
+   */
+  public double get(int day, int field) {
+    return values[(day - firstDay) * FIELDS + field];
+  }
+
+  /**
+   * Copy the four averages of a day held by the table.
+   */
+  public void get(int day, double[] weather) {
+    System.arraycopy(values, (day - firstDay) * FIELDS, weather, 0, FIELDS);
+  }
+
+  /**
+   * Copy the observation counts behind the four averages of a day held by the table.
+   *
+   * @return false if the weather output had no counts for the day
+   */
+  public boolean getCounts(int day, int[] weatherCounts) {
+    int i = (day - firstDay) * FIELDS;
+    if (counts[i] < 0) {
+      return false;
+    }
+    System.arraycopy(counts, i, weatherCounts, 0, FIELDS);
+    return true;
+  }
+
+  /**
+   * Read rows of the form DATE,Wx1,Wx2,Wx3,Wx4 optionally followed by
+   * Count1..Count4, with any further columns ignored.  Rows that do not
+   * start with a date are skipped.
+   */
+  public static DailyWeatherTable read(List<BufferedReader> inputs) throws IOException {
+    int rows = 0;
+    int[] days = new int[1024];
+    double[] parsed = new double[days.length * FIELDS];
+    int[] parsedCounts = new int[days.length * FIELDS];
+    for (BufferedReader reader : inputs) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] split = line.split(",");
+        if (split.length <= FIELDS) {
+          continue;
+        }
+        int day;
+        try {
+          day = DayKey.parse(split[0]);
+        }
+        catch (NumberFormatException e) {
+          continue;
+        }
+        if (rows == days.length) {
+          days = Arrays.copyOf(days, rows * 2);
+          parsed = Arrays.copyOf(parsed, rows * 2 * FIELDS);
+          parsedCounts = Arrays.copyOf(parsedCounts, rows * 2 * FIELDS);
+        }
+        days[rows] = day;
+        for (int i = 0; i < FIELDS; ++i) {
+          parsed[rows * FIELDS + i] = WeatherStats.parse(split[i + 1]);
+          parsedCounts[rows * FIELDS + i] =
+              split.length > 2 * FIELDS ? Integer.parseInt(split[FIELDS + 1 + i]) : -1;
+        }
+        ++rows;
+      }
+    }
+
+    int first = Integer.MAX_VALUE;
+    int last = Integer.MIN_VALUE;
+    for (int r = 0; r < rows; ++r) {
+      first = Math.min(first, days[r]);
+      last = Math.max(last, days[r]);
+    }
+    if (rows == 0) {
+      return new DailyWeatherTable(0, new boolean[0], new double[0], new int[0]);
+    }
+    boolean[] present = new boolean[last - first + 1];
+    double[] values = new double[present.length * FIELDS];
+    int[] counts = new int[present.length * FIELDS];
+    for (int r = 0; r < rows; ++r) {
+      int i = days[r] - first;
+      present[i] = true;
+      System.arraycopy(parsed, r * FIELDS, values, i * FIELDS, FIELDS);
+      System.arraycopy(parsedCounts, r * FIELDS, counts, i * FIELDS, FIELDS);
+    }
+    return new DailyWeatherTable(first, present, values, counts);
+  }
+
+  /**
+   * Load the weather output files configured for a task.
+   */
+  public static DailyWeatherTable load(Configuration conf) throws IOException {
+    String[] files = conf.getStrings(FILES_KEY, new String[0]);
+    List<BufferedReader> inputs = new ArrayList<BufferedReader>();
+    try {
+      for (int i = 0; i < files.length; ++i) {
+        // Prefer the copy in the distributed cache, local runs read it directly.
+        File cached = new File(cacheName(CACHE_PREFIX, i, files[i]));
+        Path path = cached.exists() ? new Path(cached.toURI()) : new Path(files[i]);
+        inputs.add(RowInputFormat.open(conf, path));
+      }
+      return read(inputs);
+    }
+    finally {
+      for (BufferedReader in : inputs) {
+        in.close();
+      }
+    }
+  }
+
+  /**
+   * Load the station weather files configured for a task.
+   *
+   * @return the table of each station 1..stations, null for one without rows
+   */
+  public static DailyWeatherTable[] loadStations(Configuration conf, int stations) throws IOException {
+    String[] files = conf.getStrings(STATION_FILES_KEY, new String[0]);
+    List<List<BufferedReader>> perStation = new ArrayList<List<BufferedReader>>();
+    for (int s = 0; s <= stations; ++s) {
+      perStation.add(new ArrayList<BufferedReader>());
+    }
+    try {
+      for (int i = 0; i < files.length; ++i) {
+        int equals = files[i].indexOf('=');
+        int station = Integer.parseInt(files[i].substring(0, equals));
+        String file = files[i].substring(equals + 1);
+        if (station > stations) {
+          throw new IOException(file + " is the weather of station " + station
+              + " but there are " + stations + ", see " + StationGrid.FILE_KEY);
+        }
+        File cached = new File(cacheName(STATION_CACHE_PREFIX, i, file));
+        Path path = cached.exists() ? new Path(cached.toURI()) : new Path(file);
+        perStation.get(station).add(RowInputFormat.open(conf, path));
+      }
+      DailyWeatherTable[] tables = new DailyWeatherTable[stations + 1];
+      for (int s = 1; s <= stations; ++s) {
+        if (!perStation.get(s).isEmpty()) {
+          tables[s] = read(perStation.get(s));
+        }
+      }
+      return tables;
+    }
+    finally {
+      for (List<BufferedReader> inputs : perStation) {
+        for (BufferedReader in : inputs) {
+          in.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Name a file is linked under, keeping its extension so its codec is known.
+   */
+  private static String cacheName(String prefix, int i, String file) {
+    String name = new Path(file).getName();
+    int dot = name.lastIndexOf('.');
+    return prefix + i + (dot > 0 ? name.substring(dot) : "");
+  }
+
+  /**
+   * Ship the weather output under a file or directory to every task of a job.
+   */
+  public static void addTo(Job job, Path weather) throws IOException {
+    FileSystem fs = weather.getFileSystem(job.getConfiguration());
+    List<String> files = new ArrayList<String>();
+    for (FileStatus status : fs.listStatus(weather)) {
+      String name = status.getPath().getName();
+      if (name.startsWith("_") || name.startsWith(".")) {
+        continue;
+      }
+      RowInputFormat.checkRows(status);
+      if (status.isFile()) {
+        Path file = status.getPath();
+        job.addCacheFile(URI.create(file.toUri() + "#" + cacheName(CACHE_PREFIX, files.size(), file.toString())));
+        files.add(file.toString());
+      }
+    }
+    job.getConfiguration().setStrings(FILES_KEY, files.toArray(new String[files.size()]));
+  }
+
+  /**
+   * Ship the _stationN rows of a spatial weather output to every task of a job.
+   */
+  public static void addStationsTo(Job job, Path weather) throws IOException {
+    FileSystem fs = weather.getFileSystem(job.getConfiguration());
+    List<String> files = new ArrayList<String>();
+    for (FileStatus status : fs.listStatus(weather)) {
+      String name = status.getPath().getName();
+      if (!status.isFile() || !name.startsWith(StationGrid.STATION_OUTPUT)) {
+        continue;
+      }
+      // _stationN-r-NNNNN, possibly with the extension of a codec
+      int dash = name.indexOf('-');
+      String station = name.substring(StationGrid.STATION_OUTPUT.length(), dash < 0 ? name.length() : dash);
+      Path file = status.getPath();
+      job.addCacheFile(URI.create(file.toUri() + "#" + cacheName(STATION_CACHE_PREFIX, files.size(), file.toString())));
+      files.add(Integer.parseInt(station) + "=" + file);
+    }
+    if (files.isEmpty()) {
+      throw new IOException(weather + " has no station rows, run WeatherReducer with "
+          + StationGrid.SPATIAL_KEY + "=true");
+    }
+    job.getConfiguration().setStrings(STATION_FILES_KEY, files.toArray(new String[files.size()]));
+  }
+}
@@ -0,0 +1,255 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * DayKey is the date key shared by the crime, weather and join jobs.
+ * It stores a day as the number of days since 1970-01-01, so it is
+ * serialized as a fixed 4 byte int and sorts chronologically.
+ *
+ * Both input date formats are understood:
+ *
+ *  - MM/DD/YYYY as found in the crime records and district files
+ *  - YYYY-MM-DD as found in the weather records and weather output
+ *
+ * Only the first 10 characters are read, so a trailing time of day is
+ * ignored; parseMinute() reads it where it is wanted.
+ */
+public class DayKey implements WritableComparable<DayKey> {
+
+  private int day;
+
+  public DayKey() {
+  }
+
+  public DayKey(int day) {
+    this.day = day;
+  }
+
+  public int get() {
+    return day;
+  }
+
+  public void set(int day) {
+    this.day = day;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(day);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    day = in.readInt();
+  }
+
+  @Override
+  public int compareTo(DayKey other) {
+    return Integer.compare(day, other.day);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof DayKey && ((DayKey) o).day == day;
+  }
+
+  @Override
+  public int hashCode() {
+    return day;
+  }
+
+  /**
+   * @return the day in the form YYYY-MM-DD
+   */
+  @Override
+  public String toString() {
+    return toIsoDate(day);
+  }
+
+  /**
+   * Compares serialized keys without deserializing them.
+   */
+  public static class Comparator extends WritableComparator {
+
+    public Comparator() {
+      super(DayKey.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      return Integer.compare(readInt(b1, s1), readInt(b2, s2));
+    }
+  }
+
+  static {
+    WritableComparator.define(DayKey.class, new Comparator());
+  }
+
+  /**
+   * Parse the leading MM/DD/YYYY or YYYY-MM-DD date of a string.
+   *
+   * @return days since 1970-01-01
+   * @throws NumberFormatException if the string does not start with a date
+   */
+  public static int parse(CharSequence s) {
+    if (s.length() >= 10 && s.charAt(2) == '/' && s.charAt(5) == '/') {
+      return fromCivil(digits(s, 6, 4), digits(s, 0, 2), digits(s, 3, 2));
+    }
+    if (s.length() >= 10 && s.charAt(4) == '-' && s.charAt(7) == '-') {
+      return fromCivil(digits(s, 0, 4), digits(s, 5, 2), digits(s, 8, 2));
+    }
+    throw new NumberFormatException("Not a date: \"" + s + "\"");
+  }
+
+  /**
+   * Parse the leading MM/DD/YYYY or YYYY-MM-DD date of a field held in a
+   * byte array, as located by a CsvScanner.
+   *
+   * @return days since 1970-01-01
+   * @throws NumberFormatException if the field does not start with a date
+   */
+  public static int parse(byte[] b, int start, int length) {
+    if (length >= 10 && b[start + 2] == '/' && b[start + 5] == '/') {
+      return fromCivil(digits(b, start + 6, 4), digits(b, start, 2), digits(b, start + 3, 2));
+    }
+    if (length >= 10 && b[start + 4] == '-' && b[start + 7] == '-') {
+      return fromCivil(digits(b, start, 4), digits(b, start + 5, 2), digits(b, start + 8, 2));
+    }
+    throw new NumberFormatException("Not a date at offset " + start);
+  }
+
+  /**
+   * Parse the time of day following the date of a field held in a byte
+   * array: "hh:mm:ss AM" or "hh:mm:ss PM" after a MM/DD/YYYY date, as in
+   * the crime records, or "HH:mm" after a YYYY-MM-DD date, as in the
+   * weather records.
+   *
+   * @return minutes since midnight, 0..1439
+   * @throws NumberFormatException if the field has no time of day
+   */
+  public static int parseMinute(byte[] b, int start, int length) {
+    if (length < 16 || b[start + 10] != ' ' || b[start + 13] != ':') {
+      throw new NumberFormatException("No time of day at offset " + start);
+    }
+    int hour = digits(b, start + 11, 2);
+    int minute = digits(b, start + 14, 2);
+    // A 12 hour clock ends with AM or PM, 12 AM being midnight
+    int end = start + length;
+    while (end > start && b[end - 1] == ' ') {
+      --end;
+    }
+    if (end - start >= 18 && b[end - 1] == 'M' && b[end - 3] == ' ') {
+      if (hour < 1 || hour > 12) {
+        throw new NumberFormatException("Not a time at offset " + start);
+      }
+      hour %= 12;
+      if (b[end - 2] == 'P') {
+        hour += 12;
+      }
+      else if (b[end - 2] != 'A') {
+        throw new NumberFormatException("Not a time at offset " + start);
+      }
+    }
+    if (hour > 23 || minute > 59) {
+      throw new NumberFormatException("Not a time at offset " + start);
+    }
+    return hour * 60 + minute;
+  }
+
+  private static int digits(byte[] b, int start, int length) {
+    int n = 0;
+    for (int i = start; i < start + length; ++i) {
+      int d = b[i] - '0';
+      if (d < 0 || d > 9) {
+        throw new NumberFormatException("Not a date at offset " + start);
+      }
+      n = n * 10 + d;
+    }
+    return n;
+  }
+
+  private static int digits(CharSequence s, int start, int length) {
+    int n = 0;
+    for (int i = start; i < start + length; ++i) {
+      int d = s.charAt(i) - '0';
+      if (d < 0 || d > 9) {
+        throw new NumberFormatException("Not a date: \"" + s + "\"");
+      }
+      n = n * 10 + d;
+    }
+    return n;
+  }
+
+  /**
+   * @return days since 1970-01-01 of the given proleptic Gregorian date
+   * @throws NumberFormatException if the month has no such day, e.g. 2010-02-31
+   */
+  public static int fromCivil(int year, int month, int dayOfMonth) {
+    if (month < 1 || month > 12 || dayOfMonth < 1 || dayOfMonth > monthLength(year, month)) {
+      throw new NumberFormatException("Not a date: " + year + "-" + month + "-" + dayOfMonth);
+    }
+    int y = month <= 2 ? year - 1 : year;
+    int era = (y >= 0 ? y : y - 399) / 400;
+    int yoe = y - era * 400;
+    int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + dayOfMonth - 1;
+    int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+    return era * 146097 + doe - 719468;
+  }
+
+  private static int monthLength(int year, int month) {
+    if (month == 2) {
+      boolean leap = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+      return leap ? 29 : 28;
+    }
+    return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+  }
+
+  /**
+   * @return {year, month, dayOfMonth} of the given days since 1970-01-01
+   */
+  public static int[] toCivil(int day) {
+    int z = day + 719468;
+    int era = (z >= 0 ? z : z - 146096) / 146097;
+    int doe = z - era * 146097;
+    int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+    int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+    int mp = (5 * doy + 2) / 153;
+    int d = doy - (153 * mp + 2) / 5 + 1;
+    int m = mp < 10 ? mp + 3 : mp - 9;
+    int y = yoe + era * 400 + (m <= 2 ? 1 : 0);
+    return new int[] {y, m, d};
+  }
+
+  /**
+   * @return the day in the form MM/DD/YYYY used by the crime and join output
+   */
+  public static String toUsDate(int day) {
+    int[] ymd = toCivil(day);
+    StringBuilder sb = new StringBuilder(10);
+    pad(sb, ymd[1], 2).append('/');
+    pad(sb, ymd[2], 2).append('/');
+    return pad(sb, ymd[0], 4).toString();
+  }
+
+  /**
+   * @return the day in the form YYYY-MM-DD used by the weather output
+   */
+  public static String toIsoDate(int day) {
+    int[] ymd = toCivil(day);
+    StringBuilder sb = new StringBuilder(10);
+    pad(sb, ymd[0], 4).append('-');
+    pad(sb, ymd[1], 2).append('-');
+    return pad(sb, ymd[2], 2).toString();
+  }
+
+  private static StringBuilder pad(StringBuilder sb, int n, int width) {
+    String s = Integer.toString(n);
+    for (int i = s.length(); i < width; ++i) {
+      sb.append('0');
+    }
+    return sb.append(s);
+  }
+}
@@ -0,0 +1,138 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Calendar;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * DayRangePartitioner sends contiguous ranges of days to each reducer,
+ * so reducer i only sees dates before those of reducer i + 1 and the
+ * part-r-* files concatenate in date order.
+ *
+ * The range partition.first.year to partition.last.year is split by
+ * whole years (partition.range.by=year, the default) or, for more
+ * reducers than years, by days (partition.range.by=day).  configure()
+ * sets the range of a job from the dates of its inputs, or up to the
+ * current year.  A date outside the range fails the task rather than
+ * crowding the first or last reducer.
+ */
+public class DayRangePartitioner<V> extends Partitioner<DayKey, V> implements Configurable {
+
+  public static final String FIRST_YEAR_KEY = "partition.first.year";
+  public static final String LAST_YEAR_KEY = "partition.last.year";
+  public static final String RANGE_BY_KEY = "partition.range.by";
+
+  public static final int DEFAULT_FIRST_YEAR = 2001;
+
+  private Configuration conf;
+  private int firstYear;
+  private int lastYear;
+  private int firstDay;
+  private int days;
+  private boolean byYear;
+
+  // First day of each year of the range, and of the year after it
+  private int[] yearStarts;
+
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+    firstYear = conf.getInt(FIRST_YEAR_KEY, DEFAULT_FIRST_YEAR);
+    lastYear = conf.getInt(LAST_YEAR_KEY, Calendar.getInstance().get(Calendar.YEAR));
+    if (lastYear < firstYear) {
+      throw new IllegalArgumentException(LAST_YEAR_KEY + " is before " + FIRST_YEAR_KEY);
+    }
+    yearStarts = new int[lastYear - firstYear + 2];
+    for (int i = 0; i < yearStarts.length; ++i) {
+      yearStarts[i] = DayKey.fromCivil(firstYear + i, 1, 1);
+    }
+    firstDay = yearStarts[0];
+    days = yearStarts[yearStarts.length - 1] - firstDay;
+    byYear = !"day".equalsIgnoreCase(conf.get(RANGE_BY_KEY, "year"));
+  }
+
+  /**
+   * Set the range of a job to the years of the dates in its inputs, the
+   * daily rows of the crime and weather jobs, unless partition.first.year
+   * and partition.last.year are given.  Only the date of each row is
+   * parsed, and rows without one are left to the mappers.  Inputs that do
+   * not exist yet are skipped, and without any dates the range runs from
+   * 2001 to the current year.
+   */
+  public static void configure(Job job, Path... inputs) throws IOException {
+    Configuration conf = job.getConfiguration();
+    int first = Integer.MAX_VALUE;
+    int last = Integer.MIN_VALUE;
+    for (Path input : inputs) {
+      if (conf.get(FIRST_YEAR_KEY) != null && conf.get(LAST_YEAR_KEY) != null) {
+        break;
+      }
+      FileSystem fs = input.getFileSystem(conf);
+      if (!fs.exists(input)) {
+        continue;
+      }
+      for (FileStatus status : fs.listStatus(input)) {
+        String name = status.getPath().getName();
+        if (!status.isFile() || name.startsWith("_") || name.startsWith(".")) {
+          continue;
+        }
+        try (BufferedReader in = RowInputFormat.open(conf, status.getPath())) {
+          String line;
+          while ((line = in.readLine()) != null) {
+            int comma = line.indexOf(',');
+            try {
+              int day = DayKey.parse(comma < 0 ? line : line.substring(0, comma));
+              first = Math.min(first, day);
+              last = Math.max(last, day);
+            }
+            catch (NumberFormatException e) {
+              // Counted as malformed by the mappers
+            }
+          }
+        }
+      }
+    }
+    if (conf.get(FIRST_YEAR_KEY) == null) {
+      conf.setInt(FIRST_YEAR_KEY, first <= last ? DayKey.toCivil(first)[0] : DEFAULT_FIRST_YEAR);
+    }
+    if (conf.get(LAST_YEAR_KEY) == null) {
+      conf.setInt(LAST_YEAR_KEY, first <= last ? DayKey.toCivil(last)[0] : Calendar.getInstance().get(Calendar.YEAR));
+    }
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+
+  @Override
+  public int getPartition(DayKey key, V value, int numPartitions) {
+    return partition(key.get(), numPartitions);
+  }
+
+  /**
+   * @return the partition of a day, in 0..numPartitions-1
+   * @throws IllegalArgumentException if the day is outside the range
+   */
+  public int partition(int day, int numPartitions) {
+    long index = day - firstDay;
+    if (index < 0 || index >= days) {
+      throw new IllegalArgumentException(DayKey.toIsoDate(day) + " is outside " + FIRST_YEAR_KEY + "="
+          + firstYear + " to " + LAST_YEAR_KEY + "=" + lastYear + ", set them to cover the input");
+    }
+    long span = days;
+    if (byYear) {
+      // Binary search of the year, a partitioner call must not allocate
+      int year = Arrays.binarySearch(yearStarts, day);
+      index = year >= 0 ? year : -year - 2;
+      span = yearStarts.length - 1;
+    }
+    return (int) (index * numPartitions / span);
+  }
+}
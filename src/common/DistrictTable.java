@@ -0,0 +1,139 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+
+/**
+ * DistrictTable maps each Chicago community area to the district it is
+ * reported under, as a primitive array indexed by community area.  It
+ * is loaded once per task so the mappers resolve a district with a
+ * single array read.
+ *
+ * The built in table groups the 77 community areas into 9 districts.  A
+ * different grouping can be supplied as a text file of
+ * "community,district" lines (blank lines and lines starting with # are
+ * ignored), which the driver ships to every task in the distributed
+ * cache.
+ */
+public class DistrictTable {
+
+  /** Configuration key of the optional district mapping file. */
+  public static final String FILE_KEY = "crime.districts.file";
+
+  /** Name the mapping file is linked under in a task's working directory. */
+  private static final String CACHE_NAME = "districts";
+
+  private static final int[][] DEFAULT = {
+    {1,2,3,4,9,10,11,12,13,14,76,77},
+    {5,6,7,21,22},
+    {15,16,17,18,19,20},
+    {8,32,33},
+    {23,24,25,26,27,28,29,30,31},
+    {56,57,58,59,61,62,63,64,65,66,67,68},
+    {34,35,36,37,38,39,40,41,42,43,60,69},
+    {70,71,72,73,74,75},
+    {44,45,46,47,48,49,50,51,52,53,54,55}
+  };
+
+  private final byte[] districtOf;
+  private final int districts;
+
+  private DistrictTable(byte[] districtOf) {
+    this.districtOf = districtOf;
+    int max = 0;
+    for (byte d : districtOf) {
+      max = Math.max(max, d);
+    }
+    this.districts = max;
+  }
+
+  /**
+   * @return the district of a community area, 0 if it has none
+   */
+  public int districtOf(int community) {
+    return community >= 0 && community < districtOf.length ? districtOf[community] : 0;
+  }
+
+  /**
+   * @return highest district number, districts are numbered 1..districts()
+   */
+  public int districts() {
+    return districts;
+  }
+
+  /**
+   * @return the built in grouping of the 77 community areas
+   */
+  public static DistrictTable defaults() {
+    byte[] table = new byte[78];
+    for (int d = 0; d < DEFAULT.length; ++d) {
+      for (int community : DEFAULT[d]) {
+        table[community] = (byte) (d + 1);
+      }
+    }
+    return new DistrictTable(table);
+  }
+
+  /**
+   * Read a table of "community,district" lines.
+   */
+  public static DistrictTable read(InputStream in) throws IOException {
+    byte[] table = new byte[78];
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] pair = line.split(",");
+      if (pair.length != 2) {
+        throw new IOException("Expected community,district but got \"" + line + "\"");
+      }
+      int community = Integer.parseInt(pair[0].trim());
+      int district = Integer.parseInt(pair[1].trim());
+      if (community < 0 || district < 1 || district > Byte.MAX_VALUE) {
+        throw new IOException("Invalid community,district \"" + line + "\"");
+      }
+      if (community >= table.length) {
+        table = Arrays.copyOf(table, community + 1);
+      }
+      table[community] = (byte) district;
+    }
+    return new DistrictTable(table);
+  }
+
+  /**
+   * Load the table configured for a task, the built in one if no
+   * mapping file was given.
+   */
+  public static DistrictTable load(Configuration conf) throws IOException {
+    String file = conf.get(FILE_KEY);
+    if (file == null) {
+      return defaults();
+    }
+    // Prefer the copy in the distributed cache, local runs read it directly.
+    File cached = new File(CACHE_NAME);
+    Path path = new Path(file);
+    try (InputStream in = cached.exists() ? new FileInputStream(cached)
+                                          : path.getFileSystem(conf).open(path)) {
+      return read(in);
+    }
+  }
+
+  /**
+   * Use the mapping file for a job and ship it to every task.
+   */
+  public static void addTo(Job job, String file) {
+    job.getConfiguration().set(FILE_KEY, file);
+    job.addCacheFile(URI.create(new Path(file).toUri() + "#" + CACHE_NAME));
+  }
+}
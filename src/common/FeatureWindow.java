@@ -0,0 +1,217 @@
+import java.util.Arrays;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * FeatureWindow turns the date sorted joined rows of one district into
+ * rows of a training matrix, holding the recent days in fixed size ring
+ * buffers indexed by day, so a row costs the same however long the
+ * history is.  Each row is
+ *
+ *  {Date,District,DayOfWeek,Wx1,Wx2,Wx3,Wx4,TempDelta,
+ *   Lag1..LagN,CrimeMean1,TempMean1..CrimeMeanM,TempMeanM,C1,...,C8}
+ *
+ *  - DayOfWeek: 1 for Monday to 7 for Sunday
+ *  - TempDelta: Wx1 change since the day before
+ *  - LagN: crimes of all categories N days before, one per features.lags
+ *  - CrimeMeanW, TempMeanW: daily crimes and Wx1 averaged over the W days
+ *    up to and including the row's, a pair per features.windows
+ *
+ * Lags and windows count calendar days.  A day without a joined row is
+ * left out of the means, and a lag or delta onto it is "?", as is any
+ * missing weather.  The running sums of a window drop the days leaving
+ * it as it moves, at most W days per row and one day per day on average.
+ */
+public class FeatureWindow {
+
+  /** Configuration key of the lags in days, 1,7 by default. */
+  public static final String LAGS_KEY = "features.lags";
+
+  /** Configuration key of the rolling window lengths in days, 7,30 by default. */
+  public static final String WINDOWS_KEY = "features.windows";
+
+  private static final int NONE = Integer.MIN_VALUE;
+
+  private final int[] lags;
+  private final int[] windows;
+
+  // Ring buffer of the recent days, a slot holds day & mask
+  private final int mask;
+  private final int[] days;
+  private final int[] crimes;
+  private final double[] temperatures;
+
+  // Running sums of each window
+  private final long[] crimeSums;
+  private final int[] dayCounts;
+  private final double[] temperatureSums;
+  private final int[] temperatureCounts;
+
+  private int lastDay;
+
+  public FeatureWindow(int[] lags, int[] windows) {
+    this.lags = lags.clone();
+    this.windows = windows.clone();
+    int span = 2;
+    for (int lag : lags) {
+      if (lag < 1) {
+        throw new IllegalArgumentException("Lags must be at least 1 day");
+      }
+      span = Math.max(span, lag + 1);
+    }
+    for (int w : windows) {
+      if (w < 1) {
+        throw new IllegalArgumentException("Windows must be at least 1 day");
+      }
+      // Days leaving a window are read back after up to 2 w - 2 newer ones
+      span = Math.max(span, 2 * w);
+    }
+    int size = Integer.highestOneBit(span - 1) * 2;
+    mask = size - 1;
+    days = new int[size];
+    crimes = new int[size];
+    temperatures = new double[size];
+    crimeSums = new long[windows.length];
+    dayCounts = new int[windows.length];
+    temperatureSums = new double[windows.length];
+    temperatureCounts = new int[windows.length];
+    reset();
+  }
+
+  /**
+   * @return the window of a job's features.lags and features.windows
+   */
+  public static FeatureWindow create(Configuration conf) {
+    return new FeatureWindow(days(conf, LAGS_KEY, "1,7"), days(conf, WINDOWS_KEY, "7,30"));
+  }
+
+  private static int[] days(Configuration conf, String key, String defaults) {
+    String[] values = conf.getTrimmedStrings(key, defaults.split(","));
+    int[] days = new int[values.length];
+    for (int i = 0; i < values.length; ++i) {
+      days[i] = Integer.parseInt(values[i]);
+    }
+    return days;
+  }
+
+  /**
+   * Forget every day, before the rows of another district.
+   */
+  public void reset() {
+    Arrays.fill(days, NONE);
+    Arrays.fill(crimeSums, 0);
+    Arrays.fill(dayCounts, 0);
+    Arrays.fill(temperatureSums, 0);
+    Arrays.fill(temperatureCounts, 0);
+    lastDay = NONE;
+  }
+
+  /**
+   * @return the column names of the rows
+   */
+  public String header() {
+    StringBuilder sb = new StringBuilder("Date,District,DayOfWeek");
+    for (String name : WeatherStats.NAMES) {
+      sb.append(',').append(name);
+    }
+    sb.append(",TempDelta");
+    for (int lag : lags) {
+      sb.append(",Lag").append(lag);
+    }
+    for (int w : windows) {
+      sb.append(",CrimeMean").append(w).append(",TempMean").append(w);
+    }
+    for (String name : CrimeCountsWritable.NAMES) {
+      sb.append(',').append(name);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Add the next day of the district.
+   *
+   * @return its row, or null if the day is not after the last one added
+   */
+  public String add(int day, double[] weather, CrimeCountsWritable crime) {
+    if (lastDay != NONE && day <= lastDay) {
+      return null;
+    }
+    int total = 0;
+    for (int i = 0; i < CrimeCountsWritable.CATEGORIES; ++i) {
+      total += crime.get(i);
+    }
+    double temperature = weather[0];
+
+    StringBuilder sb = new StringBuilder(DayKey.toUsDate(day));
+    sb.append(',').append(crime.getDistrict());
+    sb.append(',').append(Math.floorMod(day + 3, 7) + 1);
+    for (double w : weather) {
+      sb.append(',').append(WeatherStats.format(w));
+    }
+    int yesterday = (day - 1) & mask;
+    sb.append(',').append(WeatherStats.format(
+        days[yesterday] == day - 1 ? temperature - temperatures[yesterday] : Double.NaN));
+    for (int lag : lags) {
+      int slot = (day - lag) & mask;
+      sb.append(',');
+      if (days[slot] == day - lag) {
+        sb.append(crimes[slot]);
+      }
+      else {
+        sb.append(WeatherStats.MISSING);
+      }
+    }
+
+    for (int k = 0; k < windows.length; ++k) {
+      slide(k, day);
+      ++dayCounts[k];
+      crimeSums[k] += total;
+      if (!Double.isNaN(temperature)) {
+        ++temperatureCounts[k];
+        temperatureSums[k] += temperature;
+      }
+      sb.append(',').append(WeatherStats.format((double) crimeSums[k] / dayCounts[k]));
+      sb.append(',').append(WeatherStats.format(
+          temperatureCounts[k] > 0 ? temperatureSums[k] / temperatureCounts[k] : Double.NaN));
+    }
+
+    int slot = day & mask;
+    days[slot] = day;
+    crimes[slot] = total;
+    temperatures[slot] = temperature;
+    lastDay = day;
+
+    for (int i = 0; i < CrimeCountsWritable.CATEGORIES; ++i) {
+      sb.append(',').append(crime.get(i));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Drop the days leaving window k as it moves from lastDay to day.
+   */
+  private void slide(int k, int day) {
+    int w = windows[k];
+    if (lastDay == NONE || day - lastDay >= w) {
+      crimeSums[k] = 0;
+      dayCounts[k] = 0;
+      temperatureSums[k] = 0;
+      temperatureCounts[k] = 0;
+      return;
+    }
+    for (int gone = lastDay - w + 1; gone <= day - w; ++gone) {
+      int slot = gone & mask;
+      if (days[slot] == gone) {
+        crimeSums[k] -= crimes[slot];
+        --dayCounts[k];
+        if (!Double.isNaN(temperatures[slot])) {
+          temperatureSums[k] -= temperatures[slot];
+          --temperatureCounts[k];
+        }
+      }
+    }
+    // Rounding must not leave a mean of no days behind
+    if (temperatureCounts[k] == 0) {
+      temperatureSums[k] = 0;
+    }
+  }
+}
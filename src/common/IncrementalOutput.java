@@ -0,0 +1,187 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+/**
+ * IncrementalOutput lets the crime, weather and join jobs refresh only
+ * the days from a watermark on, instead of reprocessing every year.
+ *
+ * With -D incremental.since=YYYY-MM-DD (or MM/DD/YYYY) set:
+ *
+ *  - input files last modified before the watermark are not read
+ *    (unless incremental.filter.files=false), and mappers drop rows
+ *    dated before it, so every day from the watermark on is
+ *    re-aggregated in full
+ *  - the job writes to <out>/_incremental, hidden from jobs reading <out>
+ *  - merge() then rewrites each output file that got new rows: its rows
+ *    before the watermark are kept, the rest are replaced by the new ones
+ *
+ * Every output is sorted by date, so each file is a run of day partitions
+ * and only its tail from the watermark on is touched.  Files without new
+ * rows are left as they are, as upstream data is only ever appended.
+ */
+public class IncrementalOutput {
+
+  /** Configuration key of the first day to process. */
+  public static final String SINCE_KEY = "incremental.since";
+
+  /** Configuration key to read every input file, whatever its age. */
+  public static final String FILTER_FILES_KEY = "incremental.filter.files";
+
+  /** Configuration key of the output the staged rows are merged into. */
+  public static final String OUTPUT_KEY = "incremental.output";
+
+  /** Directory under the output the job writes to before the merge. */
+  public static final String STAGING = "_incremental";
+
+  private IncrementalOutput() {
+  }
+
+  public static boolean isEnabled(Configuration conf) {
+    return conf.get(SINCE_KEY) != null;
+  }
+
+  /**
+   * @return the watermark day, or Integer.MIN_VALUE to keep every row
+   */
+  public static int since(Configuration conf) {
+    String since = conf.get(SINCE_KEY);
+    return since == null ? Integer.MIN_VALUE : DayKey.parse(since.trim());
+  }
+
+  /**
+   * Set up the job for the watermark, if any, and return the directory
+   * to pass to FileOutputFormat in place of the given output.
+   */
+  public static Path prepare(Job job, Path output) throws IOException {
+    Configuration conf = job.getConfiguration();
+    if (!isEnabled(conf)) {
+      return output;
+    }
+    if (conf.getBoolean(FILTER_FILES_KEY, true)) {
+      FileInputFormat.setInputPathFilter(job, ModifiedSinceFilter.class);
+    }
+    conf.set(OUTPUT_KEY, output.toString());
+    Path staging = new Path(output, STAGING);
+    staging.getFileSystem(conf).delete(staging, true);
+    return staging;
+  }
+
+  /**
+   * Merge the rows of a completed job set up by prepare() into its output.
+   */
+  public static void merge(Job job) throws IOException {
+    Configuration conf = job.getConfiguration();
+    if (isEnabled(conf)) {
+      merge(conf, new Path(conf.get(OUTPUT_KEY)));
+    }
+  }
+
+  /**
+   * Merge the rows written to <out>/_incremental into <out>, then remove it.
+   * Does nothing without a watermark.
+   */
+  public static void merge(Configuration conf, Path output) throws IOException {
+    if (!isEnabled(conf)) {
+      return;
+    }
+    int since = since(conf);
+    Path staging = new Path(output, STAGING);
+    FileSystem fs = staging.getFileSystem(conf);
+    String root = fs.makeQualified(staging).toUri().getPath();
+
+    RemoteIterator<LocatedFileStatus> files = fs.listFiles(staging, true);
+    while (files.hasNext()) {
+      Path rows = files.next().getPath();
+      String name = rows.getName();
+      if (name.startsWith("_") || name.startsWith(".")) {
+        continue;
+      }
+      String relative = rows.toUri().getPath().substring(root.length() + 1);
+      Path target = new Path(output, relative);
+      Path merged = new Path(output, relative + ".merging");
+
+      try (BufferedWriter out = new BufferedWriter(
+          new OutputStreamWriter(fs.create(merged, true), StandardCharsets.UTF_8))) {
+        if (fs.exists(target)) {
+          copyBefore(fs, target, since, out);
+        }
+        copyBefore(fs, rows, Integer.MAX_VALUE, out);
+      }
+      fs.delete(target, false);
+      if (!fs.rename(merged, target)) {
+        throw new IOException("Could not move " + merged + " to " + target);
+      }
+    }
+    fs.delete(staging, true);
+  }
+
+  /**
+   * Copy the rows of a date sorted file up to the first one dated on or after the given day.
+   */
+  private static void copyBefore(FileSystem fs, Path file, int day, BufferedWriter out) throws IOException {
+    try (BufferedReader in = new BufferedReader(
+        new InputStreamReader(fs.open(file), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        int rowDay;
+        try {
+          rowDay = DayKey.parse(line);
+        }
+        catch (NumberFormatException e) {
+          rowDay = Integer.MIN_VALUE;
+        }
+        if (rowDay >= day) {
+          break;
+        }
+        out.write(line);
+        out.newLine();
+      }
+    }
+  }
+
+  /**
+   * Skip input files last modified before the watermark day, as they
+   * hold no rows dated on or after it.  Directories are always listed.
+   */
+  public static class ModifiedSinceFilter implements PathFilter, Configurable {
+
+    private Configuration conf;
+    private long since;
+
+    @Override
+    public void setConf(Configuration conf) {
+      this.conf = conf;
+      since = since(conf) * 86400000L;
+    }
+
+    @Override
+    public Configuration getConf() {
+      return conf;
+    }
+
+    @Override
+    public boolean accept(Path path) {
+      try {
+        FileSystem fs = path.getFileSystem(conf);
+        return fs.isDirectory(path) || fs.getFileStatus(path).getModificationTime() >= since;
+      }
+      catch (IOException e) {
+        // Let the input format report a path it cannot read
+        return true;
+      }
+    }
+  }
+}
@@ -0,0 +1,127 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * JoinKey is the key of the crime and weather join.  It refines a DayKey
+ * with the side of the join and the district, and sorts by day, then
+ * weather before crime, then district.  Grouping reduce input by day
+ * alone (see GroupComparator) makes a reducer receive the weather of a
+ * day first and then each district's crime counts in order, so it can
+ * write joined rows as they stream by.
+ *
+ * Partitioners that only look at the day, such as DayRangePartitioner
+ * or the hash of the day, keep every key of a day on one reducer.
+ */
+public class JoinKey extends DayKey {
+
+  public static final byte WEATHER = 0;
+  public static final byte CRIME = 1;
+
+  private byte tag;
+  private int district;
+
+  public JoinKey() {
+  }
+
+  public void set(int day, byte tag, int district) {
+    set(day);
+    this.tag = tag;
+    this.district = district;
+  }
+
+  public boolean isWeather() {
+    return tag == WEATHER;
+  }
+
+  public int getDistrict() {
+    return district;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    super.write(out);
+    out.writeByte(tag);
+    out.writeInt(district);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    super.readFields(in);
+    tag = in.readByte();
+    district = in.readInt();
+  }
+
+  @Override
+  public int compareTo(DayKey other) {
+    int c = super.compareTo(other);
+    if (c != 0 || !(other instanceof JoinKey)) {
+      return c;
+    }
+    JoinKey o = (JoinKey) other;
+    c = Byte.compare(tag, o.tag);
+    return c != 0 ? c : Integer.compare(district, o.district);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof JoinKey && compareTo((JoinKey) o) == 0;
+  }
+
+  @Override
+  public int hashCode() {
+    return get();
+  }
+
+  @Override
+  public String toString() {
+    return super.toString() + (tag == WEATHER ? ",W" : ",C" + district);
+  }
+
+  /**
+   * Sorts serialized keys by day, side and district without deserializing them.
+   */
+  public static class Comparator extends WritableComparator {
+
+    public Comparator() {
+      super(JoinKey.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      int c = Integer.compare(readInt(b1, s1), readInt(b2, s2));
+      if (c != 0) {
+        return c;
+      }
+      c = Byte.compare(b1[s1 + 4], b2[s2 + 4]);
+      return c != 0 ? c : Integer.compare(readInt(b1, s1 + 5), readInt(b2, s2 + 5));
+    }
+  }
+
+  /**
+   * Groups serialized keys by day only.
+   */
+  public static class GroupComparator extends WritableComparator {
+
+    public GroupComparator() {
+      super(JoinKey.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      return Integer.compare(readInt(b1, s1), readInt(b2, s2));
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int compare(WritableComparable a, WritableComparable b) {
+      return Integer.compare(((DayKey) a).get(), ((DayKey) b).get());
+    }
+  }
+
+  static {
+    WritableComparator.define(JoinKey.class, new Comparator());
+  }
+}
@@ -0,0 +1,116 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * JoinValueWritable is the value shuffled by the crime and weather join.
+ * It is a tagged union holding either the four daily weather averages
+ * of a date or the crime counts of one district for that date, which
+ * replaces the "W" and "C" prefixed text values.
+ *
+ * The weather side also carries the number of observations behind each
+ * average when the weather output has them (weather.output.stats), so
+ * later stages can weight the daily averages.
+ */
+public class JoinValueWritable implements Writable {
+
+  public static final byte WEATHER = 'W';
+  public static final byte CRIME = 'C';
+
+  private byte tag;
+  private final double[] weather = new double[WeatherSampleWritable.FIELDS];
+  private final int[] weatherCounts = new int[WeatherSampleWritable.FIELDS];
+  private boolean hasWeatherCounts;
+  private final CrimeCountsWritable crime = new CrimeCountsWritable();
+
+  public JoinValueWritable() {
+  }
+
+  public boolean isWeather() {
+    return tag == WEATHER;
+  }
+
+  public boolean isCrime() {
+    return tag == CRIME;
+  }
+
+  /**
+   * Tag this value as weather and return the array to fill in.
+   */
+  public double[] setWeather() {
+    tag = WEATHER;
+    hasWeatherCounts = false;
+    return weather;
+  }
+
+  /**
+   * Flag the weather as having observation counts and return the array to fill in.
+   */
+  public int[] setWeatherCounts() {
+    hasWeatherCounts = true;
+    return weatherCounts;
+  }
+
+  /**
+   * Tag this value as crime and return the counts to fill in.
+   */
+  public CrimeCountsWritable setCrime() {
+    tag = CRIME;
+    return crime;
+  }
+
+  public double[] getWeather() {
+    return weather;
+  }
+
+  /**
+   * @return the observation count behind each weather average, null if unknown
+   */
+  public int[] getWeatherCounts() {
+    return hasWeatherCounts ? weatherCounts : null;
+  }
+
+  public CrimeCountsWritable getCrime() {
+    return crime;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeByte(tag);
+    if (tag == WEATHER) {
+      for (int i = 0; i < weather.length; ++i) {
+        out.writeDouble(weather[i]);
+      }
+      out.writeBoolean(hasWeatherCounts);
+      if (hasWeatherCounts) {
+        for (int i = 0; i < weatherCounts.length; ++i) {
+          WritableUtils.writeVInt(out, weatherCounts[i]);
+        }
+      }
+    }
+    else {
+      crime.write(out);
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    tag = in.readByte();
+    if (tag == WEATHER) {
+      for (int i = 0; i < weather.length; ++i) {
+        weather[i] = in.readDouble();
+      }
+      hasWeatherCounts = in.readBoolean();
+      if (hasWeatherCounts) {
+        for (int i = 0; i < weatherCounts.length; ++i) {
+          weatherCounts[i] = WritableUtils.readVInt(in);
+        }
+      }
+    }
+    else {
+      crime.readFields(in);
+    }
+  }
+}
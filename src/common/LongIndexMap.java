@@ -0,0 +1,108 @@
+import java.util.Arrays;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * LongIndexMap is a bounded open addressing hash map from primitive long
+ * keys to dense indices 0..size()-1, used by the mappers to combine
+ * their output in memory before it is written.  A mapper keeps its
+ * running totals in its own primitive arrays at the index of each key
+ * and writes them out when the map is full and in cleanup().
+ *
+ * The number of entries is derived from a memory cap, so a large split
+ * flushes more often instead of running out of memory.
+ */
+public class LongIndexMap {
+
+  /** Configuration key to turn in-mapper combining off. */
+  public static final String ENABLED_KEY = "inmapper.combine";
+
+  /** Configuration key of the memory a mapper may hold its totals in. */
+  public static final String MEMORY_KEY = "inmapper.combine.memory.mb";
+
+  public static final int DEFAULT_MEMORY_MB = 32;
+
+  private static final long EMPTY = Long.MIN_VALUE;
+
+  private final long[] keys;
+  private final int[] indices;
+  private final long[] order;
+  private final int mask;
+  private int size;
+
+  /**
+   * @param capacity number of entries held before the map is full
+   */
+  public LongIndexMap(int capacity) {
+    int tableSize = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1) * 2;
+    keys = new long[tableSize];
+    indices = new int[tableSize];
+    order = new long[capacity];
+    mask = tableSize - 1;
+    Arrays.fill(keys, EMPTY);
+  }
+
+  /**
+   * Create the map of a task from its configured memory cap.
+   *
+   * @param bytesPerEntry memory the caller holds per entry besides the map itself
+   * @return the map, or null if in-mapper combining is turned off
+   */
+  public static LongIndexMap forTask(Configuration conf, int bytesPerEntry) {
+    if (!conf.getBoolean(ENABLED_KEY, true)) {
+      return null;
+    }
+    long bytes = conf.getLong(MEMORY_KEY, DEFAULT_MEMORY_MB) << 20;
+    // Each entry also costs two table slots of a long key and an int index.
+    long capacity = bytes / (bytesPerEntry + 8 + 2 * (8 + 4));
+    return new LongIndexMap((int) Math.max(1, Math.min(capacity, 1 << 26)));
+  }
+
+  /**
+   * @return the index of a key, added if absent, or -1 if the key is
+   *         absent and the map is full
+   */
+  public int indexOf(long key) {
+    int slot = mix(key) & mask;
+    while (keys[slot] != EMPTY) {
+      if (keys[slot] == key) {
+        return indices[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (size == order.length) {
+      return -1;
+    }
+    keys[slot] = key;
+    indices[slot] = size;
+    order[size] = key;
+    return size++;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int capacity() {
+    return order.length;
+  }
+
+  /**
+   * @return the key stored at an index
+   */
+  public long keyAt(int index) {
+    return order[index];
+  }
+
+  /**
+   * Remove every entry, the caller resets its own totals.
+   */
+  public void clear() {
+    Arrays.fill(keys, EMPTY);
+    size = 0;
+  }
+
+  private static int mix(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
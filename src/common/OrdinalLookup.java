@@ -0,0 +1,86 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * OrdinalLookup resolves a byte string to its position in a fixed list
+ * of names, e.g. a crime category to its C1..C8 slot, without building
+ * a String.  The names are placed in a table by a perfect hash of their
+ * length and first two bytes, chosen once when the lookup is built, so
+ * a lookup costs one hash and at most one comparison.
+ */
+public class OrdinalLookup {
+
+  private final byte[][] names;
+  private final int[] slots;
+  private final int multiplier;
+  private final int mask;
+
+  public OrdinalLookup(String[] values) {
+    names = new byte[values.length][];
+    for (int i = 0; i < values.length; ++i) {
+      names[i] = values[i].getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Grow the table until some multiplier places every name in its own slot.
+    for (int size = Integer.highestOneBit(Math.max(values.length, 1)) * 2; ; size *= 2) {
+      if (size > (1 << 16)) {
+        throw new IllegalArgumentException("No perfect hash for the given names");
+      }
+      int[] table = new int[size];
+      for (int m = 1; m < 1024; m += 2) {
+        Arrays.fill(table, -1);
+        boolean perfect = true;
+        for (int i = 0; i < names.length && perfect; ++i) {
+          int slot = hash(names[i], 0, names[i].length, m) & (size - 1);
+          if (table[slot] == -1) {
+            table[slot] = i;
+          }
+          else {
+            perfect = false;
+          }
+        }
+        if (perfect) {
+          slots = table;
+          multiplier = m;
+          mask = size - 1;
+          return;
+        }
+      }
+    }
+  }
+
+  private static int hash(byte[] b, int start, int length, int m) {
+    int h = length;
+    if (length > 0) {
+      h = h * m + b[start];
+    }
+    if (length > 1) {
+      h = h * m + b[start + 1];
+    }
+    return h ^ (h >>> 7);
+  }
+
+  public int size() {
+    return names.length;
+  }
+
+  /**
+   * @return ordinal of the name equal to the given bytes, or -1 if there is none
+   */
+  public int indexOf(byte[] b, int start, int length) {
+    int i = slots[hash(b, start, length, multiplier) & mask];
+    if (i < 0) {
+      return -1;
+    }
+    byte[] name = names[i];
+    if (name.length != length) {
+      return -1;
+    }
+    for (int j = 0; j < length; ++j) {
+      if (name[j] != b[start + j]) {
+        return -1;
+      }
+    }
+    return i;
+  }
+}
@@ -0,0 +1,115 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * RollupWritable is the mergeable partial of one district over a week,
+ * month or year of joined rows.  Each weather average is kept as a
+ * weighted sum and its weight, so merged periods average the underlying
+ * observations instead of averaging averages.  The weight of a day is
+ * its observation count when the joined rows carry one, otherwise 1.
+ */
+public class RollupWritable implements Writable {
+
+  public static final int FIELDS = WeatherSampleWritable.FIELDS;
+
+  private final double[] sums = new double[FIELDS];
+  private final long[] weights = new long[FIELDS];
+  private final int[] crimes = new int[CrimeCountsWritable.CATEGORIES];
+  private boolean counted;
+
+  public RollupWritable() {
+  }
+
+  /**
+   * Reset to an empty partial, counted if the weights are observation counts.
+   */
+  public void clear(boolean counted) {
+    this.counted = counted;
+    for (int i = 0; i < FIELDS; ++i) {
+      sums[i] = 0;
+      weights[i] = 0;
+    }
+    for (int i = 0; i < crimes.length; ++i) {
+      crimes[i] = 0;
+    }
+  }
+
+  /**
+   * Add one weather average seen over the given number of observations.
+   */
+  public void addWeather(int field, double mean, long weight) {
+    if (weight > 0) {
+      sums[field] += mean * weight;
+      weights[field] += weight;
+    }
+  }
+
+  public void addCrime(int category, int count) {
+    crimes[category] += count;
+  }
+
+  /**
+   * Add another partial into this one.
+   */
+  public void merge(RollupWritable other) {
+    for (int i = 0; i < FIELDS; ++i) {
+      sums[i] += other.sums[i];
+      weights[i] += other.weights[i];
+    }
+    for (int i = 0; i < crimes.length; ++i) {
+      crimes[i] += other.crimes[i];
+    }
+    counted &= other.counted;
+  }
+
+  /**
+   * @return the weighted average of a weather field, NaN if never observed
+   */
+  public double mean(int field) {
+    return weights[field] == 0 ? Double.NaN : sums[field] / weights[field];
+  }
+
+  public long weight(int field) {
+    return weights[field];
+  }
+
+  public int crime(int category) {
+    return crimes[category];
+  }
+
+  /**
+   * @return true if the weights are observation counts rather than days
+   */
+  public boolean isCounted() {
+    return counted;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeBoolean(counted);
+    for (int i = 0; i < FIELDS; ++i) {
+      WritableUtils.writeVLong(out, weights[i]);
+      if (weights[i] != 0) {
+        out.writeDouble(sums[i]);
+      }
+    }
+    for (int i = 0; i < crimes.length; ++i) {
+      WritableUtils.writeVInt(out, crimes[i]);
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    counted = in.readBoolean();
+    for (int i = 0; i < FIELDS; ++i) {
+      weights[i] = WritableUtils.readVLong(in);
+      sums[i] = weights[i] != 0 ? in.readDouble() : 0;
+    }
+    for (int i = 0; i < crimes.length; ++i) {
+      crimes[i] = WritableUtils.readVInt(in);
+    }
+  }
+}
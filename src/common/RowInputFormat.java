@@ -0,0 +1,188 @@
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileRecordReader;
+
+/**
+ * RowInputFormat reads the rows written by the crime, weather and join
+ * jobs whatever Compression and output.format chose: plain or compressed
+ * text lines, or the SequenceFiles of SequenceRowsOutputFormat, told
+ * apart by their "SEQ" header.  Mappers get each row as the Text value,
+ * the key is the line offset or NullWritable, so they take an Object key.
+ *
+ * The year partitions of output.format=columnar are not rows, that
+ * output is for final data only, and an input holding them is rejected.
+ */
+public class RowInputFormat extends FileInputFormat<Object, Text> {
+
+  private static boolean isSequenceFile(FileSystem fs, Path file) throws IOException {
+    byte[] magic = new byte[3];
+    try (FSDataInputStream in = fs.open(file)) {
+      in.readFully(magic);
+    }
+    catch (EOFException e) {
+      return false;
+    }
+    return magic[0] == 'S' && magic[1] == 'E' && magic[2] == 'Q';
+  }
+
+  @Override
+  protected boolean isSplitable(JobContext context, Path file) {
+    CompressionCodec codec = new CompressionCodecFactory(context.getConfiguration()).getCodec(file);
+    if (codec == null || codec instanceof SplittableCompressionCodec) {
+      return true;
+    }
+    try {
+      return isSequenceFile(file.getFileSystem(context.getConfiguration()), file);
+    }
+    catch (IOException e) {
+      return false;
+    }
+  }
+
+  @Override
+  protected List<FileStatus> listStatus(JobContext job) throws IOException {
+    List<FileStatus> files = super.listStatus(job);
+    for (FileStatus status : files) {
+      checkRows(status);
+    }
+    return files;
+  }
+
+  /**
+   * @throws IOException if an entry of an input directory is a directory,
+   *         such as a year of a columnar output, rather than a file of rows
+   */
+  public static void checkRows(FileStatus status) throws IOException {
+    if (status.isDirectory()) {
+      throw new IOException(status.getPath() + " is a directory, not a file of rows.  The "
+          + ColumnarOutputFormat.FORMAT_KEY + "=" + ColumnarOutputFormat.COLUMNAR
+          + " output is for final data only, write the input of the job as text or sequence");
+    }
+  }
+
+  @Override
+  public RecordReader<Object, Text> createRecordReader(InputSplit split, TaskAttemptContext context) {
+    return new RowReader();
+  }
+
+  /**
+   * Delegates to a SequenceFileRecordReader or a LineRecordReader, chosen
+   * once the split's file is known.
+   */
+  private static class RowReader extends RecordReader<Object, Text> {
+
+    private RecordReader<?, Text> rows;
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+      Path file = ((FileSplit) split).getPath();
+      if (isSequenceFile(file.getFileSystem(context.getConfiguration()), file)) {
+        rows = new SequenceFileRecordReader<NullWritable, Text>();
+      }
+      else {
+        rows = new LineRecordReader();
+      }
+      rows.initialize(split, context);
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException, InterruptedException {
+      return rows.nextKeyValue();
+    }
+
+    @Override
+    public Object getCurrentKey() throws IOException, InterruptedException {
+      return rows.getCurrentKey();
+    }
+
+    @Override
+    public Text getCurrentValue() throws IOException, InterruptedException {
+      return rows.getCurrentValue();
+    }
+
+    @Override
+    public float getProgress() throws IOException, InterruptedException {
+      return rows.getProgress();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (rows != null) {
+        rows.close();
+      }
+    }
+  }
+
+  /**
+   * Open a whole row file outside of a job, e.g. to load it into memory.
+   */
+  public static BufferedReader open(Configuration conf, Path file) throws IOException {
+    FileSystem fs = file.getFileSystem(conf);
+    if (isSequenceFile(fs, file)) {
+      return new BufferedReader(new SequenceRows(new SequenceFile.Reader(conf, SequenceFile.Reader.file(file))));
+    }
+    CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+    InputStream in = fs.open(file);
+    return new BufferedReader(new InputStreamReader(
+        codec == null ? in : codec.createInputStream(in), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * The values of a SequenceFile of rows as lines of characters.
+   */
+  private static class SequenceRows extends Reader {
+
+    private final SequenceFile.Reader in;
+    private final Text row = new Text();
+    private String pending = "";
+    private int at;
+
+    SequenceRows(SequenceFile.Reader in) {
+      this.in = in;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+      while (at == pending.length()) {
+        if (!in.next(NullWritable.get(), row)) {
+          return -1;
+        }
+        pending = row.toString() + "\n";
+        at = 0;
+      }
+      int n = Math.min(length, pending.length() - at);
+      pending.getChars(at, at + n, buffer, offset);
+      at += n;
+      return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
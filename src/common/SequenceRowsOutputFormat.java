@@ -0,0 +1,83 @@
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * SequenceRowsOutputFormat writes the text rows of the crime, weather and
+ * join jobs to block compressed SequenceFiles, so the reducers are
+ * unchanged.  Each row is the value of a record with a NullWritable key,
+ * which RowInputFormat hands to the next job's mappers like a text line.
+ * Unlike gzip text the files stay splittable.
+ *
+ * Selected with -D output.format=sequence, see configure(), the codec is
+ * set by Compression.
+ */
+public class SequenceRowsOutputFormat extends FileOutputFormat<Text, NullWritable> {
+
+  /** Value of output.format selecting this format. */
+  public static final String SEQUENCE = "sequence";
+
+  /**
+   * Use this format for a job if output.format asks for it.
+   *
+   * @return true if the job now writes SequenceFiles
+   */
+  public static boolean configure(Job job) {
+    Configuration conf = job.getConfiguration();
+    if (!SEQUENCE.equals(conf.get(ColumnarOutputFormat.FORMAT_KEY))) {
+      return false;
+    }
+    if (IncrementalOutput.isEnabled(conf)) {
+      throw new IllegalArgumentException("The incremental mode needs the text output");
+    }
+    LazyOutputFormat.setOutputFormatClass(job, SequenceRowsOutputFormat.class);
+    return true;
+  }
+
+  @Override
+  public RecordWriter<Text, NullWritable> getRecordWriter(TaskAttemptContext context) throws IOException {
+    Configuration conf = context.getConfiguration();
+    SequenceFile.CompressionType type = SequenceFile.CompressionType.NONE;
+    CompressionCodec codec = null;
+    if (getCompressOutput(context)) {
+      type = SequenceFile.CompressionType.BLOCK;
+      codec = ReflectionUtils.newInstance(getOutputCompressorClass(context, DefaultCodec.class), conf);
+    }
+    Path file = getDefaultWorkFile(context, "");
+    final SequenceFile.Writer out = SequenceFile.createWriter(conf,
+        SequenceFile.Writer.file(file),
+        SequenceFile.Writer.keyClass(NullWritable.class),
+        SequenceFile.Writer.valueClass(Text.class),
+        SequenceFile.Writer.compression(type, codec));
+
+    return new RecordWriter<Text, NullWritable>() {
+      private final Text row = new Text();
+
+      @Override
+      public void write(Text key, NullWritable value) throws IOException {
+        // The file is typed Text, a ColumnarOutputFormat.Row is copied
+        if (key.getClass() != Text.class) {
+          row.set(key);
+          key = row;
+        }
+        out.append(NullWritable.get(), key);
+      }
+
+      @Override
+      public void close(TaskAttemptContext context) throws IOException {
+        out.close();
+      }
+    };
+  }
+}
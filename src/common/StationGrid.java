@@ -0,0 +1,327 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+
+/**
+ * StationGrid holds the weather stations with their coordinates and finds
+ * the station nearest to a crime's latitude and longitude.  Stations are
+ * numbered 1..stations() in the order given, 0 standing for no station.
+ *
+ * The area around the city and the stations is cut into a fixed grid of
+ * cells, and each cell lists the stations that can be nearest to some
+ * point in it, usually a single one.  The grid is built once per task,
+ * so a lookup is a cell index and a distance or two; points off the grid
+ * compare every station.  Distances are measured on a plane scaled by
+ * the cosine of the latitude, which is exact enough across a city.
+ *
+ * With weather.spatial=true the daily jobs keep the stations apart:
+ * WeatherReducer also writes the weather of each station N to the hidden
+ * _stationN files of its output, CrimeReducer appends the crimes nearest
+ * each station to its rows, and CrimeWeatherAgg gives each district the
+ * weather of those stations weighted by its crimes, see blend().  The
+ * three jobs must be given the same stations.
+ *
+ * The built in stations are the three NOAA stations of the weather
+ * input.  Others can be supplied as a text file of
+ * "station,latitude,longitude" lines, the station as in the STATION
+ * column, which the driver ships to every task in the distributed cache.
+ */
+public class StationGrid {
+
+  /** Configuration key of the optional station file. */
+  public static final String FILE_KEY = "weather.stations.file";
+
+  /** Configuration key of the spatial mode of the daily jobs. */
+  public static final String SPATIAL_KEY = "weather.spatial";
+
+  /** Name the daily weather of station N is written under, followed by N. */
+  public static final String STATION_OUTPUT = "_station";
+
+  /** Name the station file is linked under in a task's working directory. */
+  private static final String CACHE_NAME = "stations";
+
+  private static final String[][] DEFAULT = {
+    {"WBAN:94846", "41.995", "-87.9336"},
+    {"WBAN:14819", "41.78417", "-87.75528"},
+    {"WBAN:04838", "42.12083", "-87.90472"}
+  };
+
+  // Extent of the city, grown to cover every station
+  private static final double SOUTH = 41.64;
+  private static final double NORTH = 42.03;
+  private static final double WEST = -87.94;
+  private static final double EAST = -87.52;
+
+  private static final int CELLS = 64;
+
+  private final byte[][] ids;
+  private final double[] ys;
+  private final double[] xs;
+  private final double scale;
+
+  private final double south;
+  private final double west;
+  private final double height;
+  private final double width;
+  private final int[] firstCandidate;
+  private final byte[] candidates;
+
+  // Last station found by id, weather files hold one station each
+  private int lastId;
+
+  private StationGrid(List<String> names, List<double[]> coordinates) {
+    int n = names.size();
+    if (n == 0 || n > 255) {
+      throw new IllegalArgumentException("Expected 1 to 255 stations but got " + n);
+    }
+    ids = new byte[n][];
+    ys = new double[n];
+    xs = new double[n];
+    double s = SOUTH;
+    double north = NORTH;
+    double w = WEST;
+    double east = EAST;
+    for (int i = 0; i < n; ++i) {
+      ids[i] = names.get(i).getBytes(StandardCharsets.UTF_8);
+      ys[i] = coordinates.get(i)[0];
+      xs[i] = coordinates.get(i)[1];
+      s = Math.min(s, ys[i]);
+      north = Math.max(north, ys[i]);
+      w = Math.min(w, xs[i]);
+      east = Math.max(east, xs[i]);
+    }
+    scale = Math.cos(Math.toRadians((s + north) / 2));
+    south = s;
+    west = w;
+    height = (north - s) / CELLS;
+    width = (east - w) / CELLS;
+
+    // A station is a candidate of a cell unless it is further from every
+    // point of the cell than some other station is from its furthest point
+    firstCandidate = new int[CELLS * CELLS + 1];
+    List<Byte> found = new ArrayList<Byte>();
+    for (int row = 0; row < CELLS; ++row) {
+      for (int col = 0; col < CELLS; ++col) {
+        double y0 = south + row * height;
+        double x0 = west + col * width;
+        double bound = Double.MAX_VALUE;
+        for (int i = 0; i < n; ++i) {
+          bound = Math.min(bound, farthest(i, y0, x0));
+        }
+        firstCandidate[row * CELLS + col] = found.size();
+        for (int i = 0; i < n; ++i) {
+          if (nearest(i, y0, x0) <= bound) {
+            found.add((byte) i);
+          }
+        }
+      }
+    }
+    firstCandidate[CELLS * CELLS] = found.size();
+    candidates = new byte[found.size()];
+    for (int i = 0; i < candidates.length; ++i) {
+      candidates[i] = found.get(i);
+    }
+  }
+
+  /**
+   * @return squared distance from station i to the nearest point of a cell
+   */
+  private double nearest(int i, double y0, double x0) {
+    double dy = Math.max(0, Math.max(y0 - ys[i], ys[i] - (y0 + height)));
+    double dx = Math.max(0, Math.max(x0 - xs[i], xs[i] - (x0 + width))) * scale;
+    return dy * dy + dx * dx;
+  }
+
+  /**
+   * @return squared distance from station i to the farthest corner of a cell
+   */
+  private double farthest(int i, double y0, double x0) {
+    double dy = Math.max(Math.abs(y0 - ys[i]), Math.abs(y0 + height - ys[i]));
+    double dx = Math.max(Math.abs(x0 - xs[i]), Math.abs(x0 + width - xs[i])) * scale;
+    return dy * dy + dx * dx;
+  }
+
+  private double distance(int i, double latitude, double longitude) {
+    double dy = latitude - ys[i];
+    double dx = (longitude - xs[i]) * scale;
+    return dy * dy + dx * dx;
+  }
+
+  /**
+   * @return highest station number, stations are numbered 1..stations()
+   */
+  public int stations() {
+    return ids.length;
+  }
+
+  /**
+   * @return the station as in the STATION column
+   */
+  public String id(int station) {
+    return new String(ids[station - 1], StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return the station nearest to a point, 0 if either coordinate is NaN
+   */
+  public int nearest(double latitude, double longitude) {
+    if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+      return 0;
+    }
+    int row = (int) Math.floor((latitude - south) / height);
+    int col = (int) Math.floor((longitude - west) / width);
+    int from = 0;
+    int to = ids.length;
+    boolean onGrid = row >= 0 && row < CELLS && col >= 0 && col < CELLS;
+    if (onGrid) {
+      from = firstCandidate[row * CELLS + col];
+      to = firstCandidate[row * CELLS + col + 1];
+    }
+    int best = onGrid ? candidates[from] & 0xFF : 0;
+    double bestDistance = distance(best, latitude, longitude);
+    for (int c = from + 1; c < to; ++c) {
+      int i = onGrid ? candidates[c] & 0xFF : c;
+      double d = distance(i, latitude, longitude);
+      if (d < bestDistance) {
+        best = i;
+        bestDistance = d;
+      }
+    }
+    return best + 1;
+  }
+
+  /**
+   * @return the number of a station given as in the STATION column of a
+   *         field held in a byte array, or 0 if it is not one of them
+   */
+  public int indexOf(byte[] b, int start, int length) {
+    if (matches(lastId, b, start, length)) {
+      return lastId + 1;
+    }
+    for (int i = 0; i < ids.length; ++i) {
+      if (matches(i, b, start, length)) {
+        lastId = i;
+        return i + 1;
+      }
+    }
+    return 0;
+  }
+
+  private boolean matches(int i, byte[] b, int start, int length) {
+    byte[] id = ids[i];
+    if (id.length != length) {
+      return false;
+    }
+    for (int k = 0; k < length; ++k) {
+      if (id[k] != b[start + k]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the built in stations
+   */
+  public static StationGrid defaults() {
+    List<String> names = new ArrayList<String>();
+    List<double[]> coordinates = new ArrayList<double[]>();
+    for (String[] station : DEFAULT) {
+      names.add(station[0]);
+      coordinates.add(new double[] {Double.parseDouble(station[1]), Double.parseDouble(station[2])});
+    }
+    return new StationGrid(names, coordinates);
+  }
+
+  /**
+   * Read a list of "station,latitude,longitude" lines.
+   */
+  public static StationGrid read(InputStream in) throws IOException {
+    List<String> names = new ArrayList<String>();
+    List<double[]> coordinates = new ArrayList<double[]>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] fields = line.split(",");
+      if (fields.length != 3) {
+        throw new IOException("Expected station,latitude,longitude but got \"" + line + "\"");
+      }
+      double latitude = Double.parseDouble(fields[1].trim());
+      double longitude = Double.parseDouble(fields[2].trim());
+      if (Math.abs(latitude) > 90 || Math.abs(longitude) > 180) {
+        throw new IOException("Invalid station,latitude,longitude \"" + line + "\"");
+      }
+      names.add(fields[0].trim());
+      coordinates.add(new double[] {latitude, longitude});
+    }
+    return new StationGrid(names, coordinates);
+  }
+
+  /**
+   * Average the weather of the stations weighted by the crimes nearest
+   * each, station 0 standing for the citywide weather of the crimes
+   * without a location.  An attribute missing at every weighted station
+   * is NaN, one found at a single station is kept as it is.
+   *
+   * @param weather the four attributes of each station 0..N
+   * @param weights the crimes of each station 0..N
+   */
+  public static void blend(double[][] weather, int[] weights, double[] blended) {
+    for (int i = 0; i < blended.length; ++i) {
+      double sum = 0;
+      long n = 0;
+      int used = 0;
+      int last = 0;
+      for (int s = 0; s < weights.length; ++s) {
+        if (weights[s] > 0 && !Double.isNaN(weather[s][i])) {
+          sum += weather[s][i] * weights[s];
+          n += weights[s];
+          ++used;
+          last = s;
+        }
+      }
+      // A single station's value is kept as is rather than rounded
+      blended[i] = used == 0 ? Double.NaN : used == 1 ? weather[last][i] : sum / n;
+    }
+  }
+
+  /**
+   * Load the stations configured for a task, the built in ones if no
+   * station file was given.
+   */
+  public static StationGrid load(Configuration conf) throws IOException {
+    String file = conf.get(FILE_KEY);
+    if (file == null) {
+      return defaults();
+    }
+    // Prefer the copy in the distributed cache, local runs read it directly.
+    File cached = new File(CACHE_NAME);
+    Path path = new Path(file);
+    try (InputStream in = cached.exists() ? new FileInputStream(cached)
+                                          : path.getFileSystem(conf).open(path)) {
+      return read(in);
+    }
+  }
+
+  /**
+   * Use the station file for a job and ship it to every task.
+   */
+  public static void addTo(Job job, String file) {
+    job.getConfiguration().set(FILE_KEY, file);
+    job.addCacheFile(URI.create(new Path(file).toUri() + "#" + CACHE_NAME));
+  }
+}
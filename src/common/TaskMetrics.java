@@ -0,0 +1,171 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * TaskMetrics gathers the data quality counts and timings of a mapper or
+ * reducer in plain arrays, and adds them to the job counters once, from
+ * cleanup(), so a record costs an array increment instead of a counter
+ * lookup.
+ *
+ *  - count(reason) counts rows by an enum of the job, e.g. why a row was
+ *    skipped, shown as the counter group of that enum
+ *  - group(name, labels) returns counts the caller indexes directly, e.g.
+ *    crimes per category, shown as the counter group of that name
+ *  - start() and stop() time every 64th call in a power of 4 histogram,
+ *    "<phase> call time", and finish() adds the task's wall time to
+ *    "<phase> task time", so both add up across tasks
+ *
+ * With metrics.timing=false nothing is timed.  writeSummary() writes every
+ * counter of a finished job to <out>/_metrics.csv, which jobs reading the
+ * output skip as a hidden file.
+ */
+public class TaskMetrics<E extends Enum<E>> {
+
+  /** Configuration key to time calls and tasks, true by default. */
+  public static final String TIMING_KEY = "metrics.timing";
+
+  /** Name of the job summary file under the output. */
+  public static final String SUMMARY = "_metrics.csv";
+
+  /** Calls timed, one in SAMPLE_MASK + 1. */
+  private static final int SAMPLE_MASK = 63;
+
+  private static final int BUCKETS = 32;
+
+  private final String phase;
+  private final E[] reasons;
+  private final long[] counts;
+  private final List<String> groupNames = new ArrayList<String>();
+  private final List<String[]> groupLabels = new ArrayList<String[]>();
+  private final List<long[]> groupCounts = new ArrayList<long[]>();
+
+  private final boolean timing;
+  private final long began = System.nanoTime();
+  private final long[] calls = new long[BUCKETS];
+  private int call;
+
+  /**
+   * @param phase   name of the timed phase, e.g. "Map" or "Reduce"
+   * @param reasons enum of the row counts, or null for none
+   */
+  public TaskMetrics(String phase, Class<E> reasons, Configuration conf) {
+    this.phase = phase;
+    this.reasons = reasons == null ? null : reasons.getEnumConstants();
+    counts = new long[this.reasons == null ? 0 : this.reasons.length];
+    timing = conf.getBoolean(TIMING_KEY, true);
+  }
+
+  public void count(E reason) {
+    ++counts[reason.ordinal()];
+  }
+
+  /**
+   * @return counts to increment by label index, added to the counters named
+   *         by the labels in the given group
+   */
+  public long[] group(String name, String[] labels) {
+    long[] group = new long[labels.length];
+    groupNames.add(name);
+    groupLabels.add(labels);
+    groupCounts.add(group);
+    return group;
+  }
+
+  /**
+   * @return the start of a timed call, or 0 if this call is not timed
+   */
+  public long start() {
+    return timing && (++call & SAMPLE_MASK) == 0 ? System.nanoTime() : 0;
+  }
+
+  public void stop(long start) {
+    if (start != 0) {
+      ++calls[bucket(System.nanoTime() - start)];
+    }
+  }
+
+  /**
+   * @return the power of 4 bucket of a duration
+   */
+  static int bucket(long duration) {
+    int bits = 64 - Long.numberOfLeadingZeros(Math.max(1, duration));
+    return Math.min(BUCKETS - 1, (bits + 1) / 2);
+  }
+
+  /**
+   * @return the counter name of a bucket, numbered so counters sort in order
+   */
+  private static String label(int bucket, String unit) {
+    return String.format("%02d: < %d %s", bucket, 1L << (2 * bucket), unit);
+  }
+
+  /**
+   * Add everything gathered by the task to its counters.
+   */
+  public void finish(TaskInputOutputContext<?, ?, ?, ?> context) {
+    for (int i = 0; i < counts.length; ++i) {
+      if (counts[i] != 0) {
+        context.getCounter(reasons[i]).increment(counts[i]);
+      }
+    }
+    for (int g = 0; g < groupNames.size(); ++g) {
+      long[] group = groupCounts.get(g);
+      for (int i = 0; i < group.length; ++i) {
+        if (group[i] != 0) {
+          context.getCounter(groupNames.get(g), groupLabels.get(g)[i]).increment(group[i]);
+        }
+      }
+    }
+    if (timing) {
+      for (int i = 0; i < BUCKETS; ++i) {
+        if (calls[i] != 0) {
+          context.getCounter(phase + " call time", label(i, "ns")).increment(calls[i]);
+        }
+      }
+      long millis = (System.nanoTime() - began) / 1000000;
+      context.getCounter(phase + " task time", label(bucket(millis), "ms")).increment(1);
+    }
+  }
+
+  /**
+   * Write {Group,Counter,Value} for every counter of a completed job, after
+   * the job's wall time where known, to _metrics.csv in its output directory.
+   */
+  public static void writeSummary(Job job) throws IOException, InterruptedException {
+    Configuration conf = job.getConfiguration();
+    Path output = conf.get(IncrementalOutput.OUTPUT_KEY) != null
+        ? new Path(conf.get(IncrementalOutput.OUTPUT_KEY)) : FileOutputFormat.getOutputPath(job);
+    Path file = new Path(output, SUMMARY);
+    FileSystem fs = file.getFileSystem(conf);
+    try (BufferedWriter out = new BufferedWriter(
+        new OutputStreamWriter(fs.create(file, true), StandardCharsets.UTF_8))) {
+      out.write("group,counter,value\n");
+      // The local runner does not record the times
+      if (job.getStartTime() > 0) {
+        out.write("Job,wall time ms," + (job.getFinishTime() - job.getStartTime()) + "\n");
+      }
+      for (CounterGroup group : job.getCounters()) {
+        for (Counter counter : group) {
+          out.write(quote(group.getDisplayName()) + "," + quote(counter.getDisplayName()) + ","
+              + counter.getValue() + "\n");
+        }
+      }
+    }
+  }
+
+  private static String quote(String s) {
+    return s.indexOf(',') < 0 && s.indexOf('"') < 0 ? s : "\"" + s.replace("\"", "\"\"") + "\"";
+  }
+}
@@ -0,0 +1,162 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * WeatherSampleWritable carries a partial aggregate of the four weather
+ * attributes of one or more hourly observations, in the order:
+ *
+ *  - HOURLYDRYBULBTEMPF
+ *  - HOURLYDewPointTempF
+ *  - HOURLYWindSpeed
+ *  - HOURLYRelativeHumidity
+ *
+ * Each attribute holds the count, compensated sum, sum of squared
+ * deviations from the mean (M2), minimum and maximum of its values (see
+ * WeatherStats), so partials can be merged by a combiner in any order.
+ *
+ * Fields without a valid value are flagged in a bitmask and are not
+ * serialized at all, and a field made of a single observation is
+ * serialized as just that value.
+ *
+ * In the spatial mode a sample also carries the station it was observed
+ * at, see StationGrid, flagged in the high bit of the bitmask so citywide
+ * samples cost nothing more.
+ */
+public class WeatherSampleWritable implements Writable {
+
+  public static final int FIELDS = WeatherStats.FIELDS;
+
+  private static final int STATION_FLAG = 0x80;
+
+  private final WeatherStats stats = new WeatherStats(1);
+  private int station;
+
+  public WeatherSampleWritable() {
+  }
+
+  /**
+   * Reset to an empty sample with every field missing.
+   */
+  public void clear() {
+    stats.clear(0, 1);
+    station = 0;
+  }
+
+  /**
+   * @return the station of the sample, 0 for citywide
+   */
+  public int getStation() {
+    return station;
+  }
+
+  public void setStation(int station) {
+    this.station = station;
+  }
+
+  /**
+   * Record a single observed value for a field.
+   */
+  public void set(int field, double value) {
+    stats.add(0, field, value);
+  }
+
+  /**
+   * Merge a slot of partial aggregates, e.g. one buffered by a mapper.
+   */
+  public void merge(WeatherStats other, int slot) {
+    stats.merge(0, other, slot);
+  }
+
+  /**
+   * Merge this sample into a slot of partial aggregates.
+   */
+  public void mergeInto(WeatherStats other, int slot) {
+    other.merge(slot, stats, 0);
+  }
+
+  public boolean isMissing(int field) {
+    return stats.count(0, field) == 0;
+  }
+
+  /**
+   * @return number of fields flagged as missing
+   */
+  public int missingCount() {
+    int n = 0;
+    for (int i = 0; i < FIELDS; ++i) {
+      if (isMissing(i)) {
+        ++n;
+      }
+    }
+    return n;
+  }
+
+  public WeatherStats getStats() {
+    return stats;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    int missing = 0;
+    for (int i = 0; i < FIELDS; ++i) {
+      if (isMissing(i)) {
+        missing |= 1 << i;
+      }
+    }
+    if (station != 0) {
+      missing |= STATION_FLAG;
+    }
+    out.writeByte(missing);
+    if (station != 0) {
+      out.writeByte(station);
+    }
+    for (int i = 0; i < FIELDS; ++i) {
+      int n = stats.count(0, i);
+      if (n == 0) {
+        continue;
+      }
+      WritableUtils.writeVInt(out, n);
+      if (n == 1) {
+        out.writeDouble(stats.rawSum(0, i));
+      }
+      else {
+        out.writeDouble(stats.rawSum(0, i));
+        out.writeDouble(stats.sumError(0, i));
+        out.writeDouble(stats.rawM2(0, i));
+        out.writeDouble(stats.m2Error(0, i));
+        out.writeDouble(stats.min(0, i));
+        out.writeDouble(stats.max(0, i));
+      }
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    clear();
+    int missing = in.readByte();
+    if ((missing & STATION_FLAG) != 0) {
+      station = in.readByte() & 0xFF;
+    }
+    for (int i = 0; i < FIELDS; ++i) {
+      if ((missing & (1 << i)) != 0) {
+        continue;
+      }
+      int n = WritableUtils.readVInt(in);
+      if (n == 1) {
+        stats.add(0, i, in.readDouble());
+      }
+      else {
+        double sum = in.readDouble();
+        double sumError = in.readDouble();
+        double m2 = in.readDouble();
+        double m2Error = in.readDouble();
+        double min = in.readDouble();
+        double max = in.readDouble();
+        stats.merge(0, i, n, sum, sumError, m2, m2Error, min, max);
+      }
+    }
+  }
+}
@@ -0,0 +1,273 @@
+import java.util.Arrays;
+
+/**
+ * WeatherStats holds partial aggregates of the four weather attributes
+ * for a number of slots, e.g. one slot per date buffered by a mapper.
+ * Per slot and attribute it keeps the count, sum, minimum and maximum
+ * of the observed values and M2, the sum of their squared deviations
+ * from the mean, in primitive arrays.
+ *
+ * Sums are compensated (Kahan-Babuska), so adding thousands of hourly
+ * observations, or merging partials in any order as a combiner does,
+ * loses next to no precision.  M2 grows by Welford's update and merges
+ * by that of Chan et al., so the variance is never the difference of
+ * two large, nearly equal terms.  Partials merge associatively, so the
+ * daily mean, minimum, maximum and standard deviation come out of one
+ * pass over the observations.
+ */
+public class WeatherStats {
+
+  public static final int FIELDS = 4;
+
+  /** Attribute of each field, in the order of the Wx1..Wx4 output columns. */
+  public static final String[] NAMES = {"temperature", "dewpoint", "wind", "humidity"};
+
+  /** Written in place of the value of an attribute with no observation. */
+  public static final String MISSING = "?";
+
+  /** 2^27 + 1, splits a double into two halves whose products are exact. */
+  private static final double SPLIT = 134217729.0;
+
+  private final int[] count;
+  private final double[] sum;
+  private final double[] sumError;
+  private final double[] m2;
+  private final double[] m2Error;
+  private final double[] min;
+  private final double[] max;
+
+  /** Scratch result of the double-double arithmetic below. */
+  private double hi;
+  private double lo;
+
+  public WeatherStats(int slots) {
+    int n = slots * FIELDS;
+    count = new int[n];
+    sum = new double[n];
+    sumError = new double[n];
+    m2 = new double[n];
+    m2Error = new double[n];
+    min = new double[n];
+    max = new double[n];
+    clear(0, slots);
+  }
+
+  /**
+   * Reset the slots from (inclusive) to to (exclusive).
+   */
+  public void clear(int from, int to) {
+    int a = from * FIELDS;
+    int b = to * FIELDS;
+    Arrays.fill(count, a, b, 0);
+    Arrays.fill(sum, a, b, 0.0);
+    Arrays.fill(sumError, a, b, 0.0);
+    Arrays.fill(m2, a, b, 0.0);
+    Arrays.fill(m2Error, a, b, 0.0);
+    Arrays.fill(min, a, b, Double.POSITIVE_INFINITY);
+    Arrays.fill(max, a, b, Double.NEGATIVE_INFINITY);
+  }
+
+  /**
+   * Add a single observed value.
+   */
+  public void add(int slot, int field, double value) {
+    int i = slot * FIELDS + field;
+    mergeM2(i, 1, value, 0.0, 0.0, 0.0);
+    ++count[i];
+    sum[i] = compensatedAdd(sum, sumError, i, value);
+    min[i] = Math.min(min[i], value);
+    max[i] = Math.max(max[i], value);
+  }
+
+  /**
+   * Merge a partial aggregate given by its parts.
+   */
+  public void merge(int slot, int field, int n, double s, double sError,
+                    double otherM2, double otherM2Error, double lo, double hi) {
+    if (n == 0) {
+      return;
+    }
+    int i = slot * FIELDS + field;
+    mergeM2(i, n, s, sError, otherM2, otherM2Error);
+    count[i] += n;
+    sum[i] = compensatedAdd(sum, sumError, i, s);
+    sumError[i] += sError;
+    min[i] = Math.min(min[i], lo);
+    max[i] = Math.max(max[i], hi);
+  }
+
+  /**
+   * Fold the M2 of n values with sum s into m2[i] by the update of Chan
+   * et al., M2 = M2a + M2b + delta^2 * na * nb / (na + nb), before the
+   * count and sum of i are updated.  Welford's update is the case n = 1.
+   *
+   * The arithmetic is double-double, so M2 is exact far beyond a double
+   * and rounds the same whatever order the partials are merged in, as
+   * the compensated sums do; a combiner or the local engine then writes
+   * the very same standard deviation.
+   */
+  private void mergeM2(int i, int n, double s, double sError, double otherM2, double otherM2Error) {
+    int own = count[i];
+    if (own == 0) {
+      m2[i] = otherM2;
+      m2Error[i] = otherM2Error;
+      return;
+    }
+    over(s, sError, n);
+    double meanHi = hi;
+    double meanLo = lo;
+    over(sum[i], sumError[i], own);
+    plus(meanHi, meanLo, -hi, -lo);
+    times(hi, lo, hi, lo);
+    times(hi, lo, (double) own * n);
+    over(hi, lo, own + n);
+    plus(hi, lo, otherM2, otherM2Error);
+    plus(hi, lo, m2[i], m2Error[i]);
+    m2[i] = hi;
+    m2Error[i] = lo;
+  }
+
+  // Double-double arithmetic (Dekker, Knuth), each result left in hi + lo.
+
+  private void twoSum(double a, double b) {
+    hi = a + b;
+    double bb = hi - a;
+    lo = (a - (hi - bb)) + (b - bb);
+  }
+
+  private void twoProduct(double a, double b) {
+    hi = a * b;
+    double c = SPLIT * a;
+    double aHi = c - (c - a);
+    double aLo = a - aHi;
+    c = SPLIT * b;
+    double bHi = c - (c - b);
+    double bLo = b - bHi;
+    lo = ((aHi * bHi - hi) + aHi * bLo + aLo * bHi) + aLo * bLo;
+  }
+
+  private void plus(double aHi, double aLo, double bHi, double bLo) {
+    twoSum(aHi, bHi);
+    twoSum(hi, lo + aLo + bLo);
+  }
+
+  private void times(double aHi, double aLo, double bHi, double bLo) {
+    twoProduct(aHi, bHi);
+    twoSum(hi, lo + aHi * bLo + aLo * bHi);
+  }
+
+  private void times(double aHi, double aLo, double b) {
+    twoProduct(aHi, b);
+    twoSum(hi, lo + aLo * b);
+  }
+
+  private void over(double aHi, double aLo, double b) {
+    double q = aHi / b;
+    twoProduct(q, b);
+    double r = (aHi - hi - lo + aLo) / b;
+    twoSum(q, r);
+  }
+
+  /**
+   * Merge a slot of another set of partial aggregates into a slot of this one.
+   */
+  public void merge(int slot, WeatherStats other, int otherSlot) {
+    for (int f = 0; f < FIELDS; ++f) {
+      int j = otherSlot * FIELDS + f;
+      merge(slot, f, other.count[j], other.sum[j], other.sumError[j],
+            other.m2[j], other.m2Error[j], other.min[j], other.max[j]);
+    }
+  }
+
+  /**
+   * Add a value to sums[i], accumulating the rounding error in errors[i].
+   *
+   * @return the new uncompensated sum
+   */
+  private static double compensatedAdd(double[] sums, double[] errors, int i, double value) {
+    double s = sums[i];
+    double t = s + value;
+    if (Math.abs(s) >= Math.abs(value)) {
+      errors[i] += (s - t) + value;
+    }
+    else {
+      errors[i] += (value - t) + s;
+    }
+    return t;
+  }
+
+  public int count(int slot, int field) {
+    return count[slot * FIELDS + field];
+  }
+
+  /**
+   * @return the compensated sum
+   */
+  public double sum(int slot, int field) {
+    int i = slot * FIELDS + field;
+    return sum[i] + sumError[i];
+  }
+
+  public double rawSum(int slot, int field) {
+    return sum[slot * FIELDS + field];
+  }
+
+  public double sumError(int slot, int field) {
+    return sumError[slot * FIELDS + field];
+  }
+
+  /**
+   * @return the compensated sum of the squared deviations from the mean
+   */
+  public double m2(int slot, int field) {
+    int i = slot * FIELDS + field;
+    return m2[i] + m2Error[i];
+  }
+
+  public double rawM2(int slot, int field) {
+    return m2[slot * FIELDS + field];
+  }
+
+  public double m2Error(int slot, int field) {
+    return m2Error[slot * FIELDS + field];
+  }
+
+  public double min(int slot, int field) {
+    return min[slot * FIELDS + field];
+  }
+
+  public double max(int slot, int field) {
+    return max[slot * FIELDS + field];
+  }
+
+  /**
+   * @return the mean, or NaN if no value was observed
+   */
+  public double mean(int slot, int field) {
+    int n = count(slot, field);
+    return n == 0 ? Double.NaN : sum(slot, field) / n;
+  }
+
+  /**
+   * @return the population standard deviation, or NaN if no value was observed
+   */
+  public double stddev(int slot, int field) {
+    int i = slot * FIELDS + field;
+    int n = count[i];
+    return n == 0 ? Double.NaN : Math.sqrt((m2[i] + m2Error[i]) / n);
+  }
+
+  /**
+   * @return the value as text, MISSING for NaN
+   */
+  public static String format(double value) {
+    return Double.isNaN(value) ? MISSING : Double.toString(value);
+  }
+
+  /**
+   * @return the value of a formatted attribute, NaN for MISSING
+   */
+  public static double parse(String value) {
+    return value.equals(MISSING) ? Double.NaN : Double.parseDouble(value);
+  }
+}
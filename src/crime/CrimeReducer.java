@@ -7,7 +7,6 @@ import java.util.*;
 import org.apache.commons.lang.math.NumberUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
@@ -15,250 +14,379 @@ import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 public class CrimeReducer {
 
+  //Passed instead of a district number to produce every district from one scan of the input
+  public static final String ALL_DISTRICTS = "all";
 
-  /*Mapper 1
-  * Writes out <Text, IntWritable>
-  * example out <'10/02/2018,THEFT'  1> */
-  public static class CategoryMapper extends Mapper<Object, Text, Text, IntWritable>{
 
-    private final Set<Integer> one = new HashSet<Integer>(Arrays.asList(1,2,3,4,9,10,11,12,13,14,76,77));
-    private final Set<Integer> two = new HashSet<Integer>(Arrays.asList(5,6,7,21,22));
-    private final Set<Integer> three = new HashSet<Integer>(Arrays.asList(15,16,17,18,19,20));
-    private final Set<Integer> four = new HashSet<Integer>(Arrays.asList(8,32,33));
-    private final Set<Integer> five = new HashSet<Integer>(Arrays.asList(23,24,25,26,27,28,29,30,31));
-    private final Set<Integer> six = new HashSet<Integer>(Arrays.asList(56,57,58,59,61,62,63,64,65,66,67,68));
-    private final Set<Integer> seven = new HashSet<Integer>(Arrays.asList(34,35,36,37,38,39,40,41,42,43,60,69));
-    private final Set<Integer> eight = new HashSet<Integer>(Arrays.asList(70,71,72,73,74,75));
-    private final Set<Integer> nine = new HashSet<Integer>(Arrays.asList(44,45,46,47,48,49,50,51,52,53,54,55));
+  //Crime category columns C1..C8 of the output, in order
+  public static final String[] CATEGORIES = CrimeCountsWritable.NAMES;
 
-    private final Set<String> primary = new HashSet<String>(Arrays.asList("HOMICIDE","ROBBERY","BATTERY","ASSAULT","BURGLARY","THEFT","MOTOR VEHICLE THEFT","WEAPONS VIOLATION"));
 
-    private final static IntWritable count = new IntWritable(1);
-    private Text word = new Text();
-    private String date;
-    private String category;
-    private String community;
-    private String out;
+  //Crime rows read by the mapper, and why those not counted were skipped
+  public static enum Rows {
+    READ, SHORT_ROW, OTHER_CATEGORY, NO_COMMUNITY, UNKNOWN_COMMUNITY, OTHER_DISTRICT, BAD_DATE, BEFORE_SINCE, COUNTED
+  }
+
+
+  /*Mapper
+  * Writes out <DayKey, CrimeCountsWritable> keyed by date, the value holds the district
+  * and a single count in the slot of the crime category
+  * example out <'10/02/2018'  7,0,0,0,0,0,1,0,0>
+  *
+  * Unless inmapper.combine is false, counts are first summed per date and district in
+  * memory and written once per pair when the buffer fills up and in cleanup()
+  * example out <'10/02/2018'  7,0,2,5,1,0,9,0,0>
+  *
+  * With weather.spatial=true the value also counts the crime under the weather station
+  * nearest to its latitude and longitude (19, 20), see StationGrid */
+  public static class CategoryMapper extends Mapper<Object, Text, DayKey, CrimeCountsWritable>{
+
+    //Resolves a category name to its C1..C8 slot
+    private static final OrdinalLookup primary = new OrdinalLookup(CATEGORIES);
+
+    //Community area to district, loaded once per task
+    private DistrictTable districts;
+
+    private final CrimeCountsWritable count = new CrimeCountsWritable();
+    private CsvScanner scanner;
+    private DayKey day = new DayKey();
+
+    //Nearest station lookup, null unless spatial
+    private StationGrid stations;
+
+    //Per date and district totals for in-mapper combining, null when turned off,
+    //the category counts followed by those of each station in the spatial mode
+    private LongIndexMap buffer;
+    private int[] totals;
+    private int width = CrimeCountsWritable.CATEGORIES;
+
+    //District to emit, or 0 to resolve and emit every district in a single pass
+    private int district;
+
+    //First day to keep, set by incremental.since
+    private int since;
+
+    //Row counters and timings, added to the job counters in cleanup()
+    private TaskMetrics<Rows> metrics;
+    private long[] perCategory;
+    private long[] perDistrict;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+      //Grab the district number passed via the command line, "all" selects every district
+      String arg = context.getConfiguration().get("district");
+      district = ALL_DISTRICTS.equalsIgnoreCase(arg) ? 0 : Integer.parseInt(arg);
+      districts = DistrictTable.load(context.getConfiguration());
+      since = IncrementalOutput.since(context.getConfiguration());
+      if (context.getConfiguration().getBoolean(StationGrid.SPATIAL_KEY, false)) {
+        stations = StationGrid.load(context.getConfiguration());
+        count.setStations(stations.stations());
+        width += stations.stations();
+      }
+      //Latitude and longitude are at 19 and 20
+      scanner = new CsvScanner(stations == null ? 15 : 21);
+
+      metrics = new TaskMetrics<Rows>("Map", Rows.class, context.getConfiguration());
+      perCategory = metrics.group("Crimes per category", CATEGORIES);
+      String[] names = new String[districts.districts() + 1];
+      for (int d = 0; d < names.length; d++) {
+        names[d] = "district " + d;
+      }
+      perDistrict = metrics.group("Crimes per district", names);
+
+      buffer = LongIndexMap.forTask(context.getConfiguration(), 4 * width);
+      if (buffer != null) {
+        totals = new int[buffer.capacity() * width];
+      }
+    }
 
     public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
+      long start = metrics.start();
+      metrics.count(Rows.READ);
+      metrics.count(count(value, context));
+      metrics.stop(start);
+    }
 
-      //Grab the district number passed via the command line
-      Configuration conf = context.getConfiguration();
-      int district = Integer.parseInt(conf.get("district"));
+    /* Count a row, returning how it was counted or why it was skipped */
+    private Rows count(Text value, Context context) throws IOException, InterruptedException {
 
-      //Create HashSet variable and set to reference to appropriate set for community numbers.
-      //This is has been tested and compared to calling sets directly.
-      Set<Integer> district_set = new HashSet<>();
-      if (district == 1){
-        district_set = one;
+      //Locate the fields in place, quoted fields may hold commas
+      if (scanner.scan(value) <= 14){ //ensure valid row size
+        return Rows.SHORT_ROW;
       }
-      else if (district == 2){
-        district_set = two;
+
+      //index 5 contains crime category string, only relevant categories are found
+      int category = scanner.indexOf(5, primary);
+      if (category < 0) {
+        return Rows.OTHER_CATEGORY;
       }
-      else if (district == 3){
-        district_set = three;
+
+      //index 13 contains community id, check that it is present and a digit
+      if (!scanner.isDigits(13)) {
+        return Rows.NO_COMMUNITY;
       }
-      else if (district == 4){
-        district_set = four;
+
+      //resolve the community to its district once, then keep it if
+      //either every district is wanted or it is the requested one
+      int rowDistrict = districts.districtOf(scanner.parseInt(13));
+      if (rowDistrict == 0) {
+        return Rows.UNKNOWN_COMMUNITY;
       }
-      else if (district == 5){
-        district_set = five;
+      if (district != 0 && district != rowDistrict) {
+        return Rows.OTHER_DISTRICT;
       }
-      else if (district == 6){
-        district_set = six;
+
+      //index 2 contains the date followed by the time
+      int rowDay;
+      try {
+        rowDay = scanner.parseDay(2);
       }
-      else if (district == 7){
-        district_set = seven;
+      catch (NumberFormatException e) {
+        return Rows.BAD_DATE;
       }
-      else if (district == 8){
-        district_set = eight;
+      if (rowDay < since) {
+        return Rows.BEFORE_SINCE;
+      }
+
+      perCategory[category]++;
+      perDistrict[rowDistrict]++;
+      //0 for a crime without a location, which is left out of the station counts
+      int station = stations == null ? 0 : stations.nearest(scanner.parseNumber(19), scanner.parseNumber(20));
+      if (buffer == null) {
+        day.set(rowDay);
+        count.clear(rowDistrict);
+        count.increment(category);
+        if (station != 0) {
+          count.setNearest(station, 1);
+        }
+        context.write(day, count);
       }
       else {
-        district_set = nine;
+        long pair = ((long) rowDay << 32) | rowDistrict;
+        int i = buffer.indexOf(pair);
+        if (i < 0) {
+          flush(context);
+          i = buffer.indexOf(pair);
+        }
+        totals[i * width + category]++;
+        if (station != 0) {
+          totals[i * width + CrimeCountsWritable.CATEGORIES + station - 1]++;
+        }
       }
+      return Rows.COUNTED;
+    }
 
-      String[] row = value.toString().split(",");
-      if (row.length > 14){ //ensure valid row size
-
-        date = row[2].split(" ")[0]; //index 0 contains date
-        category = row[5].trim(); //index 5 contains crime category string
-        community = row[13]; //index 13 contains community id
-
-        //check size to ensure no missing information, also ensure that community is a digit
-        if (community.length()>0 && category.length()>0 && community.matches("\\d+")) {
-
-          //if category and community are located in the relevant set, then we want to map and write that out
-          if (primary.contains(category) && district_set.contains(Integer.parseInt(community))) {
-            out = date + "," + category;
-            word.set(out);
-            context.write(word, count);
-          }
+    /* Write out and reset the buffered totals */
+    private void flush(Context context) throws IOException, InterruptedException {
+      for (int i = 0; i < buffer.size(); i++) {
+        long pair = buffer.keyAt(i);
+        day.set((int) (pair >> 32));
+        count.clear((int) pair);
+        for (int c = 0; c < CrimeCountsWritable.CATEGORIES; c++) {
+          count.set(c, totals[i * width + c]);
+        }
+        for (int s = 1; s <= count.getStations(); s++) {
+          count.setNearest(s, totals[i * width + CrimeCountsWritable.CATEGORIES + s - 1]);
         }
+        context.write(day, count);
       }
+      Arrays.fill(totals, 0, buffer.size() * width, 0);
+      buffer.clear();
     }
-  }
-
-  /* Reducer1
-  *  Input: <Text, IntWritable> exp: <'10/02/2018,THEFT' 1, 1, 1>
-  *  Output: <Text, Text> exp: <'10/02/2018' 'THEFT,3'>   */
-  public static class IntSumReducer extends Reducer<Text,IntWritable,Text,Text> {
-    private IntWritable result = new IntWritable();
-    private Text keyout = new Text();
-    private Text valueout = new Text();
-
-    public void reduce(Text key, Iterable<IntWritable> values, Context context) throws IOException, InterruptedException {
-
-      int sum = 0;
 
-      for (IntWritable val : values) {
-        sum += val.get();
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+      if (buffer != null) {
+        flush(context);
       }
-      String[] temp = key.toString().split(",");
-
-      String keyoutstring = temp[0];
-      keyout.set(keyoutstring);
-
-      String valueoutstring = temp[1] + "," + sum;
-      System.out.println(valueoutstring);
-      valueout.set(valueoutstring);
-      context.write(keyout, valueout);
+      metrics.finish(context);
     }
   }
 
-  //NEXT STEP FOR CRIME OUTOUT Date,District,C1,C2,C3,C4,C5,C6,C7,C8
-
-  //Input: <'10/02/2018' 'THEFT,3'>
-  //Output: <'10/02/2018' ['THEFT,3', 'ROBBERY,1', 'HOMOCIDE,2']>
-  // Mapper2
-
-  public static class CategorySumMapper extends Mapper<Object, Text, Text, Text>{
+  /* Combiner
+  *  Input: <DayKey, CrimeCountsWritable> exp: <'10/02/2018' [7,0,0,0,0,0,1,0,0  7,0,1,0,0,0,0,0,0  3,0,0,0,0,0,1,0,0]>
+  *  Output: <DayKey, CrimeCountsWritable> summed per district exp: <'10/02/2018' [3,0,0,0,0,0,1,0,0  7,0,1,0,0,0,1,0,0]>  */
+  public static class CategoryCombiner extends Reducer<DayKey,CrimeCountsWritable,DayKey,CrimeCountsWritable> {
+
+    private int[][] C;
+    private int[][] S;
+    private boolean[] seen;
+    private final CrimeCountsWritable result = new CrimeCountsWritable();
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+      int districts = DistrictTable.load(context.getConfiguration()).districts();
+      C = new int[districts + 1][CrimeCountsWritable.CATEGORIES];
+      S = stationTotals(context.getConfiguration(), districts, result);
+      seen = new boolean[districts + 1];
+    }
 
-    private Text category_list = new Text();
-    private Text date = new Text();
-    private String date_temp;
-    private String category_rate;
+    public void reduce(DayKey key, Iterable<CrimeCountsWritable> values, Context context) throws IOException, InterruptedException {
 
+      for (CrimeCountsWritable val : values) {
+        val.addTo(C[val.getDistrict()]);
+        val.addStationsTo(S[val.getDistrict()]);
+        seen[val.getDistrict()] = true;
+      }
 
-    public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
+      for (int d = 1; d < C.length; d++) {
+        if (seen[d]) {
+          result.clear(d);
+          result.set(C[d]);
+          result.setStations(S[d]);
+          context.write(key, result);
+          Arrays.fill(C[d], 0);
+          Arrays.fill(S[d], 0);
+          seen[d] = false;
+        }
+      }
+    }
+  }
 
-      String[] row = value.toString().split("\t");
+  /* Reducer
+    Input: <'10/02/2018' [3,0,0,0,0,0,1,0,0  7,0,1,0,0,0,1,0,0]>
+    Output: Date,District,C1,C2,C3,C4,C5,C6,C7,C8 written to the district<N> file of its district,
+    followed by S1..SN, the crimes nearest each weather station, with weather.spatial=true
+    */
+  public static class FinalReducer extends Reducer<DayKey,CrimeCountsWritable,Text,NullWritable> {
+
+    private int[][] C;
+    private int[][] S;
+    private boolean[] seen;
+    private final CrimeCountsWritable result = new CrimeCountsWritable();
+    private ColumnarOutputFormat.Row out = new ColumnarOutputFormat.Row();
+    private boolean columnar;
+    private MultipleOutputs<Text, NullWritable> mos;
+    private TaskMetrics<Rows> metrics;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+      mos = new MultipleOutputs<Text, NullWritable>(context);
+      columnar = ColumnarOutputFormat.isColumnar(context.getConfiguration());
+      metrics = new TaskMetrics<Rows>("Reduce", null, context.getConfiguration());
+      int districts = DistrictTable.load(context.getConfiguration()).districts();
+      C = new int[districts + 1][CrimeCountsWritable.CATEGORIES];
+      S = stationTotals(context.getConfiguration(), districts, result);
+      seen = new boolean[districts + 1];
+    }
 
-      date_temp = row[0];
-      category_rate = row[1];
+    public void reduce(DayKey key, Iterable<CrimeCountsWritable> values, Context context) throws IOException, InterruptedException {
+      long start = metrics.start();
 
-      date.set(date_temp);
-      category_list.set(category_rate);
+      //Pivot the category counts of every district for this date
+      for (CrimeCountsWritable val : values) {
+        val.addTo(C[val.getDistrict()]);
+        val.addStationsTo(S[val.getDistrict()]);
+        seen[val.getDistrict()] = true;
+      }
 
-      context.write(date, category_list);
+      //build result string per district and write
+      for (int d = 1; d < C.length; d++) {
+        if (seen[d]) {
+          result.clear(d);
+          result.set(C[d]);
+          result.setStations(S[d]);
+          if (columnar) {
+            out.setValues(key.get(), null, result);
+          }
+          else {
+            out.set(districtLine(key.get(), result));
+          }
+          mos.write(out, NullWritable.get(), "district" + d);
+          Arrays.fill(C[d], 0);
+          Arrays.fill(S[d], 0);
+          seen[d] = false;
+        }
+      }
+      metrics.stop(start);
+    }
 
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+      mos.close();
+      metrics.finish(context);
     }
   }
-  /* Reducer2
-    Input: <'10/02/2018' ['THEFT,3', 'ROBBERY,1', 'HOMOCIDE,2']>
-    Output: Date,District,C1,C2,C3,C4,C5,C6,C7,C8
-    */
-  public static class FinalReducer extends Reducer<Text,Text,Text,NullWritable> {
-
-    private String category;
-    private int total;
-    private String result;
-    private Text out = new Text();
-
-    public void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
-
-      //Grab the district number passed to command line
-      Configuration conf = context.getConfiguration();
-      int district = Integer.parseInt(conf.get("district"));
-
-      //Initialize an array to keep track of category sums
-      int [] C = {0,0,0,0,0,0,0,0};
-      String [] val_arr;
-
-      for (Text val : values) {
-        val_arr = val.toString().trim().split(",");
-        category = val_arr[0];
-        System.out.println("value in array at 0: " + val_arr[0]);
-        System.out.println("value in array at 1: " + val_arr[1]);
-        total = Integer.parseInt(val_arr[1]);
-
-        //For each value check the category and add to the array
-        //the total crime rate in the appropriate index.
-        if (category.equals("HOMICIDE")){
-          C[0] += total;
-        }
-        else if (category.equals("ROBBERY")){
-          C[1] += total;
-        }
-        else if (category.equals("BATTERY")){
-          C[2] += total;
-        }
-        else if (category.equals("ASSAULT")){
-          C[3] += total;
-        }
-        else if (category.equals("BURGLARY")){
-          C[4] += total;
-        }
-        else if (category.equals("THEFT")){
-          C[5] += total;
-        }
-        else if (category.equals("MOTOR VEHICLE THEFT")){
-          C[6] += total;
-        }
-        else {
-          C[7] += total;
-        }
-      }
 
-      //build result string and write
-      result = key.toString() + "," + district + ",";
-      for (int i=0; i<8; i++){
-        if (i != 7){
-          result += C[i] + ",";
-        }
-        else {
-          result += C[i];
-        }
-      }
 
-      out.set(result);
-      context.write(out, NullWritable.get());
+  /* Per district totals of the crimes nearest each station, empty unless spatial, which also
+  *  sets the stations the result counts */
+  static int[][] stationTotals(Configuration conf, int districts, CrimeCountsWritable result) throws IOException {
+    int n = conf.getBoolean(StationGrid.SPATIAL_KEY, false) ? StationGrid.load(conf).stations() : 0;
+    result.setStations(n);
+    return new int[districts + 1][n];
+  }
+
 
+  /* Output row Date,District,C1..C8[,S1..SN], shared with the local engine so both write the same bytes */
+  public static String districtLine(int day, CrimeCountsWritable counts) {
+    StringBuilder line = new StringBuilder(DayKey.toUsDate(day)).append(',').append(counts);
+    for (int s = 1; s <= counts.getStations(); s++) {
+      line.append(',').append(counts.getNearest(s));
     }
+    return line.toString();
   }
 
 
-  public static void main(String[] args) throws Exception {
-  Configuration conf = new Configuration();
+  /*Configures the job for <district|all> <input> <output>, without running it
+  * The rows are written under <output>/final */
+  public static Job createJob(Configuration conf, String[] args) throws IOException {
   conf.set("district", args[0]);
 
-  Job job = Job.getInstance(conf, "Crime Counter");
+  Job job = Job.getInstance(conf, "Crime Aggregate");
   job.setJarByClass(CrimeReducer.class);
+  if (conf.get(DistrictTable.FILE_KEY) != null) {
+    DistrictTable.addTo(job, conf.get(DistrictTable.FILE_KEY));
+  }
   job.setMapperClass(CategoryMapper.class);
-  job.setMapOutputKeyClass(Text.class);
-  job.setMapOutputValueClass(IntWritable.class);
-  job.setReducerClass(IntSumReducer.class);
+  job.setCombinerClass(CategoryCombiner.class);
+  job.setMapOutputKeyClass(DayKey.class);
+  job.setMapOutputValueClass(CrimeCountsWritable.class);
+  job.setReducerClass(FinalReducer.class);
   job.setOutputKeyClass(Text.class);
-  job.setOutputValueClass(Text.class);
-  job.setNumReduceTasks(10);
+  job.setOutputValueClass(NullWritable.class);
+  //Only the district<N> files are written, so skip the empty default part files
+  LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+  //-D output.format=columnar writes binary <year>/district<N>-r-00000.col tables instead
+  boolean columnar = ColumnarOutputFormat.configure(job, ColumnarTable.CRIME);
+  Compression.configure(job);
+  //-D weather.spatial=true appends the crimes nearest each weather station
+  if (conf.getBoolean(StationGrid.SPATIAL_KEY, false)) {
+    if (columnar) {
+      throw new IllegalArgumentException("The columnar output has no station counts, use the text output");
+    }
+    if (conf.get(StationGrid.FILE_KEY) != null) {
+      StationGrid.addTo(job, conf.get(StationGrid.FILE_KEY));
+    }
+  }
+  //The header of each csv file and malformed records are left out by CsvInputFormat
+  job.setInputFormatClass(CsvInputFormat.class);
   FileInputFormat.addInputPath(job, new Path(args[1]));
-  FileOutputFormat.setOutputPath(job, new Path(args[2] + "/intermediate"));
-  job.waitForCompletion(true);
-
-  Job job2 = Job.getInstance(conf, "Crime Aggregate");
-  job2.setJarByClass(CrimeReducer.class);
-  job2.setMapperClass(CategorySumMapper.class);
-  job2.setMapOutputKeyClass(Text.class);
-  job2.setMapOutputValueClass(Text.class);
-  job2.setReducerClass(FinalReducer.class);
-  job2.setOutputKeyClass(Text.class);
-  job2.setOutputValueClass(NullWritable.class);
-  //job2.setNumReduceTasks(10);
-  FileInputFormat.addInputPath(job2, new Path(args[2] + "/intermediate"));
-  FileOutputFormat.setOutputPath(job2, new Path(args[2] + "/final"));
-  System.exit(job2.waitForCompletion(true) ? 0 : 1);
+  //With -D incremental.since=<date> only the days from then on are redone and merged into final
+  Path out = new Path(args[2] + "/final");
+  FileOutputFormat.setOutputPath(job, IncrementalOutput.prepare(job, out));
+  return job;
+  }
+
+  public static void main(String[] args) throws Exception {
+  Configuration conf = new Configuration();
+  //Generic options such as -D crime.districts.file=<community,district file> come first
+  args = new GenericOptionsParser(conf, args).getRemainingArgs();
+  Job job = createJob(conf, args);
+  boolean success = job.waitForCompletion(true);
+  if (success) {
+    IncrementalOutput.merge(job);
+    //Row counts, crimes per category and district and timings go to final/_metrics.csv
+    TaskMetrics.writeSummary(job);
+  }
+  System.exit(success ? 0 : 1);
 
   }
 }
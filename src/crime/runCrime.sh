@@ -4,6 +4,6 @@
 rm *.class
 rm *.jar
 
-# compile .java files and jar
-$HADOOP_HOME/bin/hadoop com.sun.tools.javac.Main CrimeReducer.java
-jar cf CrimeReducer.jar CrimeReducer*.class
+# compile .java files, along with the shared writables in ../common, and jar
+$HADOOP_HOME/bin/hadoop com.sun.tools.javac.Main -sourcepath ../common -d . CrimeReducer.java
+jar cf CrimeReducer.jar *.class
@@ -0,0 +1,271 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+
+/**
+ * The SyntheticData class writes crime and weather inputs shaped like the
+ * Chicago crime export and the NOAA hourly observations, at any scale, so
+ * the jobs can be timed on more data than the real datasets hold.
+ *
+ * USAGE: SyntheticData <output directory> [options]
+ *
+ *  -years N       years of data from -start on, 1 by default
+ *  -scale N       rows per day multiplier, 1 by default: about 700 crimes a
+ *                 day and hourly observations at 3 stations
+ *  -missing RATE  fraction of weather values left blank and of crime rows
+ *                 without a community area, 0.02 by default
+ *  -start YYYY    first year, 2001 by default
+ *  -seed S        random seed, 1 by default, the same seed gives the same files
+ *
+ * Writes <out>/crime/crimes-<yyyy>.csv, 22 columns with the date at 2, the
+ * primary type at 5 and the community area at 13, and
+ * <out>/weather/<station>-<yyyy>.csv, 90 columns with the date at 5 and the
+ * dry bulb temperature, dew point, humidity and wind speed at 10, 14, 16
+ * and 17.  Crime follows the daily temperature, so the join has a signal.
+ */
+
+public class SyntheticData {
+
+  private static final String CRIME_HEADER = "ID,Case Number,Date,Block,IUCR,Primary Type,Description,"
+      + "Location Description,Arrest,Domestic,Beat,District,Ward,Community Area,FBI Code,X Coordinate,"
+      + "Y Coordinate,Year,Updated On,Latitude,Longitude,Location";
+
+  private static final String WEATHER_HEADER = "STATION,STATION_NAME,ELEVATION,LATITUDE,LONGITUDE,DATE,"
+      + "REPORTTPYE,HOURLYSKYCONDITIONS,HOURLYVISIBILITY,HOURLYPRSENTWEATHERTYPE,HOURLYDRYBULBTEMPF,"
+      + "HOURLYDRYBULBTEMPC,HOURLYWETBULBTEMPF,HOURLYWETBULBTEMPC,HOURLYDewPointTempF,HOURLYDewPointTempC,"
+      + "HOURLYRelativeHumidity,HOURLYWindSpeed";
+
+  /** Columns of a weather row, only the first 18 are named or filled. */
+  private static final int WEATHER_COLUMNS = 90;
+
+  private static final String[][] STATIONS = {
+      {"WBAN:94846", "CHICAGO OHARE INTERNATIONAL AIRPORT IL US", "201.8", "41.995", "-87.9336"},
+      {"WBAN:14819", "CHICAGO MIDWAY AIRPORT IL US", "186.8", "41.78417", "-87.75528"},
+      {"WBAN:04838", "CHICAGO PALWAUKEE AIRPORT IL US", "193.9", "42.12083", "-87.90472"}};
+
+  /** Primary types with their share of the rows, the eight counted ones and a few that are not. */
+  private static final String[] TYPES = {"THEFT", "BATTERY", "CRIMINAL DAMAGE", "NARCOTICS", "ASSAULT",
+      "OTHER OFFENSE", "BURGLARY", "MOTOR VEHICLE THEFT", "DECEPTIVE PRACTICE", "ROBBERY",
+      "WEAPONS VIOLATION", "HOMICIDE"};
+  private static final double[] SHARES = {0.22, 0.19, 0.11, 0.10, 0.065, 0.06, 0.055, 0.045, 0.04, 0.038,
+      0.012, 0.0015};
+
+  private static final String[] LOCATIONS = {"STREET", "RESIDENCE", "APARTMENT", "SIDEWALK",
+      "\"PARKING LOT/GARAGE(NON.RESID.)\"", "\"SCHOOL, PUBLIC, BUILDING\"", "\"RESTAURANT\""};
+
+  private static final int CRIMES_PER_DAY = 700;
+
+  private final int years;
+  private final int scale;
+  private final double missing;
+  private final int start;
+  private final Random random;
+  private final double[] cumulative = new double[SHARES.length];
+
+  public SyntheticData(int years, int scale, double missing, int start, long seed) {
+    this.years = years;
+    this.scale = scale;
+    this.missing = missing;
+    this.start = start;
+    random = new Random(seed);
+    double total = 0;
+    for (int i = 0; i < SHARES.length; ++i) {
+      total += SHARES[i];
+      cumulative[i] = total;
+    }
+    for (int i = 0; i < SHARES.length; ++i) {
+      cumulative[i] /= total;
+    }
+  }
+
+  /**
+   * Seasonal mean temperature of a day in Fahrenheit, coldest mid January.
+   */
+  static double climate(int day) {
+    int[] ymd = DayKey.toCivil(day);
+    int dayOfYear = day - DayKey.fromCivil(ymd[0], 1, 1);
+    return 50 - 25 * Math.cos(2 * Math.PI * (dayOfYear - 15) / 365.25);
+  }
+
+  /**
+   * Write both inputs under a directory, one file per year and source.
+   *
+   * @return the number of crime and weather rows written
+   */
+  public long[] write(File dir) throws IOException {
+    File crime = new File(dir, "crime");
+    File weather = new File(dir, "weather");
+    if (!crime.mkdirs() && !crime.isDirectory() || !weather.mkdirs() && !weather.isDirectory()) {
+      throw new IOException("Could not create " + crime + " and " + weather);
+    }
+    long[] rows = new long[2];
+    long id = 10000000;
+    for (int year = start; year < start + years; ++year) {
+      int first = DayKey.fromCivil(year, 1, 1);
+      int end = DayKey.fromCivil(year + 1, 1, 1);
+
+      // The day's temperature drives both files
+      double[] temperature = new double[end - first];
+      for (int d = 0; d < temperature.length; ++d) {
+        temperature[d] = climate(first + d) + random.nextGaussian() * 8;
+      }
+
+      try (Writer out = open(new File(crime, "crimes-" + year + ".csv"))) {
+        out.write(CRIME_HEADER);
+        out.write('\n');
+        StringBuilder row = new StringBuilder(256);
+        for (int d = 0; d < temperature.length; ++d) {
+          String date = DayKey.toUsDate(first + d);
+          // Warmer days see up to a third more crime
+          int count = (int) (CRIMES_PER_DAY * scale * (0.85 + 0.3 * (temperature[d] - 25) / 70));
+          for (int i = 0; i < count; ++i) {
+            crimeRow(row, id++, date, year);
+            out.append(row);
+          }
+          rows[0] += count;
+        }
+      }
+
+      for (String[] station : STATIONS) {
+        String name = station[0].substring(station[0].indexOf(':') + 1);
+        try (Writer out = open(new File(weather, name + "-" + year + ".csv"))) {
+          // Unnamed columns pad the header to the width of the rows
+          out.write(WEATHER_HEADER);
+          for (int i = 18; i < WEATHER_COLUMNS; ++i) {
+            out.write(',');
+          }
+          out.write('\n');
+          StringBuilder row = new StringBuilder(256);
+          int hours = 24 * scale;
+          for (int d = 0; d < temperature.length; ++d) {
+            String date = DayKey.toIsoDate(first + d);
+            for (int h = 0; h < hours; ++h) {
+              weatherRow(row, station, date, h * 1440 / hours, temperature[d]);
+              out.append(row);
+            }
+            rows[1] += hours;
+          }
+        }
+      }
+    }
+    return rows;
+  }
+
+  private static Writer open(File file) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 20);
+  }
+
+  private void crimeRow(StringBuilder row, long id, String date, int year) {
+    double pick = random.nextDouble();
+    int type = 0;
+    while (cumulative[type] < pick) {
+      ++type;
+    }
+    int community = 1 + random.nextInt(77);
+    int hour = random.nextInt(12) + 1;
+    int minute = random.nextInt(60);
+    double latitude = 41.65 + random.nextDouble() * 0.37;
+    double longitude = -87.85 + random.nextDouble() * 0.33;
+
+    row.setLength(0);
+    row.append(id).append(",JA").append(id % 1000000).append(',')
+        .append(date).append(' ').append(hour < 10 ? "0" : "").append(hour).append(':')
+        .append(minute < 10 ? "0" : "").append(minute).append(":00 ").append(random.nextBoolean() ? "AM" : "PM")
+        .append(",047XX W OHIO ST,0820,").append(TYPES[type]).append(',')
+        .append(random.nextInt(8) == 0 ? "\"ARMED: KNIFE, CUTTING INSTRUMENT\"" : "SIMPLE").append(',')
+        .append(LOCATIONS[random.nextInt(LOCATIONS.length)]).append(',')
+        .append(random.nextInt(5) == 0).append(",false,1111,011,28,");
+    if (random.nextDouble() >= missing) {
+      row.append(community);
+    }
+    row.append(",06,1144606,1903566,").append(year).append(",02/10/2018 03:50:01 PM,");
+    row.append(latitude).append(',').append(longitude).append(",\"(")
+        .append(latitude).append(", ").append(longitude).append(")\"\n");
+  }
+
+  private void weatherRow(StringBuilder row, String[] station, String date, int minuteOfDay, double mean) {
+    // Afternoons are warmest
+    double temperature = mean + 8 * Math.sin(2 * Math.PI * (minuteOfDay - 540) / 1440) + random.nextGaussian() * 2;
+    double dewPoint = temperature - 5 - random.nextDouble() * 15;
+    int humidity = (int) Math.max(10, Math.min(100, 100 - 2.5 * (temperature - dewPoint)));
+    int wind = random.nextInt(25);
+    int hour = minuteOfDay / 60;
+
+    row.setLength(0);
+    for (String field : station) {
+      row.append(field).append(',');
+    }
+    row.append(date).append(' ').append(hour < 10 ? "0" : "").append(hour).append(":52,FM-15,CLR:00,10.00,,");
+    value(row, Math.round(temperature), true);
+    value(row, Math.round((temperature - 32) / 1.8 * 10) / 10.0, false);
+    row.append(",,");
+    value(row, Math.round(dewPoint), true);
+    value(row, Math.round((dewPoint - 32) / 1.8 * 10) / 10.0, false);
+    value(row, humidity, true);
+    value(row, wind, false);
+    // The comma after the last value opened column 19
+    for (int i = 19; i < WEATHER_COLUMNS; ++i) {
+      row.append(',');
+    }
+    row.append('\n');
+  }
+
+  /**
+   * Append a value and a comma, or only the comma for a missing value.
+   * Some values carry the "s" suspect flag the jobs strip.
+   */
+  private void value(StringBuilder row, double value, boolean flagged) {
+    if (random.nextDouble() >= missing) {
+      if (value == Math.rint(value)) {
+        row.append((long) value);
+      }
+      else {
+        row.append(value);
+      }
+      if (flagged && random.nextInt(100) == 0) {
+        row.append('s');
+      }
+    }
+    row.append(',');
+  }
+
+  /**
+   * Driver method for the SyntheticData class.
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1 || args.length % 2 == 0) {
+      System.err.println("USAGE: <Outputdirectory> [-years N] [-scale N] [-missing RATE] [-start YYYY] [-seed S]");
+      System.exit(2);
+    }
+    int years = 1;
+    int scale = 1;
+    double missing = 0.02;
+    int start = 2001;
+    long seed = 1;
+    for (int i = 1; i < args.length; i += 2) {
+      String value = args[i + 1];
+      switch (args[i]) {
+        case "-years": years = Integer.parseInt(value); break;
+        case "-scale": scale = Integer.parseInt(value); break;
+        case "-missing": missing = Double.parseDouble(value); break;
+        case "-start": start = Integer.parseInt(value); break;
+        case "-seed": seed = Long.parseLong(value); break;
+        default: throw new IllegalArgumentException("Unknown option " + args[i]);
+      }
+    }
+    if (years < 1 || scale < 1 || !(missing >= 0 && missing <= 1)) {
+      throw new IllegalArgumentException("-years and -scale must be positive and -missing within 0..1");
+    }
+
+    long begin = System.nanoTime();
+    long[] rows = new SyntheticData(years, scale, missing, start, seed).write(new File(args[0]));
+    System.err.println("# " + rows[0] + " crime and " + rows[1] + " weather rows written in "
+        + (System.nanoTime() - begin) / 1000000 + " ms");
+  }
+}
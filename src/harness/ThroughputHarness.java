@@ -0,0 +1,130 @@
+import java.io.PrintStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+
+/**
+ * The ThroughputHarness class runs the crime, weather and join jobs one
+ * after the other in Hadoop's local mode, on inputs written by
+ * SyntheticData, and reports what each stage cost.  Runs at growing
+ * -years or -scale show how the jobs scale before the real data grows.
+ *
+ * USAGE: ThroughputHarness [-D key=value] <data directory> <work directory>
+ *
+ * <data>/crime and <data>/weather are read, and the outputs are written
+ * to <work>/crime, <work>/weather and <work>/join, replacing earlier runs.
+ * Any -D option is passed to the three jobs, e.g. -D inmapper.combine=false
+ * or -D mapreduce.job.reduces=4.  The jobs run in the local runner unless
+ * mapreduce.framework.name says otherwise.
+ *
+ * Only the jobs are timed: unlike the drivers, the harness never calls
+ * TaskMetrics.writeSummary or IncrementalOutput.merge, so no
+ * _metrics.csv is written and incremental outputs are not merged.  That is
+ * enough to time the stages locally.
+ *
+ * One CSV row per stage is printed:
+ *  {Stage,Seconds,InputBytes,MapInput,MapOutput,CombineOutput,ShuffleBytes,
+ *   ReduceInput,OutputBytes,RecordsPerSecond}
+ */
+
+public class ThroughputHarness {
+
+  public static final String HEADER = "stage,seconds,inputBytes,mapInput,mapOutput,combineOutput,"
+      + "shuffleBytes,reduceInput,outputBytes,recordsPerSecond";
+
+  private final Configuration conf;
+  private final PrintStream out;
+
+  public ThroughputHarness(Configuration conf, PrintStream out) {
+    this.conf = conf;
+    this.out = out;
+  }
+
+  /**
+   * Run a configured job, then print its row.
+   */
+  public boolean stage(String name, Job job, long inputBytes, Path output) throws Exception {
+    long start = System.nanoTime();
+    boolean success = job.waitForCompletion(false);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    if (!success) {
+      System.err.println(name + " failed: " + job.getStatus().getFailureInfo());
+      return false;
+    }
+
+    Counters counters = job.getCounters();
+    long records = counters.findCounter(TaskCounter.MAP_INPUT_RECORDS).getValue();
+    out.println(name + "," + String.format("%.3f", seconds) + "," + inputBytes + ","
+        + records + ","
+        + counters.findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue() + ","
+        + counters.findCounter(TaskCounter.COMBINE_OUTPUT_RECORDS).getValue() + ","
+        + counters.findCounter(TaskCounter.REDUCE_SHUFFLE_BYTES).getValue() + ","
+        + counters.findCounter(TaskCounter.REDUCE_INPUT_RECORDS).getValue() + ","
+        + bytes(output) + ","
+        + Math.round(records / seconds));
+    out.flush();
+    return true;
+  }
+
+  private long bytes(Path path) throws Exception {
+    return path.getFileSystem(conf).getContentSummary(path).getLength();
+  }
+
+  /**
+   * Run the three jobs, stopping at the first failure.
+   *
+   * @return true if every stage succeeded
+   */
+  public boolean run(Path data, Path work) throws Exception {
+    FileSystem fs = work.getFileSystem(conf);
+    fs.delete(work, true);
+
+    Path crimeIn = new Path(data, "crime");
+    Path weatherIn = new Path(data, "weather");
+    Path crime = new Path(work, "crime");
+    Path weather = new Path(work, "weather");
+    Path join = new Path(work, "join");
+
+    out.println(HEADER);
+    long start = System.nanoTime();
+    boolean success =
+        stage("crime", CrimeReducer.createJob(new Configuration(conf),
+            new String[] {CrimeReducer.ALL_DISTRICTS, crimeIn.toString(), crime.toString()}), bytes(crimeIn), crime)
+        && stage("weather", WeatherReducer.createJob(new Configuration(conf),
+            new String[] {weatherIn.toString(), weather.toString()}), bytes(weatherIn), weather)
+        && stage("join", CrimeWeatherAgg.createJob(new Configuration(conf),
+            new String[] {join.toString(), new Path(crime, "final").toString(), weather.toString()}),
+            bytes(new Path(crime, "final")) + bytes(weather), join);
+    if (success) {
+      System.err.println("# pipeline took " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+    return success;
+  }
+
+  /**
+   * Driver method for the ThroughputHarness class.
+   */
+  public static void main(String[] args) throws Exception {
+    Configuration conf = new Configuration();
+    args = new GenericOptionsParser(conf, args).getRemainingArgs();
+    if (args.length != 2) {
+      System.err.println("USAGE: [-D key=value] <Datadirectory> <Workdirectory>");
+      System.exit(2);
+    }
+    if (conf.get("mapreduce.framework.name") == null) {
+      conf.set("mapreduce.framework.name", "local");
+    }
+    // Completion is polled every 5 s by default, which would swamp the stage times
+    if (conf.get(Job.COMPLETION_POLL_INTERVAL_KEY) == null) {
+      conf.setInt(Job.COMPLETION_POLL_INTERVAL_KEY, 50);
+    }
+
+    boolean success = new ThroughputHarness(conf, System.out).run(new Path(args[0]), new Path(args[1]));
+    System.exit(success ? 0 : 1);
+  }
+}
@@ -0,0 +1,7 @@
+#!/bin/bash
+
+# compile along with the three jobs, write a year of synthetic input and time the jobs on it in local mode
+rm *.class ||: \
+&& javac -cp "$(/usr/local/hadoop/bin/hadoop classpath)" -sourcepath ../common:../crime:../weather:../aggregator -d . ./SyntheticData.java ./ThroughputHarness.java \
+&& rm -rf ./data && java -cp ".:$(/usr/local/hadoop/bin/hadoop classpath)" SyntheticData ./data -years 1 -scale 1 -missing 0.02 \
+&& java -cp ".:$(/usr/local/hadoop/bin/hadoop classpath)" ThroughputHarness ./data ./work
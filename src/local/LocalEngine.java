@@ -0,0 +1,888 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+
+/**
+ * The LocalEngine class runs the crime, weather and join pipelines on a
+ * single machine without a cluster, writing the same files byte for byte
+ * as CrimeReducer, WeatherReducer and CrimeWeatherAgg.
+ *
+ * Input files are cut into chunks, which are parsed in parallel on a
+ * ForkJoinPool.  Each chunk is read as a split by the record reader of
+ * CsvInputFormat, so headers, quoted line breaks and malformed records
+ * are handled as in the jobs; malformed records are counted, not written.
+ * Each chunk sums into its own primitive arrays indexed by day, the same
+ * partial aggregates the mappers and combiners build, and the partials
+ * are merged pairwise as the tasks join, so nothing is shuffled or sorted.
+ *
+ * USAGE: LocalEngine [-D key=value] crime <district | all> <input> <out>
+ *        LocalEngine [-D key=value] weather <input> <out>
+ *        LocalEngine [-D key=value] join <out> <crime> <weather>
+ *        LocalEngine [-D key=value] all <crime input> <weather input> <out>
+ *        LocalEngine [-D key=value] features <join> <out>
+ *
+ * The arguments are those of the Hadoop jobs, "all" runs the three in
+ * turn into <out>/crime, <out>/weather and <out>/join, and "features"
+ * those of CrimeWeatherFeatures.  The options crime.districts.file,
+ * weather.output.stats, join.output (single or district), features.lags,
+ * features.windows and the csv.* options of CsvInputFormat are
+ * understood, weather.spatial is not, along with
+ *
+ *  - local.threads: size of the pool, the number of cores by default
+ *  - local.chunk.kb: size of the chunks the input is cut into, 8192 by default
+ */
+
+public class LocalEngine {
+
+  public static final String THREADS_KEY = "local.threads";
+  public static final String CHUNK_KEY = "local.chunk.kb";
+
+  private final Configuration conf;
+  private final ForkJoinPool pool;
+  private final long chunkSize;
+
+  /** Counts of the CsvInputFormat readers of all chunks read, by CsvInputFormat.Records. */
+  private final long[] records = new long[CsvInputFormat.Records.values().length];
+
+  public LocalEngine(Configuration conf) {
+    if (conf.getBoolean(StationGrid.SPATIAL_KEY, false)) {
+      throw new IllegalArgumentException("The local engine joins the citywide weather only, run the jobs for "
+          + StationGrid.SPATIAL_KEY);
+    }
+    this.conf = conf;
+    pool = new ForkJoinPool(conf.getInt(THREADS_KEY, Runtime.getRuntime().availableProcessors()));
+    chunkSize = Math.max(1, conf.getLong(CHUNK_KEY, 8192)) << 10;
+  }
+
+  /**
+   * A partial aggregate of the records of some chunks.
+   */
+  interface Partial<P extends Partial<P>> {
+
+    /**
+     * Add a record held in b[offset, offset + length) found at position of its file.
+     */
+    void record(byte[] b, int offset, int length, long position);
+
+    /**
+     * @return this partial with the other one added in
+     */
+    P merge(P other);
+  }
+
+  /**
+   * A byte range of a file, owning the records that start in it.
+   */
+  static class Chunk {
+
+    final File file;
+    final long start;
+    final long end;
+
+    Chunk(File file, long start, long end) {
+      this.file = file;
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  /**
+   * A parsed row of the join inputs or output, its weather and crime
+   * being null on the side that does not have them.
+   */
+  static class DayRow {
+
+    final int day;
+    final double[] weather;
+    final int[] weatherCounts;
+    final CrimeCountsWritable crime;
+
+    DayRow(int day, double[] weather, int[] weatherCounts, CrimeCountsWritable crime) {
+      this.day = day;
+      this.weather = weather;
+      this.weatherCounts = weatherCounts;
+      this.crime = crime;
+    }
+  }
+
+  /**
+   * Parses a range of chunks, splitting it in halves until one chunk is left.
+   */
+  class ScanTask<P extends Partial<P>> extends RecursiveTask<P> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Chunk> chunks;
+    private final int from;
+    private final int to;
+    private final Supplier<P> partials;
+
+    ScanTask(List<Chunk> chunks, int from, int to, Supplier<P> partials) {
+      this.chunks = chunks;
+      this.from = from;
+      this.to = to;
+      this.partials = partials;
+    }
+
+    @Override
+    protected P compute() {
+      if (to - from > 1) {
+        int mid = (from + to) >>> 1;
+        ScanTask<P> right = new ScanTask<P>(chunks, mid, to, partials);
+        right.fork();
+        P left = new ScanTask<P>(chunks, from, mid, partials).compute();
+        return left.merge(right.join());
+      }
+      P partial = partials.get();
+      if (from < chunks.size()) {
+        try {
+          scan(chunks.get(from), partial);
+        }
+        catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      return partial;
+    }
+  }
+
+  /**
+   * Feed the records starting in a chunk to a partial, reading the chunk
+   * as a split of its file, and add the reader's counts to the engine's.
+   */
+  void scan(Chunk chunk, Partial<?> partial) throws IOException {
+    CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(new Path(chunk.file.toURI()));
+    CsvInputFormat.CsvRecordReader reader = new CsvInputFormat.CsvRecordReader();
+    try {
+      reader.initialize(conf, at -> {
+        FileInputStream in = new FileInputStream(chunk.file);
+        if (codec != null) {
+          return codec.createInputStream(in);
+        }
+        in.getChannel().position(at);
+        return in;
+      }, chunk.start, chunk.end - chunk.start, codec != null);
+      while (reader.nextKeyValue()) {
+        Text value = reader.getCurrentValue();
+        partial.record(value.getBytes(), 0, value.getLength(), reader.getCurrentKey().get());
+      }
+    }
+    catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted reading " + chunk.file);
+    }
+    finally {
+      reader.close();
+    }
+    synchronized (records) {
+      for (CsvInputFormat.Records r : CsvInputFormat.Records.values()) {
+        records[r.ordinal()] += reader.count(r);
+      }
+    }
+  }
+
+  /**
+   * Cut files into chunks of about chunkSize bytes, a compressed file
+   * being a single chunk as it is a single split.
+   */
+  List<Chunk> chunks(List<File> files) {
+    CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+    List<Chunk> chunks = new ArrayList<Chunk>();
+    for (File file : files) {
+      long length = file.length();
+      long size = codecs.getCodec(new Path(file.toURI())) == null ? chunkSize : Math.max(1, length);
+      for (long start = 0; start < length; start += size) {
+        chunks.add(new Chunk(file, start, Math.min(length, start + size)));
+      }
+    }
+    return chunks;
+  }
+
+  <P extends Partial<P>> P run(List<File> files, Supplier<P> partials) {
+    List<Chunk> chunks = chunks(files);
+    return pool.invoke(new ScanTask<P>(chunks, 0, chunks.size(), partials));
+  }
+
+  /**
+   * List the input files under a path as FileInputFormat does, skipping
+   * names starting with _ or . and descending into directories if recursive.
+   */
+  static List<File> inputs(File path, boolean recursive) throws IOException {
+    if (!path.exists()) {
+      throw new IOException("Input path does not exist: " + path);
+    }
+    List<File> files = new ArrayList<File>();
+    if (!path.isDirectory()) {
+      files.add(path);
+      return files;
+    }
+    File[] children = path.listFiles();
+    Arrays.sort(children);
+    for (File child : children) {
+      String name = child.getName();
+      if (name.startsWith("_") || name.startsWith(".")) {
+        continue;
+      }
+      if (child.isDirectory()) {
+        if (recursive) {
+          files.addAll(inputs(child, true));
+        }
+      }
+      else {
+        files.add(child);
+      }
+    }
+    return files;
+  }
+
+  private static File create(File out) throws IOException {
+    if (out.exists()) {
+      throw new IOException("Output directory " + out + " already exists");
+    }
+    if (!out.mkdirs()) {
+      throw new IOException("Could not create " + out);
+    }
+    return out;
+  }
+
+  private static Writer writer(File file) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+  }
+
+  private static void success(File out) throws IOException {
+    new FileOutputStream(new File(out, "_SUCCESS")).close();
+  }
+
+
+  /**
+   * Daily category counts of each district over a growing range of days,
+   * the partial aggregate of CrimeReducer.CategoryMapper and CategoryCombiner.
+   */
+  static class CrimePartial implements Partial<CrimePartial> {
+
+    private static final int CATEGORIES = CrimeCountsWritable.CATEGORIES;
+    private static final OrdinalLookup primary = new OrdinalLookup(CrimeReducer.CATEGORIES);
+
+    private final DistrictTable districts;
+    private final int district;
+    private final int stride;
+    private final CsvScanner scanner = new CsvScanner(15);
+
+    int firstDay;
+    int days;
+    int[] counts = new int[0];
+
+    CrimePartial(DistrictTable districts, int district) {
+      this.districts = districts;
+      this.district = district;
+      stride = (districts.districts() + 1) * CATEGORIES;
+    }
+
+    @Override
+    public void record(byte[] b, int offset, int length, long position) {
+      if (scanner.scan(b, offset, length) > 14) {
+        int category = scanner.indexOf(5, primary);
+        if (category >= 0 && scanner.isDigits(13)) {
+          int rowDistrict = districts.districtOf(scanner.parseInt(13));
+          if (rowDistrict != 0 && (district == 0 || district == rowDistrict)) {
+            int day;
+            try {
+              day = scanner.parseDay(2);
+            }
+            catch (NumberFormatException e) {
+              return;
+            }
+            cover(day, day);
+            ++counts[(day - firstDay) * stride + rowDistrict * CATEGORIES + category];
+          }
+        }
+      }
+    }
+
+    /**
+     * Grow the range of days to hold [from, to].
+     */
+    private void cover(int from, int to) {
+      if (days == 0) {
+        firstDay = from;
+        days = to - from + 1;
+        counts = new int[days * stride];
+        return;
+      }
+      if (from >= firstDay && to < firstDay + days) {
+        return;
+      }
+      int first = Math.min(from, firstDay);
+      int last = Math.max(to, firstDay + days - 1);
+      // leave room to grow by a year either way
+      int newFirst = from < firstDay ? first - 366 : first;
+      int newDays = (to >= firstDay + days ? last + 366 : last) - newFirst + 1;
+      int[] grown = new int[newDays * stride];
+      System.arraycopy(counts, 0, grown, (firstDay - newFirst) * stride, days * stride);
+      counts = grown;
+      firstDay = newFirst;
+      days = newDays;
+    }
+
+    @Override
+    public CrimePartial merge(CrimePartial other) {
+      if (other.days == 0) {
+        return this;
+      }
+      cover(other.firstDay, other.firstDay + other.days - 1);
+      int at = (other.firstDay - firstDay) * stride;
+      for (int i = 0; i < other.counts.length; ++i) {
+        counts[at + i] += other.counts[i];
+      }
+      return this;
+    }
+  }
+
+  /**
+   * Run the CrimeReducer pipeline, writing <out>/final/district<N>-r-00000.
+   */
+  public void crime(String district, File input, File out) throws IOException {
+    DistrictTable districts = DistrictTable.load(conf);
+    int only = CrimeReducer.ALL_DISTRICTS.equalsIgnoreCase(district) ? 0 : Integer.parseInt(district);
+    File dir = create(new File(out, "final"));
+
+    CrimePartial totals = run(inputs(input, false), () -> new CrimePartial(districts, only));
+
+    Writer[] writers = new Writer[districts.districts() + 1];
+    CrimeCountsWritable result = new CrimeCountsWritable();
+    int[] row = new int[CrimeCountsWritable.CATEGORIES];
+    try {
+      for (int day = 0; day < totals.days; ++day) {
+        for (int d = 1; d < writers.length; ++d) {
+          int at = day * totals.stride + d * row.length;
+          int sum = 0;
+          for (int c = 0; c < row.length; ++c) {
+            row[c] = totals.counts[at + c];
+            sum += row[c];
+          }
+          if (sum == 0) {
+            continue;
+          }
+          if (writers[d] == null) {
+            writers[d] = writer(new File(dir, "district" + d + "-r-00000"));
+          }
+          result.clear(d);
+          result.set(row);
+          writers[d].write(CrimeReducer.districtLine(totals.firstDay + day, result));
+          writers[d].write('\n');
+        }
+      }
+    }
+    finally {
+      for (Writer w : writers) {
+        if (w != null) {
+          w.close();
+        }
+      }
+    }
+    success(dir);
+  }
+
+
+  /**
+   * Daily weather aggregates over a growing range of days, the partial
+   * aggregate of WeatherReducer.ParceWeather and CombineWeather.
+   */
+  static class WeatherPartial implements Partial<WeatherPartial> {
+
+    private static final int[] INDICIES = {10, 14, 17, 16};
+
+    private final CsvScanner line = new CsvScanner(18);
+
+    int firstDay;
+    int days;
+    WeatherStats stats = new WeatherStats(0);
+    boolean[] seen = new boolean[0];
+
+    @Override
+    public void record(byte[] b, int offset, int length, long position) {
+      line.scan(b, offset, length);
+      int day;
+      try {
+        day = line.parseDay(5);
+      }
+      catch (NumberFormatException e) {
+        return;
+      }
+      cover(day, day);
+      int slot = day - firstDay;
+      seen[slot] = true;
+      for (int i = 0; i < INDICIES.length; ++i) {
+        double item = line.parseNumber(INDICIES[i]);
+        if (!Double.isNaN(item)) {
+          stats.add(slot, i, item);
+        }
+      }
+    }
+
+    private void cover(int from, int to) {
+      if (days > 0 && from >= firstDay && to < firstDay + days) {
+        return;
+      }
+      int newFirst;
+      int newDays;
+      if (days == 0) {
+        newFirst = from;
+        newDays = to - from + 1;
+      }
+      else {
+        int first = Math.min(from, firstDay);
+        int last = Math.max(to, firstDay + days - 1);
+        newFirst = from < firstDay ? first - 366 : first;
+        newDays = (to >= firstDay + days ? last + 366 : last) - newFirst + 1;
+      }
+      WeatherStats grown = new WeatherStats(newDays);
+      boolean[] grownSeen = new boolean[newDays];
+      for (int slot = 0; slot < days; ++slot) {
+        if (seen[slot]) {
+          grown.merge(firstDay + slot - newFirst, stats, slot);
+          grownSeen[firstDay + slot - newFirst] = true;
+        }
+      }
+      stats = grown;
+      seen = grownSeen;
+      firstDay = newFirst;
+      days = newDays;
+    }
+
+    @Override
+    public WeatherPartial merge(WeatherPartial other) {
+      if (other.days == 0) {
+        return this;
+      }
+      cover(other.firstDay, other.firstDay + other.days - 1);
+      for (int slot = 0; slot < other.days; ++slot) {
+        if (other.seen[slot]) {
+          int to = other.firstDay + slot - firstDay;
+          stats.merge(to, other.stats, slot);
+          seen[to] = true;
+        }
+      }
+      return this;
+    }
+  }
+
+  /**
+   * Run the WeatherReducer pipeline, writing <out>/part-r-00000.
+   */
+  public void weather(File input, File out) throws IOException {
+    boolean withStats = conf.getBoolean(WeatherReducer.STATS_KEY, false);
+    create(out);
+
+    WeatherPartial totals = run(inputs(input, true), WeatherPartial::new);
+
+    try (Writer w = writer(new File(out, "part-r-00000"))) {
+      for (int slot = 0; slot < totals.days; ++slot) {
+        if (totals.seen[slot]) {
+          w.write(WeatherReducer.line(totals.firstDay + slot, totals.stats, slot, withStats));
+          w.write('\n');
+        }
+      }
+    }
+    success(out);
+  }
+
+
+  /**
+   * Run the CrimeWeatherAgg reduce side join, writing <out>/part-r-00000,
+   * or <out>/wc<N>-r-00000 with join.output=district.
+   */
+  public void join(File out, File crimeInput, File weatherInput) throws IOException {
+    String output = conf.get(CrimeWeatherAgg.OUTPUT_KEY, CrimeWeatherAgg.OUTPUT_SINGLE);
+    if (!output.equals(CrimeWeatherAgg.OUTPUT_SINGLE) && !output.equals(CrimeWeatherAgg.OUTPUT_DISTRICT)) {
+      throw new IllegalArgumentException("The local engine writes the single or district join output");
+    }
+    create(out);
+
+    // Both sides are small, each file is parsed by a task of its own
+    List<Future<List<DayRow>>> weatherFiles = new ArrayList<Future<List<DayRow>>>();
+    for (File file : inputs(weatherInput, false)) {
+      weatherFiles.add(pool.submit(() -> readWeather(file)));
+    }
+    List<Future<List<DayRow>>> crimeFiles = new ArrayList<Future<List<DayRow>>>();
+    for (File file : inputs(crimeInput, false)) {
+      crimeFiles.add(pool.submit(() -> readCrime(file)));
+    }
+
+    // The first weather row of a date is used, as in Reducer1
+    Map<Integer, DayRow> weather = new HashMap<Integer, DayRow>();
+    for (DayRow row : collect(weatherFiles)) {
+      weather.putIfAbsent(row.day, row);
+    }
+    List<DayRow> crime = collect(crimeFiles);
+    crime.sort((a, b) -> {
+      int c = Integer.compare(a.day, b.day);
+      return c != 0 ? c : Integer.compare(a.crime.getDistrict(), b.crime.getDistrict());
+    });
+
+    Map<String, Writer> writers = new HashMap<String, Writer>();
+    try {
+      if (output.equals(CrimeWeatherAgg.OUTPUT_SINGLE)) {
+        writers.put("part", writer(new File(out, "part-r-00000")));
+      }
+      for (DayRow row : crime) {
+        DayRow w = weather.get(row.day);
+        if (w == null) {
+          continue;
+        }
+        CrimeCountsWritable counts = row.crime;
+        String name = output.equals(CrimeWeatherAgg.OUTPUT_SINGLE) ? "part" : "wc" + counts.getDistrict();
+        Writer writer = writers.get(name);
+        if (writer == null) {
+          writer = writer(new File(out, name + "-r-00000"));
+          writers.put(name, writer);
+        }
+        writer.write(CrimeWeatherAgg.joinLine(row.day, w.weather, w.weatherCounts, counts));
+        writer.write('\n');
+      }
+    }
+    finally {
+      for (Writer w : writers.values()) {
+        w.close();
+      }
+    }
+    success(out);
+  }
+
+  /**
+   * Run CrimeWeatherFeatures over joined rows, writing <out>/wc<N>-r-00000
+   * and <out>/_columns.csv.
+   *
+   * When each file is the wc<N> file of its own district, as the district
+   * join writes them, every file is streamed through a window of its own
+   * as it is read.  Otherwise the rows are read whole and visited by
+   * district then date, the first row of a date kept as in the reducer.
+   */
+  public void features(File joinInput, File out) throws IOException {
+    create(out);
+
+    List<File> files = inputs(joinInput, false);
+    if (!streamFeatures(files, out)) {
+      sortedFeatures(files, out);
+    }
+
+    try (Writer w = writer(new File(out, CrimeWeatherFeatures.COLUMNS))) {
+      w.write(FeatureWindow.create(conf).header());
+      w.write('\n');
+    }
+    success(out);
+  }
+
+  /** Name of a file of the district join output. */
+  private static final Pattern DISTRICT_FILE = Pattern.compile("wc(\\d+)-[mr]-\\d+");
+
+  /**
+   * Stream each file of the district layout through a window of its own.
+   *
+   * @return false, with nothing written, unless each file holds its own
+   *         district in date order
+   */
+  private boolean streamFeatures(List<File> files, File out) throws IOException {
+    Map<Integer, File> byDistrict = new HashMap<Integer, File>();
+    for (File file : files) {
+      Matcher m = DISTRICT_FILE.matcher(file.getName());
+      if (!m.matches() || byDistrict.put(Integer.valueOf(m.group(1)), file) != null) {
+        return false;
+      }
+    }
+    List<Future<Boolean>> tasks = new ArrayList<Future<Boolean>>();
+    for (Map.Entry<Integer, File> e : byDistrict.entrySet()) {
+      tasks.add(pool.submit(() -> streamDistrict(e.getValue(), e.getKey(), out)));
+    }
+    boolean sorted = true;
+    for (Future<Boolean> task : tasks) {
+      sorted &= collect(task);
+    }
+    if (!sorted) {
+      for (int district : byDistrict.keySet()) {
+        File target = new File(out, "wc" + district + "-r-00000");
+        if (target.exists() && !target.delete()) {
+          throw new IOException("Could not delete " + target);
+        }
+      }
+    }
+    return sorted;
+  }
+
+  /**
+   * Stream the rows of one district in date order through a window.
+   *
+   * @return false if the file holds another district or a date before
+   *         one already read
+   */
+  private boolean streamDistrict(File file, int district, File out) throws IOException {
+    FeatureWindow window = FeatureWindow.create(conf);
+    double[] wx = new double[WeatherStats.FIELDS];
+    CrimeCountsWritable counts = new CrimeCountsWritable();
+    Writer writer = null;
+    boolean sorted = true;
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+      int lastDay = Integer.MIN_VALUE;
+      String line;
+      while (sorted && (line = in.readLine()) != null) {
+        int day;
+        try {
+          day = CrimeWeatherFeatures.parseJoined(line, wx, counts);
+        }
+        catch (NumberFormatException e) {
+          continue;
+        }
+        sorted = counts.getDistrict() == district && day >= lastDay;
+        lastDay = day;
+        // a repeated date is skipped
+        String row = sorted ? window.add(day, wx, counts) : null;
+        if (row != null) {
+          if (writer == null) {
+            writer = writer(new File(out, "wc" + district + "-r-00000"));
+          }
+          writer.write(row);
+          writer.write('\n');
+        }
+      }
+    }
+    finally {
+      if (writer != null) {
+        writer.close();
+      }
+    }
+    return sorted;
+  }
+
+  /**
+   * Read the rows of the files whole and visit them by district then date,
+   * sorting their primitive keys rather than the rows.
+   */
+  private void sortedFeatures(List<File> files, File out) throws IOException {
+    List<Future<List<DayRow>>> reads = new ArrayList<Future<List<DayRow>>>();
+    for (File file : files) {
+      reads.add(pool.submit(() -> readJoined(file)));
+    }
+    List<DayRow> rows = collect(reads);
+    if (rows.isEmpty()) {
+      return;
+    }
+
+    // The first row of each district and date, in the order read
+    LongIndexMap firsts = new LongIndexMap(rows.size());
+    int[] rowOf = new int[rows.size()];
+    for (int i = 0; i < rows.size(); ++i) {
+      DayRow row = rows.get(i);
+      int before = firsts.size();
+      int k = firsts.indexOf(CrimeWeatherFeatures.key(row.crime.getDistrict(), row.day));
+      if (firsts.size() > before) {
+        rowOf[k] = i;
+      }
+    }
+    long[] keys = new long[firsts.size()];
+    for (int k = 0; k < keys.length; ++k) {
+      keys[k] = firsts.keyAt(k);
+    }
+    Arrays.sort(keys);
+
+    FeatureWindow window = FeatureWindow.create(conf);
+    Writer writer = null;
+    int district = -1;
+    try {
+      for (long key : keys) {
+        DayRow row = rows.get(rowOf[firsts.indexOf(key)]);
+        if (row.crime.getDistrict() != district) {
+          if (writer != null) {
+            writer.close();
+          }
+          district = row.crime.getDistrict();
+          writer = writer(new File(out, "wc" + district + "-r-00000"));
+          window.reset();
+        }
+        // each date comes once, so every row is written
+        writer.write(window.add(row.day, row.weather, row.crime));
+        writer.write('\n');
+      }
+    }
+    finally {
+      if (writer != null) {
+        writer.close();
+      }
+    }
+  }
+
+  /**
+   * @return the day, weather and crime of each daily joined row
+   */
+  private static List<DayRow> readJoined(File file) throws IOException {
+    List<DayRow> rows = new ArrayList<DayRow>();
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        double[] wx = new double[WeatherStats.FIELDS];
+        CrimeCountsWritable counts = new CrimeCountsWritable();
+        try {
+          rows.add(new DayRow(CrimeWeatherFeatures.parseJoined(line, wx, counts), wx, null, counts));
+        }
+        catch (NumberFormatException e) {
+          continue;
+        }
+      }
+    }
+    return rows;
+  }
+
+  private static <T> T collect(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    }
+    catch (Exception e) {
+      throw new IOException(e.getCause() != null ? e.getCause() : e);
+    }
+  }
+
+  private static <T> List<T> collect(List<Future<List<T>>> futures) throws IOException {
+    List<T> all = new ArrayList<T>();
+    for (Future<List<T>> f : futures) {
+      all.addAll(collect(f));
+    }
+    return all;
+  }
+
+  /**
+   * @return the day, weather and counts or null of each weather row, as CrimeWeatherAgg.WeatherMapper parses them
+   */
+  private static List<DayRow> readWeather(File file) throws IOException {
+    List<DayRow> rows = new ArrayList<DayRow>();
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] inputSplit = line.split(",");
+        if (inputSplit.length > 4) {
+          int day;
+          try {
+            day = DayKey.parse(inputSplit[0]);
+          }
+          catch (NumberFormatException e) {
+            continue;
+          }
+          double[] wx = new double[WeatherStats.FIELDS];
+          for (int i = 1; i < 5; i++) {
+            wx[i - 1] = WeatherStats.parse(inputSplit[i]);
+          }
+          int[] counts = null;
+          if (inputSplit.length > 8) {
+            counts = new int[WeatherStats.FIELDS];
+            for (int i = 5; i < 9; i++) {
+              counts[i - 5] = Integer.parseInt(inputSplit[i]);
+            }
+          }
+          rows.add(new DayRow(day, wx, counts, null));
+        }
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * @return the day and crime of each crime district row
+   */
+  private static List<DayRow> readCrime(File file) throws IOException {
+    List<DayRow> rows = new ArrayList<DayRow>();
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        CrimeCountsWritable counts = new CrimeCountsWritable();
+        try {
+          rows.add(new DayRow(CrimeWeatherAgg.parseCrime(line, counts), null, null, counts));
+        }
+        catch (NumberFormatException e) {
+          continue;
+        }
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Driver method for the LocalEngine class.
+   */
+  public static void main(String[] args) throws Exception {
+    Configuration conf = new Configuration();
+    args = new GenericOptionsParser(conf, args).getRemainingArgs();
+    String usage = "USAGE: [-D key=value] crime <district | all> <input> <out>\n"
+        + "       [-D key=value] weather <input> <out>\n"
+        + "       [-D key=value] join <out> <crime> <weather>\n"
+        + "       [-D key=value] all <crime input> <weather input> <out>\n"
+        + "       [-D key=value] features <join> <out>";
+    if (args.length < 1) {
+      System.err.println(usage);
+      System.exit(2);
+    }
+
+    LocalEngine engine = new LocalEngine(conf);
+    long start = System.currentTimeMillis();
+    try {
+      if (args[0].equals("crime") && args.length == 4) {
+        engine.crime(args[1], new File(args[2]), new File(args[3]));
+      }
+      else if (args[0].equals("weather") && args.length == 3) {
+        engine.weather(new File(args[1]), new File(args[2]));
+      }
+      else if (args[0].equals("join") && args.length == 4) {
+        engine.join(new File(args[1]), new File(args[2]), new File(args[3]));
+      }
+      else if (args[0].equals("features") && args.length == 3) {
+        engine.features(new File(args[1]), new File(args[2]));
+      }
+      else if (args[0].equals("all") && args.length == 4) {
+        File out = new File(args[3]);
+        engine.crime(CrimeReducer.ALL_DISTRICTS, new File(args[1]), new File(out, "crime"));
+        engine.weather(new File(args[2]), new File(out, "weather"));
+        engine.join(new File(out, "join"), new File(out, "crime/final"), new File(out, "weather"));
+      }
+      else {
+        System.err.println(usage);
+        System.exit(2);
+      }
+    }
+    finally {
+      engine.pool.shutdown();
+    }
+    System.err.println("Done in " + (System.currentTimeMillis() - start) + " ms");
+    StringBuilder counts = new StringBuilder();
+    for (CsvInputFormat.Records r : CsvInputFormat.Records.values()) {
+      long n = engine.records[r.ordinal()];
+      if (n != 0) {
+        counts.append(' ').append(r).append('=').append(n);
+      }
+    }
+    if (counts.length() > 0) {
+      System.err.println("Csv records:" + counts);
+    }
+  }
+}
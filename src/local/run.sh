@@ -0,0 +1,10 @@
+#!/bin/bash
+
+# compile along with the jobs whose output it reproduces, then run all three pipelines on local files
+rm *.class ||: \
+&& javac -cp "$(/usr/local/hadoop/bin/hadoop classpath)" -sourcepath ../common:../crime:../weather:../aggregator -d . ./LocalEngine.java \
+&& rm -rf ./out \
+&& java -cp ".:$(/usr/local/hadoop/bin/hadoop classpath)" LocalEngine all ./data/crime ./data/weather ./out
+
+# the training matrix of each district from the joined rows
+#java -cp ".:$(/usr/local/hadoop/bin/hadoop classpath)" LocalEngine features ./out/join ./out/features
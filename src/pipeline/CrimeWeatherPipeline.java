@@ -0,0 +1,388 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+
+/**
+ * The CrimeWeatherPipeline class runs the crime, weather and join jobs
+ * as one DAG instead of one script after the other.  The crime job
+ * counts every district in a single scan and runs alongside the weather
+ * job, the join is configured and submitted once both have succeeded,
+ * so the pipeline takes as long as its longest branch.
+ *
+ * USAGE: CrimeWeatherPipeline [-D key=value] <Crimeinput> <Weatherinput> <Workdirectory>
+ *
+ * The outputs are <work>/crime/final, <work>/weather and <work>/join.
+ * Any -D option is passed to the three jobs, -D pipeline.<stage>.<key>=<value>
+ * to the crime, weather or join stage alone, e.g.
+ * -D pipeline.join.join.mapside=true.
+ *
+ * Each stage has a fingerprint, an MD5 of its options, the classes of
+ * its job, and either the files of its raw input or the
+ * fingerprints of the stages it reads.  A file counts by its path,
+ * length and the checksum its FileSystem keeps, such as the block CRCs
+ * of HDFS, or its modification time where there is none, so no raw data
+ * is read to decide.  A stage whose output holds _SUCCESS and the same
+ * fingerprint in _fingerprint is skipped, so rerunning after a join only
+ * change runs the join alone.  The shared classes under common are not
+ * part of the fingerprint, after changing them pass
+ * -D pipeline.force=all, or a list of stages to rerun along with the
+ * stages reading them.
+ */
+
+public class CrimeWeatherPipeline {
+
+  /** Configuration key of the stages to run whatever their fingerprint, or all. */
+  public static final String FORCE_KEY = "pipeline.force";
+
+  /** Prefix of the options of the pipeline and of a single stage. */
+  public static final String PREFIX = "pipeline.";
+
+  /** Name of the fingerprint file under the output of a stage. */
+  public static final String FINGERPRINT = "_fingerprint";
+
+  /**
+   * Configures the job of a stage from its options and arguments, as the
+   * createJob() of each job does.
+   */
+  interface JobFactory {
+    Job create(Configuration conf, String[] args) throws IOException;
+  }
+
+  enum State {
+    WAITING, RUNNING, SUCCEEDED, FAILED
+  }
+
+  /**
+   * A job of the pipeline, run unless its output is up to date.  The job
+   * is only configured once the stages it reads have succeeded, as its
+   * configuration may depend on their outputs.
+   */
+  public static class Stage {
+    final String name;
+    final Configuration conf;
+    final JobFactory factory;
+    final String[] args;
+    final Path output;
+    final String fingerprint;
+    final boolean skipped;
+    final List<Stage> dependencies;
+    Job job;
+    State state;
+
+    Stage(String name, Configuration conf, JobFactory factory, String[] args, Path output,
+          String fingerprint, boolean skipped, Stage... dependencies) {
+      this.name = name;
+      this.conf = conf;
+      this.factory = factory;
+      this.args = args;
+      this.output = output;
+      this.fingerprint = fingerprint;
+      this.skipped = skipped;
+      this.dependencies = Arrays.asList(dependencies);
+      state = skipped ? State.SUCCEEDED : State.WAITING;
+    }
+  }
+
+  private final Configuration conf;
+
+  public CrimeWeatherPipeline(Configuration conf) {
+    this.conf = conf;
+    if (IncrementalOutput.isEnabled(conf)) {
+      // The join would read outputs still being merged
+      throw new IllegalArgumentException("The pipeline has no incremental mode, unchanged stages are skipped instead");
+    }
+  }
+
+  /**
+   * @return the configuration of a stage, the -D options with those given
+   *         for the stage alone in place and no pipeline options left
+   */
+  Configuration stageConf(String name) {
+    Configuration stage = new Configuration(conf);
+    String own = PREFIX + name + ".";
+    List<String> pipeline = new ArrayList<String>();
+    for (Map.Entry<String, String> e : conf) {
+      if (e.getKey().startsWith(PREFIX)) {
+        pipeline.add(e.getKey());
+      }
+    }
+    for (String key : pipeline) {
+      if (key.startsWith(own)) {
+        stage.set(key.substring(own.length()), conf.get(key));
+      }
+      stage.unset(key);
+    }
+    return stage;
+  }
+
+  /**
+   * Plan a stage and decide whether it must run.
+   *
+   * @param output where the job of the stage writes its rows
+   * @param inputs raw input files of the stage, read with its fingerprint
+   */
+  Stage stage(String name, JobFactory factory, String[] args, Path output, Class<?> jobClass,
+              Path[] inputs, Stage... dependencies) throws IOException {
+    Configuration stageConf = stageConf(name);
+    MessageDigest md = md5();
+    update(md, name);
+    for (String arg : args) {
+      update(md, arg);
+    }
+    TreeMap<String, String> sorted = new TreeMap<String, String>();
+    for (Map.Entry<String, String> e : stageConf) {
+      sorted.put(e.getKey(), e.getValue());
+    }
+    for (Map.Entry<String, String> e : sorted.entrySet()) {
+      update(md, e.getKey());
+      update(md, e.getValue());
+    }
+    addClasses(md, jobClass);
+    for (Path input : inputs) {
+      addFiles(md, input);
+    }
+    for (Stage d : dependencies) {
+      update(md, d.fingerprint);
+    }
+    String fingerprint = new MD5Hash(md.digest()).toString();
+
+    // A stage reading one that runs runs too, its input may change
+    List<String> force = Arrays.asList(conf.getTrimmedStrings(FORCE_KEY));
+    boolean forced = force.contains("all") || force.contains(name);
+    for (Stage d : dependencies) {
+      forced |= !d.skipped;
+    }
+    boolean skipped = !forced && fingerprint.equals(readFingerprint(output));
+    return new Stage(name, stageConf, factory, args, output, fingerprint, skipped, dependencies);
+  }
+
+  private static MessageDigest md5() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void update(MessageDigest md, String s) {
+    md.update(s.getBytes(StandardCharsets.UTF_8));
+    md.update((byte) 0);
+  }
+
+  /**
+   * Add the bytecode of a job class and of the mappers and reducers nested in it.
+   */
+  private static void addClasses(MessageDigest md, Class<?> c) throws IOException {
+    String resource = c.getName().replace('.', '/') + ".class";
+    try (InputStream in = c.getClassLoader().getResourceAsStream(resource)) {
+      if (in == null) {
+        throw new IOException("Cannot read the class file of " + c.getName());
+      }
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        md.update(buffer, 0, n);
+      }
+    }
+    Class<?>[] nested = c.getDeclaredClasses();
+    Arrays.sort(nested, (a, b) -> a.getName().compareTo(b.getName()));
+    for (Class<?> n : nested) {
+      addClasses(md, n);
+    }
+  }
+
+  /**
+   * Add the path, length and checksum of each file under an input, in
+   * path order and leaving out hidden files as FileInputFormat does.
+   */
+  private void addFiles(MessageDigest md, Path input) throws IOException {
+    FileSystem fs = input.getFileSystem(conf);
+    TreeMap<String, LocatedFileStatus> files = new TreeMap<String, LocatedFileStatus>();
+    RemoteIterator<LocatedFileStatus> it = fs.listFiles(input, true);
+    while (it.hasNext()) {
+      LocatedFileStatus file = it.next();
+      String name = file.getPath().getName();
+      if (!name.startsWith("_") && !name.startsWith(".")) {
+        files.put(file.getPath().toString(), file);
+      }
+    }
+    for (LocatedFileStatus file : files.values()) {
+      update(md, file.getPath().toString());
+      update(md, Long.toString(file.getLen()));
+      FileChecksum checksum = fs.getFileChecksum(file.getPath());
+      if (checksum != null) {
+        md.update(checksum.getBytes());
+      }
+      else {
+        update(md, Long.toString(file.getModificationTime()));
+      }
+    }
+  }
+
+  /**
+   * @return the fingerprint of the last successful run into an output, or null
+   */
+  private String readFingerprint(Path output) throws IOException {
+    FileSystem fs = output.getFileSystem(conf);
+    Path file = new Path(output, FINGERPRINT);
+    if (!fs.exists(new Path(output, FileOutputCommitter.SUCCEEDED_FILE_NAME)) || !fs.exists(file)) {
+      return null;
+    }
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(file), StandardCharsets.UTF_8))) {
+      return in.readLine();
+    }
+  }
+
+  private void writeFingerprint(Stage stage) throws IOException {
+    Path file = new Path(stage.output, FINGERPRINT);
+    try (BufferedWriter out = new BufferedWriter(
+        new OutputStreamWriter(file.getFileSystem(conf).create(file, true), StandardCharsets.UTF_8))) {
+      out.write(stage.fingerprint);
+      out.write('\n');
+    }
+  }
+
+  /**
+   * Plan the three stages on <crime> <weather> <work>.
+   */
+  public List<Stage> plan(Path crimeIn, Path weatherIn, Path work) throws IOException {
+    Path crime = new Path(work, "crime");
+    Path weather = new Path(work, "weather");
+    Path join = new Path(work, "join");
+
+    // The crime job writes its rows under <output>/final
+    Stage crimeStage = stage("crime", CrimeReducer::createJob,
+        new String[] {CrimeReducer.ALL_DISTRICTS, crimeIn.toString(), crime.toString()},
+        new Path(crime, "final"), CrimeReducer.class, new Path[] {crimeIn});
+    Stage weatherStage = stage("weather", WeatherReducer::createJob,
+        new String[] {weatherIn.toString(), weather.toString()},
+        weather, WeatherReducer.class, new Path[] {weatherIn});
+    Stage joinStage = stage("join", CrimeWeatherAgg::createJob,
+        new String[] {join.toString(), crimeStage.output.toString(), weather.toString()},
+        join, CrimeWeatherAgg.class, new Path[0], crimeStage, weatherStage);
+    return Arrays.asList(crimeStage, weatherStage, joinStage);
+  }
+
+  /**
+   * Run the stages that are not up to date, each as soon as those it
+   * reads have succeeded.
+   *
+   * @return true if every stage run succeeded
+   */
+  public boolean run(List<Stage> stages) throws Exception {
+    long start = System.nanoTime();
+    for (Stage stage : stages) {
+      if (stage.skipped) {
+        System.err.println("# " + stage.name + " is up to date in " + stage.output);
+      }
+      else {
+        stage.output.getFileSystem(conf).delete(stage.output, true);
+      }
+    }
+
+    boolean success = true;
+    while (true) {
+      boolean pending = false;
+      for (Stage stage : stages) {
+        success &= advance(stage, start);
+        pending |= stage.state == State.WAITING || stage.state == State.RUNNING;
+      }
+      if (!pending) {
+        break;
+      }
+      Thread.sleep(conf.getInt(Job.COMPLETION_POLL_INTERVAL_KEY, 5000));
+    }
+    System.err.println("# pipeline took " + (System.nanoTime() - start) / 1000000 + " ms");
+    return success;
+  }
+
+  /**
+   * Submit a waiting stage once the stages it reads have succeeded, and
+   * write the metrics and fingerprint of a running one once it has
+   * succeeded, or say why it failed.
+   *
+   * @return false if the stage failed just now
+   */
+  private boolean advance(Stage stage, long start) throws IOException, InterruptedException {
+    switch (stage.state) {
+      case WAITING:
+        for (Stage d : stage.dependencies) {
+          if (d.state == State.FAILED) {
+            stage.state = State.FAILED;
+            System.err.println("# " + stage.name + " failed: " + d.name + " failed");
+            return false;
+          }
+          if (d.state != State.SUCCEEDED) {
+            return true;
+          }
+        }
+        // Configured only now, from the outputs of the stages it reads
+        try {
+          stage.job = stage.factory.create(stage.conf, stage.args);
+          stage.job.setJobName(stage.name);
+          stage.job.submit();
+        }
+        catch (IOException | ClassNotFoundException | RuntimeException e) {
+          stage.state = State.FAILED;
+          System.err.println("# " + stage.name + " failed: " + e);
+          return false;
+        }
+        stage.state = State.RUNNING;
+        return true;
+      case RUNNING:
+        if (!stage.job.isComplete()) {
+          return true;
+        }
+        if (stage.job.isSuccessful()) {
+          stage.state = State.SUCCEEDED;
+          TaskMetrics.writeSummary(stage.job);
+          writeFingerprint(stage);
+          System.err.println("# " + stage.name + " done after " + (System.nanoTime() - start) / 1000000 + " ms");
+          return true;
+        }
+        stage.state = State.FAILED;
+        System.err.println("# " + stage.name + " failed: " + stage.job.getStatus().getFailureInfo());
+        return false;
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Driver method for the CrimeWeatherPipeline class.
+   */
+  public static void main(String[] args) throws Exception {
+    Configuration conf = new Configuration();
+    args = new GenericOptionsParser(conf, args).getRemainingArgs();
+    if (args.length != 3) {
+      System.err.println("USAGE: [-D key=value] <Crimeinput> <Weatherinput> <Workdirectory>");
+      System.exit(2);
+    }
+    CrimeWeatherPipeline pipeline = new CrimeWeatherPipeline(conf);
+    boolean success = pipeline.run(pipeline.plan(new Path(args[0]), new Path(args[1]), new Path(args[2])));
+    System.exit(success ? 0 : 1);
+  }
+}
@@ -0,0 +1,15 @@
+#!/bin/bash
+
+# compile along with the three jobs, then run them as one DAG: crime and weather side by side, the join after both.
+# Stages whose inputs, options and job classes are unchanged since their last run are skipped, so outputs are kept.
+rm *.class ||: \
+&& /usr/local/hadoop/bin/hadoop com.sun.tools.javac.Main -sourcepath ../common:../crime:../weather:../aggregator -d . ./CrimeWeatherPipeline.java \
+&& jar cf CrimeWeatherPipeline.jar *.class \
+&& /usr/local/hadoop/bin/hadoop jar ./CrimeWeatherPipeline.jar CrimeWeatherPipeline /tmp/data/crime /tmp/data/weather /tmp/out/pipeline
+#&& /usr/local/hadoop/bin/hadoop fs -cat /tmp/out/pipeline/join/*
+
+# Options for one stage only, here a map side join, rerun the join alone:
+#/usr/local/hadoop/bin/hadoop jar ./CrimeWeatherPipeline.jar CrimeWeatherPipeline -D pipeline.join.join.mapside=true /tmp/data/crime /tmp/data/weather /tmp/out/pipeline
+
+# After changing the classes in ../common, rerun everything:
+#/usr/local/hadoop/bin/hadoop jar ./CrimeWeatherPipeline.jar CrimeWeatherPipeline -D pipeline.force=all /tmp/data/crime /tmp/data/weather /tmp/out/pipeline
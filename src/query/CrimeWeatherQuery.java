@@ -0,0 +1,399 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+
+/**
+ * The CrimeWeatherQuery class answers filter and group by questions over
+ * the joined daily rows of CrimeWeatherAgg on a single machine, without a
+ * Hadoop job.  The rows {Date,Wx1,Wx2,Wx3,Wx4,District,C1,...,C8} are
+ * loaded once into primitive column arrays, from the memory mapped
+ * ColumnarTable partitions of -D output.format=columnar or else from the
+ * part/wc files, plain or compressed text or SequenceFiles as
+ * RowInputFormat reads them, and each query is a scan over a few of the
+ * arrays.
+ *
+ * USAGE: CrimeWeatherQuery <joined output directory> [options]
+ *
+ *  -district N[,N...]  districts to keep, all by default
+ *  -years FROM[-TO]    years to keep, all by default
+ *  -crime NAME|all     category to count, e.g. THEFT or MOTOR_VEHICLE_THEFT, all by default
+ *  -by GROUP           none, year, month, weekday, district, temperature,
+ *                      dewpoint, wind or humidity, none by default
+ *  -bucket WIDTH       width of the weather groups, 10 by default
+ *
+ * e.g. theft counts by temperature in district 3 for 2010-2015:
+ *
+ *  CrimeWeatherQuery aggOut -district 3 -years 2010-2015 -crime THEFT -by temperature -bucket 10
+ *
+ * Without options a query is read from each line of standard input.
+ * Output rows are {Group,Days,Crimes,CrimesPerDay}, with the time taken
+ * by the scan written to standard error.
+ */
+
+public class CrimeWeatherQuery {
+
+  public static final String[] GROUPS = {"none", "year", "month", "weekday", "district",
+      "temperature", "dewpoint", "wind", "humidity"};
+
+  private static final int WEATHER_GROUP = 5;
+
+  private static final String[] WEEKDAYS = {"Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"};
+
+  /**
+   * The joined rows held column by column.
+   */
+  public static class Table {
+
+    int rows;
+    int districts = DistrictTable.defaults().districts();
+    int[] day = new int[1024];
+    short[] year = new short[1024];
+    byte[] month = new byte[1024];
+    short[] district = new short[1024];
+    float[][] weather = new float[WeatherStats.FIELDS][1024];
+    short[][] crime = new short[CrimeCountsWritable.CATEGORIES][1024];
+
+    public int rows() {
+      return rows;
+    }
+
+    /**
+     * @return highest district of the built in district table or of the rows
+     */
+    public int districts() {
+      return districts;
+    }
+
+    private void add(int d, double[] w, int dist, int[] counts) {
+      if (rows == day.length) {
+        int n = rows * 2;
+        day = Arrays.copyOf(day, n);
+        year = Arrays.copyOf(year, n);
+        month = Arrays.copyOf(month, n);
+        district = Arrays.copyOf(district, n);
+        for (int i = 0; i < weather.length; ++i) {
+          weather[i] = Arrays.copyOf(weather[i], n);
+        }
+        for (int i = 0; i < crime.length; ++i) {
+          crime[i] = Arrays.copyOf(crime[i], n);
+        }
+      }
+      int[] ymd = DayKey.toCivil(d);
+      day[rows] = d;
+      year[rows] = (short) ymd[0];
+      month[rows] = (byte) ymd[1];
+      district[rows] = (short) dist;
+      districts = Math.max(districts, dist);
+      for (int i = 0; i < weather.length; ++i) {
+        weather[i][rows] = (float) w[i];
+      }
+      for (int i = 0; i < crime.length; ++i) {
+        crime[i][rows] = (short) counts[i];
+      }
+      ++rows;
+    }
+
+    /**
+     * Load the joined output under a directory, the columnar partitions if
+     * there are any, otherwise every file of rows not starting with _ or .
+     *
+     * @throws IOException if no joined row was found
+     */
+    public static Table load(File dir) throws IOException {
+      if (!dir.exists()) {
+        throw new IOException(dir + " does not exist");
+      }
+      Table table = new Table();
+      double[] w = new double[WeatherStats.FIELDS];
+      int[] counts = new int[CrimeCountsWritable.CATEGORIES];
+
+      List<File> partitions = ColumnarTable.partitions(dir, 0, 9999);
+      if (!partitions.isEmpty()) {
+        for (File file : partitions) {
+          ColumnarTable columns = ColumnarTable.open(file);
+          if (!columns.hasWeather() || !columns.hasCrime()) {
+            throw new IOException(file + " does not hold joined rows");
+          }
+          for (int r = 0; r < columns.rows(); ++r) {
+            for (int i = 0; i < w.length; ++i) {
+              w[i] = columns.weather(r, i);
+            }
+            for (int i = 0; i < counts.length; ++i) {
+              counts[i] = columns.crime(r, i);
+            }
+            table.add(columns.day(r), w, columns.district(r), counts);
+          }
+        }
+        return table;
+      }
+
+      List<File> files = new ArrayList<File>();
+      listText(dir, files);
+      Configuration conf = new Configuration();
+      for (File file : files) {
+        try (BufferedReader in = RowInputFormat.open(conf, new Path(file.toURI()))) {
+          String line;
+          while ((line = in.readLine()) != null) {
+            String[] split = line.split(",");
+            // joined rows, optionally followed by the weather observation counts
+            if (split.length != 14 && split.length != 18) {
+              continue;
+            }
+            try {
+              int d = DayKey.parse(split[0]);
+              for (int i = 0; i < w.length; ++i) {
+                w[i] = WeatherStats.parse(split[i + 1]);
+              }
+              int dist = Integer.parseInt(split[5]);
+              for (int i = 0; i < counts.length; ++i) {
+                counts[i] = Integer.parseInt(split[i + 6]);
+              }
+              table.add(d, w, dist, counts);
+            }
+            catch (NumberFormatException e) {
+              continue;
+            }
+          }
+        }
+      }
+      if (table.rows() == 0) {
+        throw new IOException(dir + " holds no joined rows");
+      }
+      return table;
+    }
+
+    private static void listText(File dir, List<File> files) {
+      File[] children = dir.isDirectory() ? dir.listFiles() : new File[] {dir};
+      Arrays.sort(children);
+      for (File child : children) {
+        if (child.getName().startsWith("_") || child.getName().startsWith(".")) {
+          continue;
+        }
+        if (child.isDirectory()) {
+          listText(child, files);
+        }
+        else {
+          files.add(child);
+        }
+      }
+    }
+  }
+
+  /**
+   * A filter, a crime measure and a grouping, parsed from the CLI options.
+   */
+  public static class Query {
+
+    boolean[] districts;
+    int fromYear = Integer.MIN_VALUE;
+    int toYear = Integer.MAX_VALUE;
+    int crime = -1;
+    int group = 0;
+    double bucket = 10;
+
+    /**
+     * @param districts highest district a query may name
+     */
+    public static Query parse(String[] args, int from, int districts) {
+      Query q = new Query();
+      for (int i = from; i < args.length; i += 2) {
+        if (i + 1 == args.length) {
+          throw new IllegalArgumentException("Missing value of " + args[i]);
+        }
+        String value = args[i + 1];
+        switch (args[i]) {
+          case "-district":
+            q.districts = new boolean[districts + 1];
+            for (String d : value.split(",")) {
+              int district = Integer.parseInt(d);
+              if (district < 0 || district > districts) {
+                throw new IllegalArgumentException("-district must be 0.." + districts);
+              }
+              q.districts[district] = true;
+            }
+            break;
+          case "-years":
+            int dash = value.indexOf('-');
+            q.fromYear = Integer.parseInt(dash < 0 ? value : value.substring(0, dash));
+            q.toYear = dash < 0 ? q.fromYear : Integer.parseInt(value.substring(dash + 1));
+            break;
+          case "-crime":
+            q.crime = value.equalsIgnoreCase("all") ? -1 : indexOf(CrimeCountsWritable.NAMES, value.replace('_', ' '));
+            break;
+          case "-by":
+            q.group = indexOf(GROUPS, value);
+            break;
+          case "-bucket":
+            q.bucket = Double.parseDouble(value);
+            if (!(q.bucket > 0)) {
+              throw new IllegalArgumentException("-bucket must be positive");
+            }
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option " + args[i]);
+        }
+      }
+      return q;
+    }
+
+    private static int indexOf(String[] names, String name) {
+      for (int i = 0; i < names.length; ++i) {
+        if (names[i].equalsIgnoreCase(name)) {
+          return i;
+        }
+      }
+      throw new IllegalArgumentException(name + " is not one of " + Arrays.toString(names));
+    }
+
+    /**
+     * Scan the table, keeping the days and crimes of each group in dense
+     * arrays indexed from the smallest group key.
+     *
+     * @return {keys, days, crimes} of the groups with at least one row
+     */
+    public long[][] run(Table t) {
+      int[] keys = new int[t.rows];
+      int[] rows = new int[t.rows];
+      int n = 0;
+      int min = Integer.MAX_VALUE;
+      int max = Integer.MIN_VALUE;
+      for (int r = 0; r < t.rows; ++r) {
+        if (districts != null && !districts[t.district[r]]) {
+          continue;
+        }
+        if (t.year[r] < fromYear || t.year[r] > toYear) {
+          continue;
+        }
+        int key;
+        switch (group) {
+          case 0: key = 0; break;
+          case 1: key = t.year[r]; break;
+          case 2: key = t.month[r]; break;
+          case 3: key = Math.floorMod(t.day[r] + 3, 7); break;
+          case 4: key = t.district[r]; break;
+          default:
+            float w = t.weather[group - WEATHER_GROUP][r];
+            if (Float.isNaN(w)) {
+              continue;
+            }
+            key = (int) Math.floor(w / bucket);
+        }
+        keys[n] = key;
+        rows[n++] = r;
+        min = Math.min(min, key);
+        max = Math.max(max, key);
+      }
+      if (n == 0) {
+        return new long[3][0];
+      }
+
+      long[] days = new long[max - min + 1];
+      long[] crimes = new long[max - min + 1];
+      short[] counts = crime >= 0 ? t.crime[crime] : null;
+      for (int i = 0; i < n; ++i) {
+        int r = rows[i];
+        int k = keys[i] - min;
+        ++days[k];
+        if (counts != null) {
+          crimes[k] += counts[r];
+        }
+        else {
+          for (short[] c : t.crime) {
+            crimes[k] += c[r];
+          }
+        }
+      }
+
+      int groups = 0;
+      for (long d : days) {
+        if (d > 0) {
+          ++groups;
+        }
+      }
+      long[][] result = new long[3][groups];
+      for (int k = 0, g = 0; k < days.length; ++k) {
+        if (days[k] > 0) {
+          result[0][g] = k + min;
+          result[1][g] = days[k];
+          result[2][g++] = crimes[k];
+        }
+      }
+      return result;
+    }
+
+    /**
+     * @return the printed name of a group key
+     */
+    public String label(long key) {
+      switch (group) {
+        case 0: return "all";
+        case 3: return WEEKDAYS[(int) key];
+        case 1:
+        case 2:
+        case 4: return Long.toString(key);
+        default:
+          double low = key * bucket;
+          return low == Math.rint(low) ? Long.toString((long) low) : Double.toString(low);
+      }
+    }
+
+    public void print(long[][] result, PrintStream out) {
+      out.println(GROUPS[group] + ",days," + (crime < 0 ? "all" : CrimeCountsWritable.NAMES[crime]) + ",perDay");
+      for (int g = 0; g < result[0].length; ++g) {
+        out.println(label(result[0][g]) + "," + result[1][g] + "," + result[2][g] + ","
+            + (double) result[2][g] / result[1][g]);
+      }
+    }
+  }
+
+  private static void answer(Table table, String[] args, int from) {
+    Query query = Query.parse(args, from, table.districts());
+    long start = System.nanoTime();
+    long[][] result = query.run(table);
+    long micros = (System.nanoTime() - start) / 1000;
+    query.print(result, System.out);
+    System.err.println("# " + table.rows() + " rows scanned in " + micros + " us");
+  }
+
+  /**
+   * Driver method for the CrimeWeatherQuery class.
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("USAGE: <Joinedoutput> [-district N[,N...]] [-years FROM[-TO]] [-crime NAME|all]"
+          + " [-by " + String.join("|", GROUPS) + "] [-bucket WIDTH]");
+      System.exit(2);
+    }
+
+    Table table = Table.load(new File(args[0]));
+    if (args.length > 1) {
+      answer(table, args, 1);
+      return;
+    }
+
+    // One query per line, e.g. -district 3 -by month
+    BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+    String line;
+    while ((line = in.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty()) {
+        continue;
+      }
+      try {
+        answer(table, line.split("\\s+"), 0);
+      }
+      catch (IllegalArgumentException e) {
+        System.err.println(e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,7 @@
+#!/bin/bash
+
+# compile against the shared classes in ../common, no cluster is needed to run it
+rm *.class ||: \
+&& javac -cp "$(/usr/local/hadoop/bin/hadoop classpath)" -sourcepath ../common -d . ./CrimeWeatherQuery.java \
+&& rm -rf ./aggOut && /usr/local/hadoop/bin/hadoop fs -get /tmp/out/aggOut ./aggOut \
+&& java -cp ".:$(/usr/local/hadoop/bin/hadoop classpath)" CrimeWeatherQuery ./aggOut -district 3 -years 2010-2015 -crime THEFT -by temperature -bucket 10
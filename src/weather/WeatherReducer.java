@@ -12,14 +12,32 @@ import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 /**
  * The WeatherReducer class aggregates weather data
  * across multiple stations over a multi-yaer period.
+ *
+ * With weather.spatial=true the daily rows of each station N are written
+ * to _stationN-r-NNNNN as well, see StationGrid.
  */
 
 public class WeatherReducer {
 
+  /** Configuration key to append the daily count, min, max and stddev. */
+  public static final String STATS_KEY = "weather.output.stats";
+
+  /** Observation rows read by the mapper, and why those not used were skipped. */
+  public static enum Rows {
+    READ, BAD_DATE, BEFORE_SINCE, USED
+  }
+
+  /** Days written by the reducer, and those missing an attribute. */
+  public static enum Days {
+    WRITTEN, INCOMPLETE
+  }
+
   /**
    * Mapper class reads each input line by line to organize desired
    * weather attibutes per date.  These attributes in the dataset are:
@@ -29,38 +47,198 @@ public class WeatherReducer {
    *  - HOURLYWindSpeed (17)
    *  - HOURLYRelativeHumidity (16)
    *
-   * Missing values or improperly formatted values will be labeled "?"
-   * Expected output of the form <DATE  Wx1,Wx2,Wx3,Wx3>
+   * Missing values or improperly formatted values are flagged missing
+   * in the sample.
+   * Expected output of the form <DATE  WeatherSampleWritable>
+   *
+   * Unless inmapper.combine is false, observations are first summed per
+   * date in memory and one sample per date is written when the buffer
+   * fills up and in cleanup().
+   *
+   * In the spatial mode each sample holds the observations of a single
+   * station, found from the STATION column (0).  Those of a station not
+   * in the StationGrid only count citywide.
    */
   public static class ParceWeather
-       extends Mapper<LongWritable, Text, Text, Text>{
+       extends Mapper<LongWritable, Text, DayKey, WeatherSampleWritable>{
 
-    private Text date = new Text();
-    private Text weather = new Text();
-    private final Integer[] indicies = {10, 14, 17, 16};
+    private DayKey date = new DayKey();
+    private WeatherSampleWritable weather = new WeatherSampleWritable();
+    private final int[] indicies = {10, 14, 17, 16};
+    private final CsvScanner line = new CsvScanner(18);
+
+    // Per date partial aggregates for in-mapper combining, null when turned off.
+    private LongIndexMap buffer;
+    private WeatherStats stats;
+
+    // First day to keep, set by incremental.since.
+    private int since;
+
+    // Station lookup, null unless spatial.
+    private StationGrid stations;
+
+    // Row counters and timings, added to the job counters in cleanup().
+    private TaskMetrics<Rows> metrics;
+    private long[] missing;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+      since = IncrementalOutput.since(context.getConfiguration());
+      if (context.getConfiguration().getBoolean(StationGrid.SPATIAL_KEY, false)) {
+        stations = StationGrid.load(context.getConfiguration());
+      }
+      metrics = new TaskMetrics<Rows>("Map", Rows.class, context.getConfiguration());
+      missing = metrics.group("Missing weather values", WeatherStats.NAMES);
+      // Count, min, max and two compensated sums per attribute.
+      buffer = LongIndexMap.forTask(context.getConfiguration(),
+          WeatherSampleWritable.FIELDS * (4 + 6 * 8));
+      if (buffer != null) {
+        stats = new WeatherStats(buffer.capacity());
+      }
+    }
 
     public void map(LongWritable key, Text value, Context context
                     ) throws IOException, InterruptedException {
+      long start = metrics.start();
+      metrics.count(Rows.READ);
+      metrics.count(parse(value, context));
+      metrics.stop(start);
+    }
 
-      String val = value.toString();
-      // Skip header of .csv file.
-      if (key.get() == 0 && val.contains("STATION_NAME")) {
-        return;
+    /**
+     * Parse an observation row.
+     *
+     * @return USED, or the reason the row was skipped
+     */
+    private Rows parse(Text value, Context context
+                       ) throws IOException, InterruptedException {
+
+      line.scan(value);
+
+      // Date and time of the observation, only the date is kept.
+      int day;
+      try {
+        day = line.parseDay(5);
       }
-      else {
-        String[] line = val.split(",");
-        StringJoiner Wx = new StringJoiner(",");
-        String item;
+      catch (NumberFormatException e) {
+        return Rows.BAD_DATE;
+      }
+      if (day < since) {
+        return Rows.BEFORE_SINCE;
+      }
+      int station = stations == null ? 0 : stations.indexOf(line.bytes(), line.start(0), line.length(0));
 
-        for (int i : indicies) {
-          item = line[i].replaceAll("[^-\\d.]", "");
-          Wx.add(item.equals("") ? "?" : item);
+      if (buffer == null) {
+        // Values are parsed in place, dropping any quality flag.
+        weather.clear();
+        for (int i = 0; i < indicies.length; ++i) {
+          double item = line.parseNumber(indicies[i]);
+          if (!Double.isNaN(item)) {
+            weather.set(i, item);
+          }
+          else {
+            missing[i]++;
+          }
         }
-        date.set(line[5].split("\\s+")[0]);
+        weather.setStation(station);
+        date.set(day);
+        context.write(date, weather);
+      }
+      else {
+        // Partial aggregates of a date and station
+        long pair = ((long) day << 8) | station;
+        int slot = buffer.indexOf(pair);
+        if (slot < 0) {
+          flush(context);
+          slot = buffer.indexOf(pair);
+        }
+        for (int i = 0; i < indicies.length; ++i) {
+          double item = line.parseNumber(indicies[i]);
+          if (!Double.isNaN(item)) {
+            stats.add(slot, i, item);
+          }
+          else {
+            missing[i]++;
+          }
+        }
+      }
+      return Rows.USED;
+    }
 
-        weather.set(Wx.toString());
+    /**
+     * Write out and reset the buffered partial aggregates.
+     */
+    private void flush(Context context) throws IOException, InterruptedException {
+      for (int slot = 0; slot < buffer.size(); ++slot) {
+        long pair = buffer.keyAt(slot);
+        weather.clear();
+        weather.merge(stats, slot);
+        weather.setStation((int) pair & 0xFF);
+        date.set((int) (pair >> 8));
         context.write(date, weather);
       }
+      stats.clear(0, buffer.size());
+      buffer.clear();
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+      if (buffer != null) {
+        flush(context);
+      }
+      metrics.finish(context);
+    }
+  }
+
+  /**
+   * Combiner class merges the partial aggregates of a date, which is
+   * safe in any order and any number of times.  In the spatial mode those
+   * of each station are merged apart.
+   */
+  public static class CombineWeather
+       extends Reducer<DayKey, WeatherSampleWritable, DayKey, WeatherSampleWritable> {
+
+    private WeatherSampleWritable merged = new WeatherSampleWritable();
+
+    // Partial aggregates of each station 0..N, null unless spatial.
+    private WeatherStats perStation;
+    private boolean[] seen;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+      if (context.getConfiguration().getBoolean(StationGrid.SPATIAL_KEY, false)) {
+        int n = StationGrid.load(context.getConfiguration()).stations() + 1;
+        perStation = new WeatherStats(n);
+        seen = new boolean[n];
+      }
+    }
+
+    public void reduce(DayKey key, Iterable<WeatherSampleWritable> values, Context context
+                       ) throws IOException, InterruptedException {
+
+      if (perStation == null) {
+        merged.clear();
+        for (WeatherSampleWritable val : values) {
+          val.mergeInto(merged.getStats(), 0);
+        }
+        context.write(key, merged);
+        return;
+      }
+
+      for (WeatherSampleWritable val : values) {
+        val.mergeInto(perStation, val.getStation());
+        seen[val.getStation()] = true;
+      }
+      for (int s = 0; s < seen.length; ++s) {
+        if (seen[s]) {
+          merged.clear();
+          merged.merge(perStation, s);
+          merged.setStation(s);
+          context.write(key, merged);
+          seen[s] = false;
+        }
+      }
+      perStation.clear(0, seen.length);
     }
   }
 
@@ -69,77 +247,197 @@ public class WeatherReducer {
    * The four weather attributes are averaged by day for all properly
    * formatted values.  Thus, disregarding missing values.
    *
-   * The average is computed by summing valid values and incrimenting
-   * by the number of summations for that feature.
+   * The average is computed from the merged partial aggregates, an
+   * attribute without any valid value that day is written as "?".
    *
    * Expected output of the form <DATE,DeltaWx1,DeltaWx2,DeltaWx3,DeltaWx4>
+   *
+   * With weather.output.stats set, the daily count, minimum, maximum and
+   * standard deviation of each attribute follow:
+   * <DATE,DeltaWx1..4,Count1..4,Min1..4,Max1..4,StdDev1..4>
+   *
+   * In the spatial mode the rows of the stations observed that day are
+   * written in the same form to _stationN, N the station.
    */
   public static class ReduceWeather
-       extends Reducer<Text, Text, Text, NullWritable> {
+       extends Reducer<DayKey, WeatherSampleWritable, Text, NullWritable> {
 
-    private Text composite = new Text();
+    private ColumnarOutputFormat.Row composite = new ColumnarOutputFormat.Row();
+    // Slot 0 citywide, then each station in the spatial mode.
+    private WeatherStats day = new WeatherStats(1);
+    private int slots = 1;
+    private MultipleOutputs<Text, NullWritable> mos;
+    private final double[] means = new double[WeatherStats.FIELDS];
+    private boolean withStats;
+    private boolean columnar;
 
-    public void reduce(Text key, Iterable<Text> values, Context context
-                       ) throws IOException, InterruptedException {
+    // Day counters and timings, added to the job counters in cleanup().
+    private TaskMetrics<Days> metrics;
+    private long[] without;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+      withStats = context.getConfiguration().getBoolean(STATS_KEY, false);
+      columnar = ColumnarOutputFormat.isColumnar(context.getConfiguration());
+      if (context.getConfiguration().getBoolean(StationGrid.SPATIAL_KEY, false)) {
+        slots = StationGrid.load(context.getConfiguration()).stations() + 1;
+        day = new WeatherStats(slots);
+        mos = new MultipleOutputs<Text, NullWritable>(context);
+      }
+      metrics = new TaskMetrics<Days>("Reduce", Days.class, context.getConfiguration());
+      without = metrics.group("Days without weather values", WeatherStats.NAMES);
+    }
 
-      StringJoiner out = new StringJoiner(",");
-      out.add(key.toString());
+    public void reduce(DayKey key, Iterable<WeatherSampleWritable> values, Context context
+                       ) throws IOException, InterruptedException {
+      long start = metrics.start();
 
-      Integer[] counts = {0, 0 , 0, 0};
-      Double[] deltaWx = {0.0, 0.0, 0.0, 0.0};
-      String[] temp = new String[4];
-      int errors = 0;
+      day.clear(0, slots);
+      for (WeatherSampleWritable val : values) {
+        val.mergeInto(day, 0);
+        if (val.getStation() != 0) {
+          val.mergeInto(day, val.getStation());
+        }
+      }
 
-      for (Text val : values) {
-        temp = val.toString().split(",");
+      // An attribute without a single observation is written as "?".
+      boolean complete = true;
+      for (int i = 0; i < WeatherStats.FIELDS; ++i) {
+        if (day.count(0, i) == 0) {
+          without[i]++;
+          complete = false;
+        }
+      }
+      metrics.count(Days.WRITTEN);
+      if (!complete) {
+        metrics.count(Days.INCOMPLETE);
+      }
 
-        for (int i = 0; i < 4; ++i) {
-          if (!temp[i].equals("?")) {
-            deltaWx[i] += Double.parseDouble(temp[i]);
-            ++counts[i];
-          }
-          else {
-            ++errors;
-          }
+      if (columnar) {
+        for (int i = 0; i < WeatherStats.FIELDS; ++i) {
+          means[i] = day.mean(0, i);
         }
+        composite.setValues(key.get(), means, null);
       }
-      // System.out.println("ERROR: " + errors + ", on " + key.toString());
-      for (int i = 0; i < 4; ++i) {
-        out.add(Double.toString(deltaWx[i] / counts[i]));
+      else {
+        composite.set(line(key.get(), day, 0, withStats));
       }
-      composite.set(out.toString());
       context.write(composite, NullWritable.get());
+
+      // Stations without a single value that day are left out
+      for (int s = 1; s < slots; ++s) {
+        boolean observed = false;
+        for (int i = 0; i < WeatherStats.FIELDS; ++i) {
+          observed |= day.count(s, i) > 0;
+        }
+        if (observed) {
+          composite.set(line(key.get(), day, s, withStats));
+          mos.write(composite, NullWritable.get(), StationGrid.STATION_OUTPUT + s);
+        }
+      }
+      metrics.stop(start);
     }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+      if (mos != null) {
+        mos.close();
+      }
+      metrics.finish(context);
+    }
+  }
+
+  /**
+   * Output row of a day from its merged aggregates in a slot of stats,
+   * shared with the local engine so both write the same bytes.
+   */
+  public static String line(int date, WeatherStats stats, int slot, boolean withStats) {
+    StringJoiner out = new StringJoiner(",");
+    out.add(DayKey.toIsoDate(date));
+    for (int i = 0; i < WeatherStats.FIELDS; ++i) {
+      out.add(WeatherStats.format(stats.mean(slot, i)));
+    }
+    if (withStats) {
+      for (int i = 0; i < WeatherStats.FIELDS; ++i) {
+        out.add(Integer.toString(stats.count(slot, i)));
+      }
+      for (int i = 0; i < WeatherStats.FIELDS; ++i) {
+        out.add(stats.count(slot, i) == 0 ? WeatherStats.MISSING : Double.toString(stats.min(slot, i)));
+      }
+      for (int i = 0; i < WeatherStats.FIELDS; ++i) {
+        out.add(stats.count(slot, i) == 0 ? WeatherStats.MISSING : Double.toString(stats.max(slot, i)));
+      }
+      for (int i = 0; i < WeatherStats.FIELDS; ++i) {
+        out.add(WeatherStats.format(stats.stddev(slot, i)));
+      }
+    }
+    return out.toString();
   }
 
   /**
    * Driver method for the WeatherReducer class.
    */
   public static void main(String[] args) throws Exception {
+    Configuration conf = new Configuration();
+    // Generic options such as -D weather.output.stats=true come first.
+    args = new GenericOptionsParser(conf, args).getRemainingArgs();
     if (args.length != 2) {
-      System.err.println("USAGE: <Inputdirectory> <Outputlocation>");
+      System.err.println("USAGE: [-D weather.output.stats=true] [-D weather.spatial=true] [-D incremental.since=YYYY-MM-DD] <Inputdirectory> <Outputlocation>");
       System.exit(0);
 	  }
-    Configuration conf = new Configuration();
+    Job job = createJob(conf, args);
+    boolean success = job.waitForCompletion(true);
+    if (success) {
+      IncrementalOutput.merge(job);
+      // Row counts, missing values and timings go to <Outputlocation>/_metrics.csv.
+      TaskMetrics.writeSummary(job);
+    }
+    System.exit(success ? 0 : 1);
+  }
+
+  /**
+   * Configures the job for <Inputdirectory> <Outputlocation>, without running it.
+   */
+  public static Job createJob(Configuration conf, String[] args) throws IOException {
     Job job = Job.getInstance(conf, "Weather Reducer");
     job.setJarByClass(WeatherReducer.class);
 
     job.setMapperClass(ParceWeather.class);
+    job.setCombinerClass(CombineWeather.class);
     job.setReducerClass(ReduceWeather.class);
 
-    // Reducer output key, value
-    job.setMapOutputKeyClass(Text.class);
-    job.setMapOutputValueClass(Text.class);
+    // Mapper output key, value
+    job.setMapOutputKeyClass(DayKey.class);
+    job.setMapOutputValueClass(WeatherSampleWritable.class);
 
     // Reducer output key, value
     job.setOutputKeyClass(Text.class);
     job.setOutputValueClass(NullWritable.class);
 
-    // Recursively map each input in directory to reducer.
+    // -D output.format=columnar writes binary <year>/part-r-00000.col tables instead.
+    boolean columnar = ColumnarOutputFormat.configure(job, ColumnarTable.WEATHER);
+    Compression.configure(job);
+
+    // -D weather.spatial=true also writes the rows of each station.
+    if (conf.getBoolean(StationGrid.SPATIAL_KEY, false)) {
+      if (columnar || IncrementalOutput.isEnabled(conf)) {
+        throw new IllegalArgumentException("The spatial mode writes the full text output");
+      }
+      if (conf.get(StationGrid.FILE_KEY) != null) {
+        StationGrid.addTo(job, conf.get(StationGrid.FILE_KEY));
+      }
+    }
+
+    // Recursively map each input in directory to reducer, the header of
+    // each .csv file and malformed rows are left out by CsvInputFormat.
+    job.setInputFormatClass(CsvInputFormat.class);
     FileInputFormat.setInputDirRecursive(job, true);
     FileInputFormat.addInputPath(job, new Path(args[0]));
-    FileOutputFormat.setOutputPath(job, new Path(args[1]));
 
-    System.exit(job.waitForCompletion(true) ? 0 : 1);
+    // With -D incremental.since=<date> only the days from then on are
+    // aggregated and merged into the existing output.
+    Path out = new Path(args[1]);
+    FileOutputFormat.setOutputPath(job, IncrementalOutput.prepare(job, out));
+    return job;
   }
 }
@@ -1,8 +1,11 @@
 #!/bin/bash
 
 rm *.class ||: \
-&& /usr/local/hadoop/bin/hadoop com.sun.tools.javac.Main ./WeatherReducer.java \
-&& jar cf WeatherReducer.jar WeatherReducer*.class \
+&& /usr/local/hadoop/bin/hadoop com.sun.tools.javac.Main -sourcepath ../common -d . ./WeatherReducer.java \
+&& jar cf WeatherReducer.jar *.class \
 && /usr/local/hadoop/bin/hadoop fs -rm -R /tmp/out/weather ||: \
 && /usr/local/hadoop/bin/hadoop jar ./WeatherReducer.jar WeatherReducer /tmp/data/weather /tmp/out/weather
 #&& /usr/local/hadoop/bin/hadoop fs -cat /tmp/out/weather/*
+
+# For a daily refresh keep the output and only redo the days from a watermark on:
+#/usr/local/hadoop/bin/hadoop jar ./WeatherReducer.jar WeatherReducer -D incremental.since=2018-10-01 /tmp/data/weather /tmp/out/weather